@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.deltadna.android.sdk.helpers.Preconditions;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates high-frequency values, such as frame times or taps, in memory
+ * and records a single summary {@link Event} per metric when flushed,
+ * instead of an event for each value.
+ * <p>
+ * The summary event is named after the metric and carries the
+ * {@code aggregateCount}, {@code aggregateSum}, {@code aggregateMin},
+ * {@code aggregateMax} and {@code aggregatePeriod} (in seconds) parameters,
+ * as well as {@code aggregateBounds} and {@code aggregateBuckets} if the
+ * metric has been set up as a histogram. These parameters will need to be
+ * added to the event schema.
+ * <p>
+ * Metrics get flushed periodically as set by
+ * {@link com.deltadna.android.sdk.helpers.Settings#setAggregationFlushInterval(int)},
+ * when the session changes, and when the SDK is stopped.
+ * <p>
+ * An instance can be retrieved through {@link DDNA#getAggregator()}.
+ */
+public final class Aggregator {
+    
+    private static final String TAG = BuildConfig.LOG_TAG
+            + ' '
+            + Aggregator.class.getSimpleName();
+    
+    private static final int METRICS_LIMIT = 256;
+    private static final int INITIAL_CAPACITY = 16;
+    
+    private final ScheduledExecutorService executor =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    final Thread thread = new Thread(
+                            r,
+                            Aggregator.class.getSimpleName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    
+    private final Listener listener;
+    
+    private final Map<String, Integer> indices = new HashMap<>();
+    private String[] names = new String[INITIAL_CAPACITY];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private double[] sums = new double[INITIAL_CAPACITY];
+    private double[] mins = new double[INITIAL_CAPACITY];
+    private double[] maxs = new double[INITIAL_CAPACITY];
+    private double[][] bounds = new double[INITIAL_CAPACITY][];
+    private long[][] buckets = new long[INITIAL_CAPACITY][];
+    private int size;
+    
+    private long periodStart = System.currentTimeMillis();
+    
+    @Nullable
+    private ScheduledFuture<?> flushTask;
+    
+    Aggregator(Listener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * Counts an occurrence for a metric.
+     *
+     * @param metric the name of the metric
+     *
+     * @return this {@link Aggregator} instance
+     *
+     * @throws IllegalArgumentException if the {@code metric} is null or
+     *                                  empty
+     */
+    public Aggregator increment(String metric) {
+        return record(metric, 1);
+    }
+    
+    /**
+     * Records a value for a metric.
+     *
+     * @param metric    the name of the metric
+     * @param value     the value
+     *
+     * @return this {@link Aggregator} instance
+     *
+     * @throws IllegalArgumentException if the {@code metric} is null or
+     *                                  empty, or if the {@code value} is
+     *                                  not finite
+     */
+    public synchronized Aggregator record(String metric, double value) {
+        Preconditions.checkArg(
+                !Double.isNaN(value) && !Double.isInfinite(value),
+                "value must be finite");
+        
+        final int index = indexOf(metric);
+        if (index == -1) {
+            return this;
+        }
+        
+        counts[index]++;
+        sums[index] += value;
+        if (value < mins[index]) mins[index] = value;
+        if (value > maxs[index]) maxs[index] = value;
+        
+        final double[] metricBounds = bounds[index];
+        if (metricBounds != null) {
+            final int position = Arrays.binarySearch(metricBounds, value);
+            buckets[index][(position >= 0) ? position + 1 : -position - 1]++;
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Sets up a metric to also count its values into buckets, where the
+     * first bucket holds values below the first bound, bucket {@code i}
+     * holds values from bound {@code i - 1} up to but excluding bound
+     * {@code i}, and the last bucket holds values from the last bound
+     * onwards.
+     * <p>
+     * Any values already recorded for the metric in the current period
+     * will not be counted into the buckets.
+     *
+     * @param metric    the name of the metric
+     * @param bounds    the bounds of the buckets, in ascending order
+     *
+     * @return this {@link Aggregator} instance
+     *
+     * @throws IllegalArgumentException if the {@code metric} is null or
+     *                                  empty, or if the {@code bounds} are
+     *                                  empty, not finite, or not in
+     *                                  ascending order
+     */
+    public synchronized Aggregator histogram(String metric, double... bounds) {
+        Preconditions.checkArg(
+                bounds != null && bounds.length > 0,
+                "bounds cannot be null or empty");
+        for (int i = 0; i < bounds.length; i++) {
+            Preconditions.checkArg(
+                    !Double.isNaN(bounds[i]) && !Double.isInfinite(bounds[i]),
+                    "bounds must be finite");
+            Preconditions.checkArg(
+                    i == 0 || bounds[i - 1] < bounds[i],
+                    "bounds must be in ascending order");
+        }
+        
+        final int index = indexOf(metric);
+        if (index != -1) {
+            this.bounds[index] = bounds.clone();
+            buckets[index] = new long[bounds.length + 1];
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Records the summary events for all metrics which have had values
+     * since the previous flush, and starts a new period.
+     *
+     * @return this {@link Aggregator} instance
+     */
+    public Aggregator flush() {
+        final List<Event> events;
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+            final long period = TimeUnit.MILLISECONDS.toSeconds(
+                    now - periodStart);
+            periodStart = now;
+            
+            events = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                if (counts[i] > 0) {
+                    events.add(summary(i, period));
+                    reset(i);
+                }
+            }
+        }
+        
+        listener.onFlush(events);
+        
+        return this;
+    }
+    
+    /**
+     * Starts periodic flushing.
+     *
+     * @param interval the interval in seconds, {@code 0} for none
+     */
+    synchronized void start(int interval) {
+        stop();
+        
+        if (interval > 0) {
+            flushTask = executor.scheduleWithFixedDelay(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            flush();
+                        }
+                    },
+                    interval,
+                    interval,
+                    TimeUnit.SECONDS);
+        }
+    }
+    
+    /**
+     * Stops periodic flushing.
+     */
+    synchronized void stop() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+    }
+    
+    private int indexOf(String metric) {
+        Preconditions.checkString(metric, "metric cannot be null or empty");
+        
+        final Integer existing = indices.get(metric);
+        if (existing != null) {
+            return existing;
+        }
+        
+        if (size == METRICS_LIMIT) {
+            Log.w(TAG, "Ignoring metric " + metric + ", limit reached");
+            return -1;
+        }
+        if (size == names.length) {
+            grow();
+        }
+        
+        final int index = size++;
+        indices.put(metric, index);
+        names[index] = metric;
+        reset(index);
+        
+        return index;
+    }
+    
+    private Event summary(int index, long period) {
+        final Event event = new Event(names[index])
+                .putParam("aggregateCount", counts[index])
+                .putParam("aggregateSum", sums[index])
+                .putParam("aggregateMin", mins[index])
+                .putParam("aggregateMax", maxs[index])
+                .putParam("aggregatePeriod", period);
+        
+        if (bounds[index] != null) {
+            final JSONArray metricBounds = new JSONArray();
+            final JSONArray metricBuckets = new JSONArray();
+            try {
+                for (final double bound : bounds[index]) {
+                    metricBounds.put(bound);
+                }
+            } catch (JSONException e) {
+                // cannot happen as the bounds are finite
+                Log.w(TAG, e);
+            }
+            for (final long bucket : buckets[index]) {
+                metricBuckets.put(bucket);
+            }
+            
+            event   .putParam("aggregateBounds", metricBounds)
+                    .putParam("aggregateBuckets", metricBuckets);
+        }
+        
+        return event;
+    }
+    
+    private void reset(int index) {
+        counts[index] = 0;
+        sums[index] = 0;
+        mins[index] = Double.POSITIVE_INFINITY;
+        maxs[index] = Double.NEGATIVE_INFINITY;
+        if (buckets[index] != null) {
+            Arrays.fill(buckets[index], 0);
+        }
+    }
+    
+    private void grow() {
+        final int capacity = Math.min(names.length * 2, METRICS_LIMIT);
+        
+        names = Arrays.copyOf(names, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        sums = Arrays.copyOf(sums, capacity);
+        mins = Arrays.copyOf(mins, capacity);
+        maxs = Arrays.copyOf(maxs, capacity);
+        bounds = Arrays.copyOf(bounds, capacity);
+        buckets = Arrays.copyOf(buckets, capacity);
+    }
+    
+    interface Listener {
+        
+        /**
+         * Called on every flush, including when no metrics had values.
+         *
+         * @param events the summary events
+         */
+        void onFlush(List<Event> events);
+    }
+}
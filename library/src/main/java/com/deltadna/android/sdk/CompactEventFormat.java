@@ -0,0 +1,762 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk;
+
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary format for storing events at rest, which gets transcoded
+ * back into JSON when the events are read for uploading.
+ * <p>
+ * Keys and string values are written once per record and referred to by
+ * their index afterwards, with the keys which appear in most events being
+ * part of a static dictionary. UUIDs and event timestamps are packed into
+ * their binary form, and integers are written as variable length numbers.
+ * <p>
+ * A record starts with {@link #MAGIC}, which cannot start a JSON document,
+ * so records stored as JSON by previous versions can still be read.
+ */
+final class CompactEventFormat {
+    
+    private static final String TAG = BuildConfig.LOG_TAG
+            + ' '
+            + CompactEventFormat.class.getSimpleName();
+    
+    static final byte MAGIC = 0x01;
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    private static final int NULL = 0;
+    private static final int FALSE = 1;
+    private static final int TRUE = 2;
+    private static final int INTEGER = 3;
+    private static final int NUMBER = 4;
+    private static final int STRING = 5;
+    private static final int REFERENCE = 6;
+    private static final int OBJECT = 7;
+    private static final int ARRAY = 8;
+    private static final int END = 9;
+    private static final int UUID = 10;
+    private static final int TIMESTAMP = 11;
+    
+    /**
+     * Entries can only be appended, as the indices are persisted.
+     */
+    private static final String[] DICTIONARY = {
+            "eventName",
+            "eventTimestamp",
+            "eventUUID",
+            "sessionID",
+            "userID",
+            "eventParams",
+            "platform",
+            "sdkVersion",
+            "transactionName",
+            "transactionType",
+            "transactionID",
+            "productID",
+            "productsReceived",
+            "productsSpent",
+            "realCurrency",
+            "realCurrencyType",
+            "realCurrencyAmount",
+            "virtualCurrencies",
+            "virtualCurrency",
+            "virtualCurrencyName",
+            "virtualCurrencyType",
+            "virtualCurrencyAmount",
+            "items",
+            "item",
+            "itemName",
+            "itemType",
+            "itemAmount"};
+    private static final Map<String, Integer> INDICES;
+    private static final byte[][] QUOTED_DICTIONARY;
+    static {
+        final Map<String, Integer> indices = new HashMap<>(DICTIONARY.length * 2);
+        QUOTED_DICTIONARY = new byte[DICTIONARY.length][];
+        for (int i = 0; i < DICTIONARY.length; i++) {
+            indices.put(DICTIONARY[i], i);
+            QUOTED_DICTIONARY[i] = ('"' + DICTIONARY[i] + '"').getBytes(UTF8);
+        }
+        INDICES = Collections.unmodifiableMap(indices);
+    }
+    
+    /**
+     * Escape sequences for the ASCII characters which need escaping inside
+     * of a JSON string.
+     */
+    private static final byte[][] ESCAPES = new byte[0x80][];
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = unicodeEscape(c);
+        }
+        ESCAPES['"'] = "\\\"".getBytes(UTF8);
+        ESCAPES['\\'] = "\\\\".getBytes(UTF8);
+        ESCAPES['\n'] = "\\n".getBytes(UTF8);
+        ESCAPES['\r'] = "\\r".getBytes(UTF8);
+        ESCAPES['\t'] = "\\t".getBytes(UTF8);
+        ESCAPES['\b'] = "\\b".getBytes(UTF8);
+        ESCAPES['\f'] = "\\f".getBytes(UTF8);
+    }
+    private static final byte[] LINE_SEPARATOR = unicodeEscape(0x2028);
+    private static final byte[] PARAGRAPH_SEPARATOR = unicodeEscape(0x2029);
+    
+    private static final byte[] LITERAL_TRUE = "true".getBytes(UTF8);
+    private static final byte[] LITERAL_FALSE = "false".getBytes(UTF8);
+    private static final byte[] LITERAL_NULL = "null".getBytes(UTF8);
+    
+    /**
+     * Limit on the number of strings a record can refer back to, which
+     * bounds the memory used while encoding and decoding.
+     */
+    private static final int STRINGS_LIMIT = 1024;
+    
+    private static final int TIMESTAMP_LENGTH = 23;
+    private static final int UUID_LENGTH = 36;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+    
+    private CompactEventFormat() {}
+    
+    static boolean isCompact(byte[] content) {
+        return content.length > 0 && content[0] == MAGIC;
+    }
+    
+    /**
+     * Encodes an event from JSON into the compact format.
+     *
+     * @param json the event as UTF-8 encoded JSON
+     *
+     * @return the encoded event, or {@code null} if the {@code json}
+     *         could not be parsed
+     */
+    @Nullable
+    static byte[] encode(byte[] json) {
+        // cheaper than an InputStreamReader for small inputs
+        final JsonReader reader = new JsonReader(
+                new StringReader(new String(json, UTF8)));
+        try {
+            final Output out = new Output(json.length);
+            out.write(MAGIC);
+            value(reader, out);
+            
+            return out.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed encoding event, will be stored as is", e);
+            return null;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {}
+        }
+    }
+    
+    /**
+     * Decodes an event from the compact format into JSON.
+     *
+     * @param record the encoded event
+     *
+     * @return the event as JSON
+     *
+     * @throws IOException if the {@code record} is malformed
+     */
+    static String decode(byte[] record) throws IOException {
+        final PayloadBuffer buffer = new PayloadBuffer(record.length * 2);
+        decode(record, buffer);
+        return new String(buffer.toByteArray(), UTF8);
+    }
+    
+    /**
+     * Decodes an event from the compact format into UTF-8 encoded JSON,
+     * writing it to {@code out}.
+     * <p>
+     * Strings are copied across as the bytes they were stored as, so the
+     * event never goes through a conversion into characters.
+     *
+     * @throws IOException if the {@code record} is malformed, or writing
+     *                     to {@code out} fails
+     */
+    static void decode(byte[] record, OutputStream out) throws IOException {
+        if (!isCompact(record)) {
+            throw new IOException("Missing format marker");
+        }
+        
+        final Input in = new Input(record);
+        try {
+            value(in, in.read(), out);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated record", e);
+        }
+        if (in.position != record.length) {
+            throw new IOException("Trailing bytes in record");
+        }
+    }
+    
+    private static void value(JsonReader reader, Output out)
+            throws IOException {
+        
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                out.write(OBJECT);
+                while (reader.hasNext()) {
+                    string(reader.nextName(), out);
+                    value(reader, out);
+                }
+                reader.endObject();
+                out.write(END);
+                break;
+            
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                out.write(ARRAY);
+                while (reader.hasNext()) {
+                    value(reader, out);
+                }
+                reader.endArray();
+                out.write(END);
+                break;
+            
+            case STRING:
+                final String value = reader.nextString();
+                if (!uuid(value, out) && !timestamp(value, out)) {
+                    string(value, out);
+                }
+                break;
+            
+            case NUMBER:
+                // reading as a string keeps the literal intact
+                final String literal = reader.nextString();
+                final long integer = integer(literal);
+                if (integer != Long.MIN_VALUE) {
+                    out.write(INTEGER);
+                    out.writeVarint((integer << 1) ^ (integer >> 63));
+                } else {
+                    out.write(NUMBER);
+                    out.writeBytes(literal.getBytes(UTF8));
+                }
+                break;
+            
+            case BOOLEAN:
+                out.write(reader.nextBoolean() ? TRUE : FALSE);
+                break;
+            
+            case NULL:
+                reader.nextNull();
+                out.write(NULL);
+                break;
+            
+            default:
+                throw new IOException("Unexpected " + reader.peek());
+        }
+    }
+    
+    private static void value(Input in, int tag, OutputStream out)
+            throws IOException {
+        
+        switch (tag) {
+            case OBJECT:
+                out.write('{');
+                int next = in.read();
+                while (next != END) {
+                    string(in, next, out);
+                    out.write(':');
+                    value(in, in.read(), out);
+                    
+                    next = in.read();
+                    if (next != END) out.write(',');
+                }
+                out.write('}');
+                break;
+            
+            case ARRAY:
+                out.write('[');
+                int element = in.read();
+                while (element != END) {
+                    value(in, element, out);
+                    
+                    element = in.read();
+                    if (element != END) out.write(',');
+                }
+                out.write(']');
+                break;
+            
+            case STRING:
+            case REFERENCE:
+                string(in, tag, out);
+                break;
+            
+            case UUID:
+                out.write('"');
+                for (int i = 0; i < 16; i++) {
+                    if (i == 4 || i == 6 || i == 8 || i == 10) {
+                        out.write('-');
+                    }
+                    final int b = in.read();
+                    out.write(HEX[b >> 4]);
+                    out.write(HEX[b & 0xF]);
+                }
+                out.write('"');
+                break;
+            
+            case TIMESTAMP:
+                out.write('"');
+                formatTimestamp(in.readVarint(), out);
+                out.write('"');
+                break;
+            
+            case INTEGER:
+                final long zigzag = in.readVarint();
+                ascii(Long.toString((zigzag >>> 1) ^ -(zigzag & 1)), out);
+                break;
+            
+            case NUMBER:
+                final int length = in.readLength();
+                out.write(in.buffer, in.position, length);
+                in.position += length;
+                break;
+            
+            case TRUE:
+                out.write(LITERAL_TRUE);
+                break;
+            
+            case FALSE:
+                out.write(LITERAL_FALSE);
+                break;
+            
+            case NULL:
+                out.write(LITERAL_NULL);
+                break;
+            
+            default:
+                throw new IOException("Unexpected tag " + tag);
+        }
+    }
+    
+    private static void string(String value, Output out) {
+        Integer index = INDICES.get(value);
+        if (index == null) {
+            index = out.strings.get(value);
+        }
+        
+        if (index != null) {
+            out.write(REFERENCE);
+            out.writeVarint(index);
+        } else {
+            out.write(STRING);
+            out.writeBytes(value.getBytes(UTF8));
+            
+            if (out.strings.size() < STRINGS_LIMIT) {
+                out.strings.put(value, DICTIONARY.length + out.strings.size());
+            }
+        }
+    }
+    
+    private static void string(Input in, int tag, OutputStream out)
+            throws IOException {
+        
+        if (tag == STRING) {
+            final int length = in.readLength();
+            final int start = in.position;
+            in.position += length;
+            in.remember(start, length);
+            
+            quote(in.buffer, start, length, out);
+        } else if (tag == REFERENCE) {
+            final long index = in.readVarint();
+            if (index < DICTIONARY.length) {
+                out.write(QUOTED_DICTIONARY[(int) index]);
+            } else if (index - DICTIONARY.length < in.count) {
+                final int string = (int) (index - DICTIONARY.length) * 2;
+                quote(  in.buffer,
+                        in.strings[string],
+                        in.strings[string + 1],
+                        out);
+            } else {
+                throw new IOException("Unknown string reference " + index);
+            }
+        } else {
+            throw new IOException("Expected string but found tag " + tag);
+        }
+    }
+    
+    /**
+     * Parses canonical integer literals which fit into a long.
+     * 
+     * @return the value, or {@link Long#MIN_VALUE} if the {@code literal}
+     *         would not survive the round trip
+     */
+    private static long integer(String literal) {
+        final int length = literal.length();
+        final int start = (length > 0 && literal.charAt(0) == '-') ? 1 : 0;
+        if (    length == start
+                || length - start > 18
+                || (literal.charAt(start) == '0' && length - start > 1)
+                || (start == 1 && literal.charAt(1) == '0')) {
+            return Long.MIN_VALUE;
+        }
+        
+        long value = 0;
+        for (int i = start; i < length; i++) {
+            final char c = literal.charAt(i);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        
+        return (start == 1) ? -value : value;
+    }
+    
+    private static boolean uuid(String value, Output out) {
+        if (value.length() != UUID_LENGTH) {
+            return false;
+        }
+        
+        final byte[] bytes = new byte[16];
+        int b = 0;
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            final char c = value.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') return false;
+                continue;
+            }
+            
+            final int nibble;
+            if (c >= '0' && c <= '9') {
+                nibble = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                nibble = c - 'a' + 10;
+            } else {
+                return false;
+            }
+            
+            bytes[b >> 1] |= (b & 1) == 0 ? nibble << 4 : nibble;
+            b++;
+        }
+        
+        out.write(UUID);
+        out.write(bytes, 0, bytes.length);
+        return true;
+    }
+    
+    private static boolean timestamp(String value, Output out)
+            throws IOException {
+        
+        if (    value.length() != TIMESTAMP_LENGTH
+                || value.charAt(4) != '-'
+                || value.charAt(7) != '-'
+                || value.charAt(10) != ' '
+                || value.charAt(13) != ':'
+                || value.charAt(16) != ':'
+                || value.charAt(19) != '.') {
+            return false;
+        }
+        
+        final int year = digits(value, 0, 4);
+        final int month = digits(value, 5, 2);
+        final int day = digits(value, 8, 2);
+        final int hour = digits(value, 11, 2);
+        final int minute = digits(value, 14, 2);
+        final int second = digits(value, 17, 2);
+        final int millis = digits(value, 20, 3);
+        if (    year < 1970 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 59 || millis < 0) {
+            return false;
+        }
+        
+        final long time = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60 + minute) * 60 + second) * 1000
+                + millis;
+        
+        // invalid dates, such as the 31st of February, do not round trip
+        final PayloadBuffer check = new PayloadBuffer(TIMESTAMP_LENGTH);
+        formatTimestamp(time, check);
+        final byte[] formatted = check.toByteArray();
+        if (formatted.length != TIMESTAMP_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < TIMESTAMP_LENGTH; i++) {
+            if (formatted[i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        
+        out.write(TIMESTAMP);
+        out.writeVarint(time);
+        return true;
+    }
+    
+    private static int digits(String value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+    
+    /**
+     * Formats non-negative {@code time} in milliseconds since the epoch as
+     * {@code yyyy-MM-dd HH:mm:ss.SSS} in UTC.
+     */
+    private static void formatTimestamp(long time, OutputStream out)
+            throws IOException {
+        
+        final long days = time / MILLIS_PER_DAY;
+        long remainder = time % MILLIS_PER_DAY;
+        
+        // civil from days, as described by Howard Hinnant
+        final long z = days + 719468;
+        final long era = z / 146097;
+        final long doe = z - era * 146097;
+        final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final long mp = (5 * doy + 2) / 153;
+        final long day = doy - (153 * mp + 2) / 5 + 1;
+        final long month = (mp < 10) ? mp + 3 : mp - 9;
+        final long year = yoe + era * 400 + ((month <= 2) ? 1 : 0);
+        
+        pad(year, 4, out);
+        out.write('-');
+        pad(month, 2, out);
+        out.write('-');
+        pad(day, 2, out);
+        out.write(' ');
+        pad(remainder / 3600000, 2, out);
+        out.write(':');
+        remainder %= 3600000;
+        pad(remainder / 60000, 2, out);
+        out.write(':');
+        remainder %= 60000;
+        pad(remainder / 1000, 2, out);
+        out.write('.');
+        pad(remainder % 1000, 3, out);
+    }
+    
+    /**
+     * Days since the epoch for a date from 1970 onwards, as described
+     * by Howard Hinnant.
+     */
+    private static long daysFromCivil(long year, long month, long day) {
+        final long y = (month <= 2) ? year - 1 : year;
+        final long era = y / 400;
+        final long yoe = y - era * 400;
+        final long doy = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5
+                + day - 1;
+        final long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        
+        return era * 146097 + doe - 719468;
+    }
+    
+    private static void pad(long value, int width, OutputStream out)
+            throws IOException {
+        
+        for (long limit = 10; width > 1; width--, limit *= 10) {
+            if (value < limit) {
+                out.write('0');
+            }
+        }
+        ascii(Long.toString(value), out);
+    }
+    
+    private static void ascii(String value, OutputStream out)
+            throws IOException {
+        
+        for (int i = 0; i < value.length(); i++) {
+            out.write(value.charAt(i));
+        }
+    }
+    
+    /**
+     * Writes a UTF-8 encoded string as a quoted JSON string, copying the
+     * bytes which do not need to be escaped across in bulk.
+     */
+    private static void quote(
+            byte[] bytes,
+            int offset,
+            int length,
+            OutputStream out) throws IOException {
+        
+        out.write('"');
+        final int end = offset + length;
+        int run = offset;
+        for (int i = offset; i < end; i++) {
+            final int b = bytes[i] & 0xFF;
+            
+            final byte[] escape;
+            int width = 1;
+            if (b < 0x80) {
+                escape = ESCAPES[b];
+            } else if ( b == 0xE2
+                        && i + 2 < end
+                        && bytes[i + 1] == (byte) 0x80
+                        && (    bytes[i + 2] == (byte) 0xA8
+                            ||  bytes[i + 2] == (byte) 0xA9)) {
+                escape = (bytes[i + 2] == (byte) 0xA8)
+                        ? LINE_SEPARATOR
+                        : PARAGRAPH_SEPARATOR;
+                width = 3;
+            } else {
+                escape = null;
+            }
+            
+            if (escape != null) {
+                out.write(bytes, run, i - run);
+                out.write(escape);
+                i += width - 1;
+                run = i + 1;
+            }
+        }
+        out.write(bytes, run, end - run);
+        out.write('"');
+    }
+    
+    private static byte[] unicodeEscape(int c) {
+        return new byte[] {
+                '\\',
+                'u',
+                (byte) HEX[c >> 12],
+                (byte) HEX[(c >> 8) & 0xF],
+                (byte) HEX[(c >> 4) & 0xF],
+                (byte) HEX[c & 0xF]};
+    }
+    
+    private static final class Output {
+        
+        final Map<String, Integer> strings = new HashMap<>();
+        
+        private byte[] buffer;
+        private int count;
+        
+        Output(int capacity) {
+            buffer = new byte[Math.max(capacity, 16)];
+        }
+        
+        void write(int b) {
+            ensure(1);
+            buffer[count++] = (byte) b;
+        }
+        
+        void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+        
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[count++] = (byte) value;
+        }
+        
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+        
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, count);
+        }
+        
+        private void ensure(int length) {
+            if (count + length > buffer.length) {
+                buffer = Arrays.copyOf(
+                        buffer,
+                        Math.max(buffer.length * 2, count + length));
+            }
+        }
+    }
+    
+    private static final class Input {
+        
+        /**
+         * Offset and length pairs of the strings seen so far, which point
+         * into the buffer.
+         */
+        int[] strings = new int[32];
+        int count;
+        
+        final byte[] buffer;
+        int position;
+        
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+            // skip the marker
+            position = 1;
+        }
+        
+        int read() {
+            return buffer[position++] & 0xFF;
+        }
+        
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+        
+        /**
+         * Reads the length of the string which follows, leaving the
+         * position at its first byte.
+         */
+        int readLength() throws IOException {
+            final long length = readVarint();
+            if (length < 0 || length > buffer.length - position) {
+                throw new IOException("Malformed string length " + length);
+            }
+            return (int) length;
+        }
+        
+        void remember(int offset, int length) {
+            if (count < STRINGS_LIMIT) {
+                if (count * 2 == strings.length) {
+                    strings = Arrays.copyOf(strings, strings.length * 2);
+                }
+                strings[count * 2] = offset;
+                strings[count * 2 + 1] = length;
+                count++;
+            }
+        }
+    }
+}
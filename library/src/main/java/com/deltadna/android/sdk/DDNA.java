@@ -17,7 +17,6 @@
 package com.deltadna.android.sdk;
 
 import android.app.Application;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
@@ -32,30 +31,26 @@ import com.deltadna.android.sdk.listeners.EngageListener;
 import com.deltadna.android.sdk.listeners.ImageMessageListener;
 import com.deltadna.android.sdk.listeners.SessionListener;
 import com.deltadna.android.sdk.net.NetworkManager;
+import com.deltadna.android.sdk.util.MainThreadExecutor;
 
-import org.json.JSONException;
 import org.json.JSONObject;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 
 import java.io.File;
-import java.io.InputStream;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.TimeZone;
 import java.util.UUID;
 import java.util.WeakHashMap;
-
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Singleton class for accessing the deltaDNA SDK.
@@ -65,6 +60,12 @@ import javax.xml.xpath.XPathFactory;
  * {@link Application#onCreate()} method. Following this call an instance can
  * be accessed at any time through {@link DDNA#instance()}.
  * <p>
+ * Initialisation returns straight away, with the SDK reading its persisted
+ * state in the background. Events recorded before the SDK is ready get
+ * recorded once it is, while methods which depend on the persisted state,
+ * such as {@link #startSdk()}, wait for it. {@link #getReadiness()} can be
+ * used for finding out when the SDK is ready.
+ * <p>
  * Prior to sending events, or performing engagements, the SDK must be started
  * through {@link #startSdk()} or {@link #startSdk(String)}. {@link #stopSdk()}
  * should be called when the game is stopped.
@@ -79,15 +80,11 @@ public final class DDNA {
     private static final int ENGAGE_API_VERSION = 4;
     
     private static final String ENGAGE_STORAGE_PATH = "%s/ddsdk/engage/";
-    
-    private static final SimpleDateFormat TIMESTAMP_FORMAT;
-    static {
-        final SimpleDateFormat format = new SimpleDateFormat(
-                "yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
-        format.setTimeZone(TimeZone.getTimeZone("UTC"));
-        
-        TIMESTAMP_FORMAT = format;
-    }
+    /**
+     * Number of events held on to before the SDK is ready, after which
+     * further events get dropped.
+     */
+    private static final int PENDING_LIMIT = 1024;
     
     private static DDNA instance;
     
@@ -95,25 +92,63 @@ public final class DDNA {
     @Nullable
     private final String clientVersion;
     
-    private final Preferences preferences;
-    private final EventStore store;
-    private final EngageArchive archive;
-    private final NetworkManager network;
+    // set by the initialiser, and safe to use once ready
+    private Preferences preferences;
+    private EventStore store;
+    private EngageArchive archive;
+    private EventHandler eventHandler;
+    private String engageStoragePath;
     
+    private final NetworkManager network;
     private final SessionRefreshHandler sessionHandler;
-    private final EventHandler eventHandler;
     
-    private Map<String, Integer> iso4217;
+    private final Initialiser initialiser;
+    private final Future<Void> initialisation;
+    private volatile boolean ready;
+    /**
+     * Events recorded before the SDK was ready, also used as the lock
+     * for handing over to recording the events straight away.
+     */
+    private final List<PendingEvents> pending = new ArrayList<>();
+    // guarded by pending
+    private int pendingCount;
+    private long pendingDropped;
     
-    private final String engageStoragePath;
+    private final Executor mainThreadExecutor = new MainThreadExecutor();
+    private final Aggregator aggregator = new Aggregator(
+            new Aggregator.Listener() {
+                @Override
+                public void onFlush(List<Event> events) {
+                    handleEvents(events, false);
+                    
+                    final Event dropped = limiter.summary();
+                    if (dropped != null) {
+                        handleEvents(
+                                Collections.singletonList(dropped),
+                                false);
+                    }
+                }
+            });
+    private final EventLimiter limiter;
+    private final EventEncoder encoder =
+            new EventEncoder(ClientInfo.platform(), SDK_VERSION);
     
     private boolean started;
 	private String sessionId = UUID.randomUUID().toString();
     
     private final Set<SessionListener> sessionListeners = Collections.newSetFromMap(
             new WeakHashMap<SessionListener, Boolean>(1));
-    private final InputStream inputSourceIso4217;
 
+    /**
+     * Initialises the SDK, returning before the persisted state has been
+     * read in the background.
+     *
+     * @param configuration the configuration
+     *
+     * @return the {@link DDNA} instance
+     *
+     * @throws IllegalArgumentException if the {@code configuration} is null
+     */
     public static synchronized DDNA initialise(Configuration configuration) {
         Preconditions.checkArg(
                 configuration != null,
@@ -169,6 +204,7 @@ public final class DDNA {
      */
     public DDNA startSdk(@Nullable String userId) {
         Log.d(BuildConfig.LOG_TAG, "Starting SDK");
+        awaitReady();
         
         if (started) {
             Log.w(BuildConfig.LOG_TAG, "SDK already started");
@@ -182,6 +218,12 @@ public final class DDNA {
                 sessionHandler.register();
             }
             
+            if (settings.isPrewarmConnections()) {
+                network.prewarm();
+            }
+            
+            aggregator.start(settings.getAggregationFlushInterval());
+            
             if (settings.backgroundEventUpload()) {
                 eventHandler.start(
                         settings.backgroundEventUploadStartDelaySeconds(),
@@ -210,7 +252,10 @@ public final class DDNA {
         if (!started) {
             Log.w(BuildConfig.LOG_TAG, "SDK has not been started");
         } else {
-            recordEvent("gameEnded");
+            aggregator.stop();
+            aggregator.flush();
+            recordEvent(new Event("gameEnded")
+                    .setPriority(Event.Priority.LOW));
             
             sessionHandler.unregister();
             eventHandler.stop(true);
@@ -249,6 +294,8 @@ public final class DDNA {
                     "Automatic session refreshing is enabled");
         }
         
+        // metrics belong to the session in which they were recorded
+        aggregator.flush();
         sessionId = UUID.randomUUID().toString();
         
         for (final SessionListener listener : sessionListeners) {
@@ -286,27 +333,97 @@ public final class DDNA {
         if (!started) {
             Log.w(BuildConfig.LOG_TAG, "SDK has not been started");
         }
+        if (    !limiter.allow(event.name)
+                || buffer(Collections.singletonList(event))) {
+            return this;
+        }
         
-        final JSONObject jsonEvent = new JSONObject();
-        try {
-            jsonEvent.put("eventName", event.name);
-            jsonEvent.put("eventTimestamp", getCurrentTimestamp());
-            jsonEvent.put("eventUUID", UUID.randomUUID().toString());
-            jsonEvent.put("sessionID", sessionId);
-            jsonEvent.put("userID", getUserId());
-            
-            JSONObject params =
-                    new JSONObject(event.params.toJson().toString());
-            params.put("platform", ClientInfo.platform());
-            params.put("sdkVersion", SDK_VERSION);
-            
-            jsonEvent.put("eventParams", params);
-        } catch (JSONException e) {
-            // should never happen due to params enforcement
-            throw new IllegalArgumentException(e);
+        eventHandler.handleEvent(
+                encoder.encode(
+                        event.name,
+                        event.params,
+                        getUserId(),
+                        sessionId),
+                event.priority);
+        
+        return this;
+    }
+    
+    /**
+     * Records an event from a template with Collect.
+     *
+     * @param template the template of the event
+     *
+     * @return this {@link DDNA} instance
+     *
+     * @throws IllegalArgumentException if the {@code template} is null
+     *
+     * @see #recordEvent(EventTemplate, Params)
+     */
+    public DDNA recordEvent(EventTemplate template) {
+        return recordEvent(template, null);
+    }
+    
+    /**
+     * Records an event from a template with Collect, along with parameters
+     * which differ between each recording of the template.
+     * <p>
+     * The {@code params} take precedence over the parameters of the
+     * template under the same key.
+     *
+     * @param template  the template of the event
+     * @param params    the parameters for this event, may be {@code null}
+     *
+     * @return this {@link DDNA} instance
+     *
+     * @throws IllegalArgumentException if the {@code template} is null
+     */
+    public DDNA recordEvent(EventTemplate template, @Nullable Params params) {
+        Preconditions.checkArg(template != null, "template cannot be null");
+        
+        if (!started) {
+            Log.w(BuildConfig.LOG_TAG, "SDK has not been started");
+        }
+        if (!limiter.allow(template.name) || buffer(template, params)) {
+            return this;
+        }
+        
+        eventHandler.handleEvent(
+                encoder.encode(
+                        template,
+                        params,
+                        getUserId(),
+                        sessionId),
+                template.priority);
+        
+        return this;
+    }
+    
+    /**
+     * Records a group of events with Collect.
+     * <p>
+     * The events will be stored together, such that either all or none of
+     * them will be recorded if the event store is close to being full.
+     * Sampling and rate limits still apply to each of the events.
+     *
+     * @param events the events
+     *
+     * @return this {@link DDNA} instance
+     *
+     * @throws IllegalArgumentException if the {@code events} or any of its
+     *                                  elements are null
+     */
+    public DDNA recordEvents(Collection<? extends Event> events) {
+        Preconditions.checkArg(events != null, "events cannot be null");
+        for (final Event event : events) {
+            Preconditions.checkArg(event != null, "event cannot be null");
         }
         
-        eventHandler.handleEvent(jsonEvent);
+        if (!started) {
+            Log.w(BuildConfig.LOG_TAG, "SDK has not been started");
+        }
+        
+        handleEvents(events, true);
         
         return this;
     }
@@ -478,7 +595,33 @@ public final class DDNA {
             E engagement,
             EngageListener<E> listener) {
         
+        return requestEngagement(engagement, listener, mainThreadExecutor);
+    }
+    
+    /**
+     * Makes an Engage request.
+     * <p>
+     * The result will be passed into the provided {@code listener} through
+     * one of the callback methods on the {@code executor}, which allows
+     * the result to be handled away from the main UI thread.
+     *
+     * @param engagement    the engagement
+     * @param listener      listener for the result
+     * @param executor      executor on which the {@code listener} will be
+     *                      called
+     *
+     * @return this {@link DDNA} instance
+     *
+     * @throws IllegalArgumentException if the {@code engagement} is null
+     * @throws IllegalArgumentException if the {@code executor} is null
+     */
+    public <E extends Engagement> DDNA requestEngagement(
+            E engagement,
+            EngageListener<E> listener,
+            Executor executor) {
+        
         Preconditions.checkArg(engagement != null, "engagement cannot be null");
+        Preconditions.checkArg(executor != null, "executor cannot be null");
         
         if (!started) {
             Log.w(  BuildConfig.LOG_TAG,
@@ -489,6 +632,7 @@ public final class DDNA {
         eventHandler.handleEngagement(
                 engagement,
                 listener,
+                executor,
                 getUserId(),
                 sessionId,
                 ENGAGE_API_VERSION, SDK_VERSION);
@@ -615,6 +759,7 @@ public final class DDNA {
      * @return this {@link DDNA} instance
      */
     public DDNA upload() {
+        awaitReady();
         eventHandler.dispatch();
         return this;
     }
@@ -627,6 +772,7 @@ public final class DDNA {
      */
     @Nullable
     public String getUserId() {
+        awaitReady();
         return preferences.getUserId();
     }
     
@@ -641,7 +787,13 @@ public final class DDNA {
      * @return this {@link DDNA} instance
      */
     public DDNA setUserId(@Nullable String userId) {
-        final String currentUserId = getUserId();
+        awaitReady();
+        updateUserId(userId);
+        return this;
+    }
+    
+    private void updateUserId(@Nullable String userId) {
+        final String currentUserId = preferences.getUserId();
         final String newUserId;
         boolean changed = false;
         
@@ -666,7 +818,7 @@ public final class DDNA {
                 newUserId = userId;
             } else {
                 Log.d(BuildConfig.LOG_TAG, "User id has not changed");
-                return this;
+                return;
             }
         }
         
@@ -674,8 +826,6 @@ public final class DDNA {
         if (changed) {
             preferences.clearFirstRun();
         }
-        
-        return this;
     }
     
     /**
@@ -685,6 +835,7 @@ public final class DDNA {
      */
     @Nullable
     public String getRegistrationId() {
+        awaitReady();
         return preferences.getRegistrationId();
     }
     
@@ -697,6 +848,7 @@ public final class DDNA {
      * @return this {@link DDNA} instance
      */
     public DDNA setRegistrationId(@Nullable String registrationId) {
+        awaitReady();
         preferences.setRegistrationId(registrationId);
         return recordEvent(new Event("notificationServices").putParam(
                 "androidRegistrationID",
@@ -720,6 +872,7 @@ public final class DDNA {
      * @return this {@link DDNA} instance
      */
     public DDNA clearPersistentData() {
+        awaitReady();
         preferences.clear();
         store.clear();
         archive.clear();
@@ -731,11 +884,67 @@ public final class DDNA {
         return settings;
     }
     
+    /**
+     * Gets the {@link Aggregator} for recording high-frequency values as
+     * periodic summary events.
+     *
+     * @return the aggregator
+     */
+    public Aggregator getAggregator() {
+        return aggregator;
+    }
+    
     public String getSessionId() {
         return sessionId;
     }
     
+    /**
+     * Queries whether the SDK has finished reading its persisted state in
+     * the background.
+     *
+     * @return {@code true} if the SDK is ready, else {@code false}
+     */
+    public boolean isReady() {
+        return ready;
+    }
+    
+    /**
+     * Gets a {@link Future} which completes once the SDK has finished
+     * reading its persisted state in the background.
+     *
+     * @return the future
+     */
+    public Future<Void> getReadiness() {
+        return new Readiness(initialisation);
+    }
+    
+    /**
+     * Gets how long each phase of initialising the SDK took, for the
+     * phases which have completed so far.
+     *
+     * @return the durations in milliseconds keyed by the name of the phase
+     */
+    public Map<String, Long> getInitialisationTimings() {
+        return initialiser.getTimings();
+    }
+    
+    /**
+     * Takes a snapshot of the metrics for recorded events, such as how many
+     * are waiting in the event store, how long writing them took, how many
+     * have been rejected, and how they have been uploaded.
+     * <p>
+     * Counting the events which are waiting in the store may involve a
+     * query of the store, so this should be called off the main thread.
+     *
+     * @return the snapshot
+     */
+    public StoreMetrics getStoreMetrics() {
+        awaitReady();
+        return eventHandler.getMetrics();
+    }
+    
     String getEngageStoragePath() {
+        awaitReady();
         return engageStoragePath;
     }
     
@@ -754,8 +963,191 @@ public final class DDNA {
         return this;
     }
     
-    Map<String, Integer> getIso4217() {
-        return iso4217;
+    private void handleEvents(
+            Collection<? extends Event> events,
+            boolean limit) {
+        
+        final Collection<? extends Event> allowed;
+        if (limit) {
+            final List<Event> list = new ArrayList<>(events.size());
+            for (final Event event : events) {
+                if (limiter.allow(event.name)) {
+                    list.add(event);
+                }
+            }
+            allowed = list;
+        } else {
+            allowed = events;
+        }
+        
+        if (!allowed.isEmpty() && !buffer(allowed)) {
+            dispatch(allowed, getUserId(), sessionId);
+        }
+    }
+    
+    private void dispatch(
+            Collection<? extends Event> events,
+            @Nullable String userId,
+            String sessionId) {
+        
+        final byte[][] encoded = new byte[events.size()][];
+        final Event.Priority[] priorities = new Event.Priority[encoded.length];
+        int i = 0;
+        for (final Event event : events) {
+            encoded[i] = encoder.encode(
+                    event.name,
+                    event.params,
+                    userId,
+                    sessionId);
+            priorities[i++] = event.priority;
+        }
+        
+        eventHandler.handleEvents(encoded, priorities);
+    }
+    
+    /**
+     * Holds on to {@code events} if the SDK is not ready yet.
+     *
+     * @return {@code true} if the events have been held on to, else
+     *         {@code false} and they should be recorded straight away
+     */
+    private boolean buffer(Collection<? extends Event> events) {
+        if (ready) {
+            return false;
+        }
+        
+        final List<EventEncoder.Captured> captured =
+                new ArrayList<>(events.size());
+        for (final Event event : events) {
+            captured.add(encoder.capture(
+                    event.name,
+                    event.params,
+                    event.priority));
+        }
+        return hold(captured);
+    }
+    
+    /**
+     * Holds on to an event from a {@code template} if the SDK is not ready
+     * yet.
+     *
+     * @see #buffer(Collection)
+     */
+    private boolean buffer(EventTemplate template, @Nullable Params params) {
+        return !ready && hold(Collections.singletonList(
+                encoder.capture(template, params)));
+    }
+    
+    /**
+     * Holds on to events captured before the SDK was ready, dropping them
+     * when too many are being held on to or when the initialisation has
+     * failed, in which case the SDK will never become ready.
+     *
+     * @return {@code true} if the events have been held on to or dropped,
+     *         else {@code false} and they should be recorded straight away
+     */
+    private boolean hold(List<EventEncoder.Captured> events) {
+        synchronized (pending) {
+            if (ready) {
+                return false;
+            }
+            
+            if (initialiser.isDone()) {
+                // only done without being ready when a phase has failed
+                final int held = pendingCount;
+                pending.clear();
+                pendingCount = 0;
+                drop(held + events.size(), "the SDK failed to initialise");
+            } else if (pendingCount + events.size() > PENDING_LIMIT) {
+                drop(events.size(), "too many events recorded before the SDK is ready");
+            } else {
+                pending.add(new PendingEvents(events, sessionId));
+                pendingCount += events.size();
+            }
+            return true;
+        }
+    }
+    
+    private void drop(int count, String reason) {
+        pendingDropped += count;
+        Log.w(BuildConfig.LOG_TAG, String.format(
+                Locale.US,
+                "Dropped %d events due to %s, %d dropped so far",
+                count,
+                reason,
+                pendingDropped));
+    }
+    
+    /**
+     * Records the events held on to before the SDK was ready, called by the
+     * initialiser once it has completed.
+     */
+    private void onReady() {
+        synchronized (pending) {
+            if (!pending.isEmpty()) {
+                Log.d(BuildConfig.LOG_TAG, String.format(
+                        Locale.US,
+                        "Recording %d groups of events held on to during initialisation",
+                        pending.size()));
+                
+                final String userId = preferences.getUserId();
+                for (final PendingEvents events : pending) {
+                    final byte[][] encoded = new byte[events.events.size()][];
+                    final Event.Priority[] priorities =
+                            new Event.Priority[encoded.length];
+                    for (int i = 0; i < encoded.length; i++) {
+                        final EventEncoder.Captured event = events.events.get(i);
+                        encoded[i] = encoder.encode(
+                                event,
+                                userId,
+                                events.sessionId);
+                        priorities[i] = event.priority;
+                    }
+                    eventHandler.handleEvents(encoded, priorities);
+                }
+                pending.clear();
+                pendingCount = 0;
+            }
+            
+            ready = true;
+        }
+    }
+    
+    /**
+     * Waits for the initialiser to complete, which only blocks when the SDK
+     * is used straight after being initialised.
+     *
+     * @throws IllegalStateException if the initialisation failed
+     */
+    private void awaitReady() {
+        if (ready) {
+            return;
+        }
+        
+        Log.d(BuildConfig.LOG_TAG, "Waiting for the SDK to be ready");
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    initialisation.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(
+                            "SDK failed to initialise",
+                            e.getCause());
+                } catch (CancellationException e) {
+                    throw new IllegalStateException(
+                            "SDK failed to initialise",
+                            e);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
     
     /**
@@ -768,8 +1160,9 @@ public final class DDNA {
             
             Log.d(BuildConfig.LOG_TAG, "Recording 'newPlayer' event");
             
-            recordEvent(new Event("newPlayer").putParam(
-                    "userCountry", ClientInfo.countryCode()));
+            recordEvent(new Event("newPlayer")
+                    .putParam("userCountry", ClientInfo.countryCode())
+                    .setPriority(Event.Priority.LOW));
             
             preferences.setFirstRun(0);
         }
@@ -778,7 +1171,8 @@ public final class DDNA {
             Log.d(BuildConfig.LOG_TAG, "Recording 'gameStarted' event");
             
             final Event event = new Event("gameStarted")
-                    .putParam("userLocale", ClientInfo.locale());
+                    .putParam("userLocale", ClientInfo.locale())
+                    .setPriority(Event.Priority.LOW);
             if (!TextUtils.isEmpty(clientVersion)) {
                 event.putParam("clientVersion", clientVersion);
             }
@@ -800,32 +1194,30 @@ public final class DDNA {
                     .putParam("operatingSystemVersion", ClientInfo.operatingSystemVersion())
                     .putParam("manufacturer", ClientInfo.manufacturer())
                     .putParam("timezoneOffset", ClientInfo.timezoneOffset())
-                    .putParam("userLanguage", ClientInfo.languageCode()));
+                    .putParam("userLanguage", ClientInfo.languageCode())
+                    .setPriority(Event.Priority.LOW));
         }
     }
     
-    DDNA(   Application application,
+    DDNA(   final Application application,
             String environmentKey,
             String collectUrl,
             String engageUrl,
-            Settings settings,
+            final Settings settings,
             @Nullable String hashSecret,
             @Nullable String clientVersion,
-            @Nullable String userId) {
+            @Nullable final String userId) {
         
         this.settings = settings;
         this.clientVersion = clientVersion;
         
-        // FIXME event archive
-        final File dir = application.getExternalFilesDir(null);
-        final String path = (dir != null)
-                ? dir.getAbsolutePath()
-                : "/";
-        
-        preferences = new Preferences(application);
-        store = new EventStore(application, settings, preferences);
-        archive = new EngageArchive(engageStoragePath =
-                String.format(Locale.US, ENGAGE_STORAGE_PATH, path));
+        limiter = new EventLimiter(settings);
+        network = new NetworkManager(
+                environmentKey,
+                collectUrl,
+                engageUrl,
+                settings,
+                hashSecret);
         
         sessionHandler = new SessionRefreshHandler(
                 application,
@@ -838,35 +1230,44 @@ public final class DDNA {
                         newSession(true);
                     }
                 });
-        eventHandler = new EventHandler(
-                store,
-                archive,
-                network = new NetworkManager(
-                        environmentKey,
-                        collectUrl,
-                        engageUrl,
-                        settings,
-                        hashSecret));
-
-        /* Async read of currency xml files */
-        inputSourceIso4217 = application.getResources().openRawResource(R.raw.iso_4217);
-        new AsyncTask<Object, Boolean, Object>() {
+        
+        initialiser = new Initialiser(new Runnable() {
             @Override
-            protected Object doInBackground(Object... params) {
-                Log.w(BuildConfig.LOG_TAG, "Reading ISO 4217 resource file asynchronously");
-
-                try {
-                    readIso4217();
-                    Log.w(BuildConfig.LOG_TAG, "Successfull read of ISO 4217 resource file");
-                } catch (Exception e) {
-                    //e.printStackTrace();
-                    return false;
-                }
-                return true;
+            public void run() {
+                onReady();
             }
-        }.execute();
-
-        setUserId(userId);
+        }).phase("preferences", new Runnable() {
+            @Override
+            public void run() {
+                preferences = new Preferences(application);
+                updateUserId(userId);
+            }
+        }).phase("store", new Runnable() {
+            @Override
+            public void run() {
+                store = settings.isEphemeralEventStore()
+                        ? new MemoryEventStore()
+                        : new DatabaseEventStore(application, settings, preferences);
+            }
+        }).phase("archive", new Runnable() {
+            @Override
+            public void run() {
+                // FIXME event archive
+                final File dir = application.getExternalFilesDir(null);
+                final String path = (dir != null)
+                        ? dir.getAbsolutePath()
+                        : "/";
+                
+                archive = new EngageArchive(engageStoragePath =
+                        String.format(Locale.US, ENGAGE_STORAGE_PATH, path));
+                eventHandler = new EventHandler(
+                        store,
+                        archive,
+                        network,
+                        settings);
+            }
+        });
+        initialisation = initialiser.start();
     }
     
     private static String validateUrl(String url) {
@@ -879,48 +1280,66 @@ public final class DDNA {
         return url;
     }
     
-    private static String getCurrentTimestamp() {
-        return TIMESTAMP_FORMAT.format(new Date());
-    }
-
-    public void readIso4217() {
-        if (iso4217 != null ) return;
-
-        if (inputSourceIso4217 ==null ) {
-            Log.w(BuildConfig.LOG_TAG, "Cannot read ISO 4217 resource file");
+    /**
+     * @deprecated  the currency table is built into the SDK so there is
+     *              nothing to read
+     */
+    @Deprecated
+    public void readIso4217() {}
+    
+    /**
+     * View of the initialisation which cannot be cancelled, as cancelling
+     * would interrupt the initialisation part way through.
+     */
+    private static final class Readiness implements Future<Void> {
+        
+        private final Future<Void> initialisation;
+        
+        Readiness(Future<Void> initialisation) {
+            this.initialisation = initialisation;
         }
-
-        final XPath xpath = XPathFactory.newInstance().newXPath();
-        Map<String, Integer> temp = new HashMap<>(0);
-        try {
-            final NodeList nodes = (NodeList) xpath.evaluate(
-                    "/ISO_4217/CcyTbl/CcyNtry",
-                    new InputSource(inputSourceIso4217),
-                    XPathConstants.NODESET);
-            temp = new HashMap<>(nodes.getLength());
-
-            for (int i = 0; i < nodes.getLength(); i++) {
-                final Element el = (Element) nodes.item(i);
-                if (el.getElementsByTagName("Ccy") == null) continue;
-
-                final String key = xpath.evaluate("Ccy", el);
-                int value;
-                try {
-                    value = Integer.parseInt(xpath.evaluate("CcyMnrUnts", el));
-                } catch (NumberFormatException e) {
-                    value = 0;
-                }
-
-                temp.put(key, value);
-            }
-        } catch (XPathExpressionException e) {
-            Log.w(BuildConfig.LOG_TAG, "Failed parsing ISO 4217 resource", e);
-        } finally {
-            iso4217 = Collections.unmodifiableMap(temp);
+        
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+        
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+        
+        @Override
+        public boolean isDone() {
+            return initialisation.isDone();
+        }
+        
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            return initialisation.get();
+        }
+        
+        @Override
+        public Void get(long timeout, TimeUnit unit) throws
+                InterruptedException,
+                ExecutionException,
+                TimeoutException {
+            
+            return initialisation.get(timeout, unit);
         }
-
     }
-
+    
+    private static final class PendingEvents {
+        
+        final List<EventEncoder.Captured> events;
+        final String sessionId;
+        
+        PendingEvents(List<EventEncoder.Captured> events, String sessionId) {
+            this.events = events;
+            this.sessionId = sessionId;
+        }
+    }
+    
     /**
      * Class for providing a configuration when initialising the
      * SDK through {@link DDNA#initialise(Configuration)} inside of an
@@ -0,0 +1,1808 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import android.content.BroadcastReceiver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.AsyncTask;
+import android.os.Environment;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.deltadna.android.sdk.helpers.Settings;
+import com.deltadna.android.sdk.util.CloseableIterator;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.Deflater;
+
+/**
+ * {@link EventStore} keeping each event in a file, on the external storage
+ * when available, with the metadata of the events in a database.
+ */
+class DatabaseEventStore extends BroadcastReceiver implements EventStore {
+    
+    private static final String TAG = BuildConfig.LOG_TAG
+            + ' '
+            + DatabaseEventStore.class.getSimpleName();
+    private static final String DIRECTORY = "com.deltadna.android.sdk"
+            + File.separator
+            + "events"
+            + File.separator;
+    private static final String LOCKS = "com.deltadna.android.sdk"
+            + File.separator
+            + "locks"
+            + File.separator;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int STORE_LIMIT = 5 * EVENTS_LIMIT;
+    /**
+     * Amount of legacy events read before they get stored together, which
+     * bounds the memory used by the migration.
+     */
+    private static final int MIGRATION_CHUNK = 64 * 1024;
+    /**
+     * Number of quarantined event files kept around.
+     */
+    private static final int QUARANTINE_LIMIT = 16;
+    /**
+     * Age after which a file without a row is considered orphaned.
+     */
+    private static final long ORPHAN_AGE = 60 * 1000;
+    /**
+     * Minimum time between maintenance runs, in milliseconds.
+     */
+    private static final long MAINTENANCE_INTERVAL = 60 * 60 * 1000;
+    /**
+     * Number of expired events removed while holding the store lock, which
+     * keeps writes from waiting on the maintenance for long.
+     */
+    private static final int EXPIRY_CHUNK = 512;
+    /**
+     * Time after which the idle background thread of the store ends, in
+     * seconds.
+     */
+    private static final long EXECUTOR_KEEP_ALIVE = 30;
+    
+    private static final IntentFilter FILTER;
+    static {
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_MEDIA_MOUNTED);
+        filter.addDataScheme("file");
+        
+        FILTER = filter;
+    }
+    
+    private final Context context;
+    private final Settings settings;
+    private final Preferences prefs;
+    
+    private final DbHelper db;
+    
+    /**
+     * Runs the background work of the store one task at a time in the order
+     * of submission, on its own thread rather than the process wide
+     * {@link AsyncTask} queue, such that long running work such as the
+     * reconciliation does not hold up the tasks of the application and the
+     * other way around.
+     */
+    private final Executor executor;
+    
+    private final Deflater deflater = new Deflater();
+    
+    private final AtomicLongArray evicted =
+            new AtomicLongArray(Event.Priority.values().length);
+    private final AtomicLongArray dropped =
+            new AtomicLongArray(Event.Priority.values().length);
+    private final StoreCounters counters = new StoreCounters();
+    /**
+     * Time of the last maintenance run, as elapsed realtime.
+     */
+    private final AtomicLong maintained = new AtomicLong();
+    
+    private final Quarantine quarantine;
+    
+    /**
+     * Held while changing the rows or files of the store, such that writes
+     * and evictions don't interleave with each other or the reconciliation.
+     */
+    private final StoreLock storeLock;
+    /**
+     * Held from selecting a batch of events for upload until the batch
+     * has been acknowledged, such that only one process uploads at a time.
+     * Uploads within a process are already serialised by the event
+     * handler, hence the lock is only used between processes.
+     */
+    @Nullable
+    private final StoreLock uploadLock;
+    private final StoreLock migrationLock;
+    
+    DatabaseEventStore(Context context, Settings settings, Preferences prefs) {
+        this(context, settings, prefs, newExecutor());
+    }
+    
+    /**
+     * @param executor the executor for the background work, which must run
+     *                 one task at a time in the order of submission
+     */
+    DatabaseEventStore(
+            Context context,
+            Settings settings,
+            Preferences prefs,
+            Executor executor) {
+        
+        this.context = context;
+        this.settings = settings;
+        this.prefs = prefs;
+        this.executor = executor;
+        
+        final boolean shared = settings.isMultiProcessEventStore();
+        final File locks = new File(context.getFilesDir(), LOCKS);
+        storeLock = new StoreLock(new File(locks, "store"), shared);
+        uploadLock = shared
+                ? new StoreLock(new File(locks, "upload"), true)
+                : null;
+        migrationLock = new StoreLock(new File(locks, "migration"), shared);
+        
+        db = new DbHelper(context);
+        quarantine = new Quarantine(db, context, counters);
+        
+        context.registerReceiver(this, FILTER);
+        
+        prepare();
+        executor.execute(new ReconcileTask());
+        maintain();
+    }
+    
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final String action = intent.getAction();
+        if (action != null && action.equals(Intent.ACTION_MEDIA_MOUNTED)) {
+            Log.d(TAG, "Received media mounted broadcast");
+            prepare();
+        } else {
+            Log.w(TAG, "Unexpected broadcast action: " + action);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The group is persisted in a single transaction, on the background
+     * thread of the store such that the caller never waits on the storage.
+     * Groups are persisted in the order in which they have been added, and
+     * after any migration of legacy events which was started earlier.
+     */
+    @Override
+    public void add(byte[][] events, Event.Priority[] priorities) {
+        final SaveTask task = prepare(events, priorities);
+        if (task != null) {
+            executor.execute(task);
+        }
+    }
+    
+    /**
+     * Checks a group of events against the size limit for events, encodes
+     * them into the form in which they will be stored, and names and
+     * checksums them, without holding any of the locks of the store.
+     *
+     * @return the task for saving the events, or {@code null} if none of
+     *         them are within the limit
+     */
+    @Nullable
+    private SaveTask prepare(byte[][] events, Event.Priority[] priorities) {
+        int admitted = 0;
+        for (int i = 0; i < events.length; i++) {
+            if (events[i].length > EVENTS_LIMIT) {
+                Log.w(TAG, "Skipping " + new String(events[i], UTF8) + " due to bulk events limit");
+                dropped.incrementAndGet(priorities[i].ordinal());
+                counters.onRejected(StoreMetrics.Rejection.EVENT_TOO_LARGE, 1);
+            } else {
+                admitted++;
+            }
+        }
+        if (admitted == 0) {
+            return null;
+        }
+        
+        final byte[][] contents;
+        final Event.Priority[] contentPriorities;
+        if (admitted == events.length) {
+            contents = events;
+            contentPriorities = priorities;
+        } else {
+            contents = new byte[admitted][];
+            contentPriorities = new Event.Priority[admitted];
+            int j = 0;
+            for (int i = 0; i < events.length; i++) {
+                if (events[i].length <= EVENTS_LIMIT) {
+                    contents[j] = events[i];
+                    contentPriorities[j++] = priorities[i];
+                }
+            }
+        }
+        
+        // encoding up front so that the limit applies to the stored bytes
+        final byte[][] stored = new byte[contents.length][];
+        for (int i = 0; i < contents.length; i++) {
+            stored[i] = encode(contents[i]);
+        }
+        
+        return new SaveTask(stored, contents, contentPriorities);
+    }
+    
+    /**
+     * Checks a group of prepared events against the space left in the
+     * store, evicting events to make space for them if needed.
+     * <p>
+     * Needs to be called while holding the store lock, which must then be
+     * kept until the events have been inserted such that no other write
+     * can take up the same space.
+     *
+     * @return {@code true} if the events have been admitted, else
+     *         {@code false} if they have been dropped
+     */
+    private boolean admit(SaveTask task) {
+        final long excess = db.getEventsSize() + task.size - STORE_LIMIT;
+        if (excess > 0 && !evict(excess, lowest(task.priorities))) {
+            if (task.priorities.length == 1) {
+                Log.w(TAG, "Skipping event due to full event store");
+            } else {
+                Log.w(TAG, "Skipping " + task.priorities.length + " events due to full event store");
+            }
+            for (final Event.Priority priority : task.priorities) {
+                dropped.incrementAndGet(priority.ordinal());
+            }
+            counters.onRejected(
+                    StoreMetrics.Rejection.STORE_FULL,
+                    task.priorities.length);
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The batch stays claimed by this process until the iterator has been
+     * closed.
+     * <p>
+     * When coordinating between processes and another process has a batch
+     * claimed then no events will be returned.
+     */
+    @Override
+    public synchronized CloseableIterator<EventStoreItem> items() {
+        maintainIfDue();
+        
+        if (uploadLock != null && !uploadLock.tryLock()) {
+            Log.d(TAG, "Events being uploaded by another process");
+            return new CloseableIterator<EventStoreItem>() {
+                @Override
+                public boolean hasNext() {
+                    return false;
+                }
+                
+                @Override
+                public EventStoreItem next() {
+                    throw new NoSuchElementException();
+                }
+                
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+                
+                @Override
+                public void close(boolean clear) {}
+            };
+        }
+        
+        try {
+            return new EventIterator(
+                    db,
+                    context,
+                    quarantine,
+                    executor,
+                    uploadLock);
+        } catch (RuntimeException e) {
+            if (uploadLock != null) uploadLock.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public long getEvicted(Event.Priority priority) {
+        return evicted.get(priority.ordinal());
+    }
+    
+    @Override
+    public long getDropped(Event.Priority priority) {
+        return dropped.get(priority.ordinal());
+    }
+    
+    @Override
+    public long getStoredEvents() {
+        return db.getEventsCount();
+    }
+    
+    @Override
+    public long getStoredBytes() {
+        return db.getEventsSize();
+    }
+    
+    @Override
+    public StoreCounters getCounters() {
+        return counters;
+    }
+    
+    @Override
+    public synchronized void clear() {
+        storeLock.lock();
+        try {
+            db.removeEventRows();
+            for (final Location location : Location.values()) {
+                if (location.available()) {
+                    final File dir = location.directory(context);
+                    for (final File file : dir.listFiles()) {
+                        if (!file.delete()) {
+                            Log.w(TAG, "Failed to clear " + file);
+                        }
+                    }
+                } else {
+                    Log.w(TAG, location + " not available for clearing");
+                }
+            }
+        } finally {
+            storeLock.unlock();
+        }
+    }
+    
+    private void maintainIfDue() {
+        final long last = maintained.get();
+        if (    SystemClock.elapsedRealtime() - last >= MAINTENANCE_INTERVAL
+                && maintained.compareAndSet(last, SystemClock.elapsedRealtime())) {
+            executor.execute(new MaintenanceTask());
+        }
+    }
+    
+    private void maintain() {
+        maintained.set(SystemClock.elapsedRealtime());
+        executor.execute(new MaintenanceTask());
+    }
+    
+    private void prepare() {
+        for (final Location location : Location.values()) {
+            if (location.available()) {
+                final File dir = location.directory(context);
+                if (!dir.exists()) {
+                    if (!dir.mkdirs()) {
+                        Log.w(TAG, "Failed creating " + dir);
+                    } else {
+                        Log.d(TAG, "Created " + dir);
+                    }
+                }
+            } else {
+                Log.w(TAG, location + " not available");
+            }
+        }
+        
+        executor.execute(new MigrateLegacyStore(prefs));
+    }
+    
+    /**
+     * Evicts the oldest events with a priority lower than {@code priority},
+     * starting with the lowest priority, until at least {@code excess}
+     * bytes have been freed.
+     * 
+     * @return {@code true} if enough bytes have been freed, else
+     *         {@code false} and nothing has been evicted
+     */
+    private boolean evict(long excess, Event.Priority priority) {
+        if (priority.ordinal() == 0) {
+            return false;
+        }
+        
+        final Cursor cursor = db.getEvictableEventRows(priority);
+        try {
+            final int count = cursor.getCount();
+            final long[] ids = new long[count];
+            final File[] files = new File[count];
+            final int[] priorities = new int[count];
+            
+            int evictions = 0;
+            long freed = 0;
+            while (freed < excess && cursor.moveToNext()) {
+                ids[evictions] = cursor.getLong(0);
+                files[evictions] = new File(
+                        Location.valueOf(cursor.getString(1)).directory(context),
+                        cursor.getString(2));
+                freed += cursor.getLong(3);
+                priorities[evictions++] = cursor.getInt(4);
+            }
+            if (freed < excess) {
+                return false;
+            }
+            
+            final int removed = db.removeEventRows(ids, evictions);
+            if (removed != evictions) {
+                Log.w(TAG, String.format(
+                        Locale.US,
+                        "Removed %d out of %d evicted event rows",
+                        removed,
+                        evictions));
+            }
+            executor.execute(new ReclaimTask(Arrays.copyOf(files, evictions)));
+            for (int i = 0; i < evictions; i++) {
+                evicted.incrementAndGet(priorities[i]);
+            }
+            
+            Log.w(TAG, String.format(
+                    Locale.US,
+                    "Evicted %d events below %s priority due to full event store",
+                    evictions,
+                    priority));
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * Encodes an event into the form in which it will be stored.
+     */
+    private byte[] encode(byte[] event) {
+        final byte[] compact = CompactEventFormat.encode(event);
+        final byte[] encoded = (compact != null) ? compact : event;
+        
+        if (settings.isCompressStoredEvents()) {
+            // only guarding the deflater, not the store
+            synchronized (deflater) {
+                return EventCompression.compress(encoded, deflater);
+            }
+        } else {
+            return encoded;
+        }
+    }
+    
+    private static Executor newExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1,
+                1,
+                EXECUTOR_KEEP_ALIVE,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        final Thread thread = new Thread(
+                                r,
+                                DatabaseEventStore.class.getSimpleName());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    
+    private static Event.Priority lowest(Event.Priority[] priorities) {
+        Event.Priority lowest = priorities[0];
+        for (final Event.Priority priority : priorities) {
+            if (priority.compareTo(lowest) < 0) {
+                lowest = priority;
+            }
+        }
+        return lowest;
+    }
+    
+    /**
+     * Reads the content of an event file as it has been stored.
+     *
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if reading fails
+     */
+    private static byte[] read(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final byte[] content = new byte[(int) file.length()];
+            int read = 0;
+            while (read < content.length) {
+                final int count = in.read(content, read, content.length - read);
+                if (count == -1) {
+                    break;
+                }
+                read += count;
+            }
+            
+            return (read == content.length)
+                    ? content
+                    : Arrays.copyOf(content, read);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed closing stream for " + file, e);
+            }
+        }
+    }
+    
+    /**
+     * Moves the events from the {@link LegacyEventStore} files into the
+     * store.
+     * <p>
+     * The files are streamed in chunks which get stored in a transaction
+     * each, together with how far into the file the migration has got,
+     * so that the migration can carry on from there if the process gets
+     * killed before it completes.
+     */
+    private final class MigrateLegacyStore implements Runnable {
+        
+        private static final String PF_KEY_IN_FILE = "DDSDK_EVENT_IN_FILE";
+        private static final String PF_KEY_OUT_FILE = "DDSDK_EVENT_OUT_FILE";
+        
+        private final Preferences prefs;
+        
+        private final File directory;
+        
+        MigrateLegacyStore(Preferences prefs) {
+            this.prefs = prefs;
+            
+            directory = new File(
+                    context.getExternalFilesDir(null),
+                    "/ddsdk/events/");
+        }
+        
+        @Override
+        public void run() {
+            migrationLock.lock();
+            try {
+                if (!directory.exists()) {
+                    return;
+                } else {
+                    Log.d(TAG, "Migrating legacy store");
+                }
+                
+                // migrate, with the out file holding the older events
+                final long start = SystemClock.elapsedRealtime();
+                final String out = name(PF_KEY_OUT_FILE, "B");
+                final String in = name(PF_KEY_IN_FILE, "A");
+                if (!migrate(out) || (!in.equals(out) && !migrate(in))) {
+                    Log.w(TAG, "Legacy store migration incomplete, will resume later");
+                    return;
+                }
+                Log.d(TAG, String.format(
+                        Locale.US,
+                        "Migrated %d legacy events in %d ms",
+                        counters.migrated.get(),
+                        SystemClock.elapsedRealtime() - start));
+                
+                // clean files
+                for (final File file : directory.listFiles()) {
+                    if (!file.delete()) {
+                        Log.w(TAG, "Failed to delete legacy " + file);
+                    }
+                }
+                if (!directory.delete()) {
+                    Log.w(TAG, "Failed to delete legacy files in " + directory);
+                } else {
+                    Log.d(TAG, "Deleted legacy files in " + directory);
+                }
+                db.removeMigrationOffsets();
+                
+                // clean prefs
+                final SharedPreferences.Editor editor = prefs.getPrefs().edit();
+                editor.remove(PF_KEY_IN_FILE);
+                editor.remove(PF_KEY_OUT_FILE);
+                editor.apply();
+            } finally {
+                migrationLock.unlock();
+            }
+        }
+        
+        /**
+         * @return {@code true} if all of the events in the file have been
+         *         migrated, else {@code false}
+         */
+        private boolean migrate(String name) {
+            final File file = new File(directory, name);
+            if (!file.exists()) {
+                return true;
+            }
+            
+            final long length = file.length();
+            final LegacyEventReader reader;
+            try {
+                reader = new LegacyEventReader(
+                        file,
+                        db.getMigrationOffset(name),
+                        EVENTS_LIMIT);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed opening legacy " + file, e);
+                return false;
+            }
+            
+            try {
+                final List<byte[]> chunk = new ArrayList<>();
+                int chunkSize = 0;
+                byte[] record;
+                do {
+                    record = reader.next();
+                    if (record != null) {
+                        chunk.add(record);
+                        chunkSize += record.length;
+                    }
+                    
+                    if (    (record == null && !chunk.isEmpty())
+                            || chunkSize >= MIGRATION_CHUNK) {
+                        if (!store(chunk, name, reader.position())) {
+                            return false;
+                        }
+                        Log.d(TAG, String.format(
+                                Locale.US,
+                                "Migrated %d of %d bytes from legacy %s",
+                                reader.position(),
+                                length,
+                                file));
+                        
+                        chunk.clear();
+                        chunkSize = 0;
+                    }
+                } while (record != null);
+                
+                if (reader.skipped() > 0) {
+                    Log.w(TAG, String.format(
+                            Locale.US,
+                            "Skipped %d legacy events due to bulk events limit",
+                            reader.skipped()));
+                }
+                return true;
+            } catch (IOException e) {
+                Log.w(TAG, "Failed reading legacy " + file, e);
+                return false;
+            } finally {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed closing legacy " + file, e);
+                }
+            }
+        }
+        
+        /**
+         * Stores a chunk of legacy events along with the {@code offset} up
+         * to which they have been read from the legacy {@code source}.
+         */
+        private boolean store(List<byte[]> chunk, String source, long offset) {
+            final byte[][] events = chunk.toArray(new byte[chunk.size()][]);
+            final Event.Priority[] priorities = new Event.Priority[events.length];
+            Arrays.fill(priorities, Event.Priority.NORMAL);
+            
+            final SaveTask task = prepare(events, priorities);
+            final Outcome outcome = (task != null)
+                    ? task.save(source, offset)
+                    : Outcome.DROPPED;
+            switch (outcome) {
+                case SAVED:
+                    counters.migrated.addAndGet(events.length);
+                    return true;
+                
+                case DROPPED:
+                    // dropped due to the limits, but no need to read them again
+                    return db.putMigrationOffset(source, offset);
+                
+                default:
+                    return false;
+            }
+        }
+        
+        private String name(String key, String fallback) {
+            // support legacy prefs that could have a full path
+            return new File(prefs.getPrefs().getString(key, fallback)).getName();
+        }
+    }
+    
+    /**
+     * Result of saving a group of events.
+     */
+    private enum Outcome {
+        
+        SAVED,
+        /**
+         * The events did not fit into the store.
+         */
+        DROPPED,
+        FAILED
+    }
+    
+    private final class SaveTask implements Runnable {
+        
+        private final byte[][] contents;
+        private final String[] names;
+        private final String[] hashes;
+        private final long[] jsonSizes;
+        private final Event.Priority[] priorities;
+        private final long size;
+        private final long time;
+        private final long admitted;
+        
+        /**
+         * @param contents      the events in their stored form
+         * @param events        the events in JSON
+         * @param priorities    the priorities of the events
+         */
+        SaveTask(
+                byte[][] contents,
+                byte[][] events,
+                Event.Priority[] priorities) {
+            
+            this.contents = contents;
+            this.priorities = priorities;
+            time = System.currentTimeMillis();
+            admitted = System.nanoTime();
+            
+            // worked out up front so that it stays out of the store lock
+            names = new String[contents.length];
+            hashes = new String[contents.length];
+            jsonSizes = new long[events.length];
+            long size = 0;
+            for (int i = 0; i < events.length; i++) {
+                names[i] = UUID.randomUUID().toString();
+                hashes[i] = EventChecksum.of(contents[i]);
+                jsonSizes[i] = events[i].length;
+                size += contents[i].length;
+            }
+            this.size = size;
+        }
+        
+        @Override
+        public void run() {
+            save(null, 0);
+        }
+        
+        /**
+         * Saves the events on the calling thread, checking them against
+         * the space left in the store under the same hold of the store
+         * lock as inserting them.
+         *
+         * @param source    the legacy file the events have been migrated
+         *                  from, may be {@code null}
+         * @param offset    the offset in the {@code source} up to which
+         *                  the events have been read, which gets recorded
+         *                  together with the events
+         *
+         * @return whether the events have been saved, in which case all of
+         *         them have been, else none of them have been
+         */
+        Outcome save(@Nullable String source, long offset) {
+            final Location location;
+            if (settings.isUseInternalStorageForEvents()) {
+                location = Location.INTERNAL;
+            } else if (Location.EXTERNAL.available()) {
+                location = Location.EXTERNAL;
+            } else {
+                Log.w(TAG, String.format(
+                        Locale.US,
+                        "%s not available, falling back to %s",
+                        Location.EXTERNAL,
+                        Location.INTERNAL));
+                location = Location.INTERNAL;
+            }
+            
+            storeLock.lock();
+            try {
+                if (!admit(this)) {
+                    return Outcome.DROPPED;
+                }
+                
+                final File[] files = new File[contents.length];
+                final long[] sizes = new long[contents.length];
+                for (int i = 0; i < contents.length; i++) {
+                    files[i] = new File(location.directory(context), names[i]);
+                
+                    if (!write(files[i], contents[i])) {
+                        delete(files, i);
+                        return Outcome.FAILED;
+                    }
+                    sizes[i] = files[i].length();
+                }
+                
+                if (!db.insertEventRows(
+                        time,
+                        location,
+                        names,
+                        hashes,
+                        sizes,
+                        jsonSizes,
+                        priorities,
+                        source,
+                        offset)) {
+                    Log.e(TAG, "Failed inserting " + contents.length + " events");
+                    delete(files, files.length);
+                    return Outcome.FAILED;
+                }
+                
+                long bytes = 0;
+                for (final long size : sizes) {
+                    bytes += size;
+                }
+                counters.onWrite(
+                        contents.length,
+                        bytes,
+                        System.nanoTime() - admitted);
+                return Outcome.SAVED;
+            } finally {
+                storeLock.unlock();
+            }
+        }
+        
+        private boolean write(File file, byte[] content) {
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(file);
+                out.write(content);
+                return true;
+            } catch (FileNotFoundException e) {
+                Log.e(TAG, "Failed opening stream for " + file, e);
+                return false;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed writing to stream for " + file, e);
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return false;
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Failed closing stream for " + file, e);
+                    }
+                }
+            }
+        }
+        
+        private void delete(File[] files, int count) {
+            for (int i = 0; i < count; i++) {
+                //noinspection ResultOfMethodCallIgnored
+                files[i].delete();
+            }
+        }
+    }
+    
+    /**
+     * Deletes the files of events whose rows have already been removed,
+     * which keeps the file system work off of the acknowledging thread.
+     */
+    private static final class ReclaimTask implements Runnable {
+        
+        private final File[] files;
+        
+        ReclaimTask(File[] files) {
+            this.files = files;
+        }
+        
+        @Override
+        public void run() {
+            for (final File file : files) {
+                if (!file.delete() && file.exists()) {
+                    Log.w(TAG, "Failed deleting " + file);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Checks the rows against the files in a single scan of each
+     * directory, removing rows without a file and deleting files without
+     * a row, such as those left behind when the process got killed
+     * between writing a file and inserting its row, or between removing
+     * rows and deleting their files.
+     * <p>
+     * The content of each file also gets verified against its checksum,
+     * with corrupt events being quarantined.
+     * <p>
+     * The store lock is only held while taking a snapshot of the rows and
+     * files, and while re-checking each candidate before acting on it,
+     * such that adding events does not have to wait for the verification.
+     */
+    private final class ReconcileTask implements Runnable {
+        
+        @Override
+        public void run() {
+            final long start = SystemClock.elapsedRealtime();
+            // files younger than this may still be getting their rows
+            final long cutoff = System.currentTimeMillis() - ORPHAN_AGE;
+            
+            final Map<Location, Set<String>> files =
+                    new EnumMap<>(Location.class);
+            final List<Long> ids = new ArrayList<>();
+            final List<Location> locations = new ArrayList<>();
+            final List<String> names = new ArrayList<>();
+            final List<String> hashes = new ArrayList<>();
+            final List<Long> missing = new ArrayList<>();
+            
+            storeLock.lock();
+            try {
+                for (final Location location : Location.values()) {
+                    if (location.available()) {
+                        final String[] listed = location.directory(context).list();
+                        files.put(location, (listed != null)
+                                ? new HashSet<>(Arrays.asList(listed))
+                                : new HashSet<String>());
+                    }
+                }
+                
+                final Cursor cursor = db.getAllEventRows();
+                try {
+                    final int idIndex = cursor.getColumnIndex(DbHelper.EVENTS_ID);
+                    final int locationIndex = cursor.getColumnIndex(DbHelper.EVENTS_LOCATION);
+                    final int nameIndex = cursor.getColumnIndex(DbHelper.EVENTS_NAME);
+                    final int hashIndex = cursor.getColumnIndex(DbHelper.EVENTS_HASH);
+                    
+                    while (cursor.moveToNext()) {
+                        final long id = cursor.getLong(idIndex);
+                        final Location location = Location.valueOf(
+                                cursor.getString(locationIndex));
+                        final String name = cursor.getString(nameIndex);
+                        
+                        final Set<String> listed = files.get(location);
+                        if (listed == null) {
+                            continue;
+                        } else if (!listed.remove(name)) {
+                            missing.add(id);
+                            continue;
+                        }
+                        
+                        ids.add(id);
+                        locations.add(location);
+                        names.add(name);
+                        hashes.add(cursor.getString(hashIndex));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } finally {
+                storeLock.unlock();
+            }
+            
+            int removed = 0;
+            if (!missing.isEmpty()) {
+                final long[] rows = new long[missing.size()];
+                for (int i = 0; i < rows.length; i++) {
+                    rows[i] = missing.get(i);
+                }
+                
+                storeLock.lock();
+                try {
+                    // files get written before their rows, so still missing
+                    removed = db.removeEventRows(rows, rows.length);
+                } finally {
+                    storeLock.unlock();
+                }
+            }
+            
+            int quarantined = 0;
+            for (int i = 0; i < ids.size(); i++) {
+                final File file = new File(
+                        locations.get(i).directory(context),
+                        names.get(i));
+                final byte[] content;
+                try {
+                    content = read(file);
+                } catch (IOException e) {
+                    // removed by an upload or eviction in the meantime
+                    continue;
+                }
+                
+                if (!EventChecksum.matches(hashes.get(i), content)) {
+                    storeLock.lock();
+                    try {
+                        // skipped if the row has been removed meanwhile
+                        quarantine.add(
+                                ids.get(i),
+                                locations.get(i),
+                                names.get(i),
+                                "checksum mismatch");
+                        quarantined++;
+                    } finally {
+                        storeLock.unlock();
+                    }
+                }
+            }
+            
+            int deleted = 0;
+            for (final Map.Entry<Location, Set<String>> entry : files.entrySet()) {
+                final File directory = entry.getKey().directory(context);
+                for (final String name : entry.getValue()) {
+                    final File file = new File(directory, name);
+                    if (file.lastModified() >= cutoff) {
+                        continue;
+                    }
+                    
+                    storeLock.lock();
+                    try {
+                        if (!db.hasEventRow(name) && file.delete()) {
+                            deleted++;
+                        }
+                    } finally {
+                        storeLock.unlock();
+                    }
+                }
+            }
+            
+            Log.d(TAG, String.format(
+                    Locale.US,
+                    "Verified %d events in %d ms, quarantined %d, removed %d rows and %d files",
+                    ids.size(),
+                    SystemClock.elapsedRealtime() - start,
+                    quarantined,
+                    removed,
+                    deleted));
+        }
+    }
+    
+    /**
+     * Removes expired events in bulk and compacts the database once enough
+     * of it has become free space, logging the statistics of the run.
+     * <p>
+     * The store lock is only held while removing each chunk of rows, with
+     * the files being deleted afterwards, such that adding events does not
+     * have to wait for the whole run. Compaction is rare and quick as the
+     * database only holds the metadata of the events.
+     */
+    private final class MaintenanceTask implements Runnable {
+        
+        @Override
+        public void run() {
+            final long start = SystemClock.elapsedRealtime();
+            
+            int removed = 0;
+            int deleted = 0;
+            final int maxAge = settings.getEventMaxAge();
+            if (maxAge > 0) {
+                final long before = System.currentTimeMillis() - maxAge * 1000L;
+                final long[] ids = new long[EXPIRY_CHUNK];
+                final File[] files = new File[EXPIRY_CHUNK];
+                
+                int count;
+                do {
+                    count = 0;
+                    storeLock.lock();
+                    try {
+                        final Cursor cursor = db.getExpiredEventRows(
+                                before,
+                                EXPIRY_CHUNK);
+                        try {
+                            while (cursor.moveToNext()) {
+                                ids[count] = cursor.getLong(0);
+                                files[count++] = new File(
+                                        Location.valueOf(cursor.getString(1))
+                                                .directory(context),
+                                        cursor.getString(2));
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                        
+                        removed += db.removeEventRows(ids, count);
+                    } finally {
+                        storeLock.unlock();
+                    }
+                    
+                    for (int i = 0; i < count; i++) {
+                        if (files[i].delete()) {
+                            deleted++;
+                        } else if (files[i].exists()) {
+                            Log.w(TAG, "Failed deleting " + files[i]);
+                        }
+                    }
+                } while (count == EXPIRY_CHUNK);
+                
+                counters.expired.addAndGet(removed);
+            }
+            
+            long compacted = 0;
+            storeLock.lock();
+            try {
+                compacted = db.compact();
+            } catch (SQLiteException e) {
+                Log.w(TAG, "Failed compacting database", e);
+            } finally {
+                storeLock.unlock();
+            }
+            
+            Log.d(TAG, String.format(
+                    Locale.US,
+                    "Maintained store in %d ms, expired %d events with %d files, compacted %d bytes",
+                    SystemClock.elapsedRealtime() - start,
+                    removed,
+                    deleted,
+                    compacted));
+        }
+    }
+    
+    /**
+     * Takes corrupt events out of the store individually, moving their
+     * files aside such that the latest few can still be looked at.
+     */
+    private static final class Quarantine {
+        
+        private final DbHelper db;
+        private final Context context;
+        private final StoreCounters counters;
+        
+        Quarantine(DbHelper db, Context context, StoreCounters counters) {
+            this.db = db;
+            this.context = context;
+            this.counters = counters;
+        }
+        
+        void add(long id, Location location, String name, String reason) {
+            if (db.removeEventRows(new long[] {id}, 1) == 0) {
+                // already taken care of
+                return;
+            }
+            
+            Log.w(TAG, "Quarantining " + name + " due to " + reason);
+            counters.quarantined.incrementAndGet();
+            
+            final File file = new File(location.directory(context), name);
+            final File directory = location.quarantine(context);
+            if (    !file.exists()
+                    || ((directory.exists() || directory.mkdirs())
+                            && file.renameTo(new File(directory, name)))) {
+                trim(directory);
+            } else if (!file.delete()) {
+                Log.w(TAG, "Failed deleting " + file);
+            }
+        }
+        
+        private static void trim(File directory) {
+            final File[] files = directory.listFiles();
+            if (files == null || files.length <= QUARANTINE_LIMIT) {
+                return;
+            }
+            
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    final long left = lhs.lastModified();
+                    final long right = rhs.lastModified();
+                    return (left < right) ? -1 : ((left == right) ? 0 : 1);
+                }
+            });
+            for (int i = 0; i < files.length - QUARANTINE_LIMIT; i++) {
+                if (!files[i].delete()) {
+                    Log.w(TAG, "Failed deleting " + files[i]);
+                }
+            }
+        }
+    }
+    
+    private static final class DbHelper extends SQLiteOpenHelper {
+        
+        private static final String TABLE_EVENTS = "Events";
+        
+        private static final String EVENTS_ID = BaseColumns._ID;
+        private static final String EVENTS_TIME = "Time";
+        private static final String EVENTS_NAME = "Name";
+        private static final String EVENTS_LOCATION = "Location";
+        private static final String EVENTS_HASH = "Hash";
+        private static final String EVENTS_SIZE = "Size";
+        /**
+         * Ordinal of the {@link Event.Priority}.
+         */
+        private static final String EVENTS_PRIORITY = "Priority";
+        /**
+         * Size of the event once transcoded to JSON, which may be null for
+         * events stored as JSON in which case it is the same as the size.
+         */
+        private static final String EVENTS_JSON_SIZE = "JsonSize";
+        
+        /**
+         * Progress of the migration from the legacy store, as the offset
+         * into each legacy file up to which events have been stored.
+         */
+        private static final String TABLE_MIGRATION = "Migration";
+        private static final String MIGRATION_SOURCE = "Source";
+        private static final String MIGRATION_OFFSET = "Offset";
+        
+        /**
+         * Number of rows removed by a single statement, which keeps under
+         * the limit SQLite has on the number of bound parameters.
+         */
+        private static final int REMOVE_CHUNK = 256;
+        
+        DbHelper(Context context) {
+            super(context, "com.deltadna.android.sdk", null, 4);
+        }
+        
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_EVENTS + "("
+                    + EVENTS_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + EVENTS_TIME + " INTEGER NOT NULL, "
+                    + EVENTS_LOCATION + " TEXT NOT NULL, "
+                    + EVENTS_NAME + " TEXT NOT NULL UNIQUE, "
+                    + EVENTS_HASH + " TEXT, "
+                    + EVENTS_SIZE + " INTEGER NOT NULL, "
+                    + EVENTS_PRIORITY + " INTEGER NOT NULL DEFAULT "
+                    + Event.Priority.NORMAL.ordinal() + ", "
+                    + EVENTS_JSON_SIZE + " INTEGER)");
+            createMigrationTable(db);
+        }
+        
+        @Override
+        public void onUpgrade(
+                SQLiteDatabase db,
+                int oldVersion,
+                int newVersion) {
+            
+            if (oldVersion < 2) {
+                db.execSQL("ALTER TABLE " + TABLE_EVENTS + " ADD COLUMN "
+                        + EVENTS_PRIORITY + " INTEGER NOT NULL DEFAULT "
+                        + Event.Priority.NORMAL.ordinal());
+            }
+            if (oldVersion < 3) {
+                db.execSQL("ALTER TABLE " + TABLE_EVENTS + " ADD COLUMN "
+                        + EVENTS_JSON_SIZE + " INTEGER");
+            }
+            if (oldVersion < 4) {
+                createMigrationTable(db);
+            }
+        }
+        
+        long getEventsCount() {
+            return DatabaseUtils.queryNumEntries(
+                    getWritableDatabase(),
+                    TABLE_EVENTS);
+        }
+        
+        long getEventsSize() {
+            final Cursor cursor = getWritableDatabase().rawQuery(
+                    "SELECT SUM(" + EVENTS_SIZE + ") FROM " + TABLE_EVENTS + ";",
+                    new String[] {});
+            final long result = (cursor.moveToFirst()) ? cursor.getLong(0) : 0;
+            cursor.close();
+            return result;
+        }
+        
+        /**
+         * Gets the rows to be uploaded next, with higher priorities
+         * first, up to the bulk events limit as measured in JSON.
+         */
+        Cursor getEventRows() {
+            return getWritableDatabase().rawQuery(
+                    String.format(
+                            Locale.US,
+                            "SELECT e.%s, e.%s, e.%s, e.%s, e.%s, e.%s, e.%s, SUM(e1.%s) AS Total "
+                                    + "FROM %s e "
+                                    + "JOIN %s e1 ON e1.%s > e.%s "
+                                    + "OR (e1.%s = e.%s AND (e1.%s < e.%s "
+                                    + "OR (e1.%s = e.%s AND e1.%s <= e.%s))) "
+                                    + "GROUP BY e.%s "
+                                    + "HAVING SUM(COALESCE(e1.%s, e1.%s)) <= %d "
+                                    + "ORDER BY e.%s DESC, e.%s ASC, e.%s ASC;",
+                            EVENTS_ID, EVENTS_TIME, EVENTS_LOCATION, EVENTS_NAME, EVENTS_HASH, EVENTS_SIZE, EVENTS_JSON_SIZE, EVENTS_SIZE,
+                            TABLE_EVENTS,
+                            TABLE_EVENTS, EVENTS_PRIORITY, EVENTS_PRIORITY,
+                            EVENTS_PRIORITY, EVENTS_PRIORITY, EVENTS_TIME, EVENTS_TIME,
+                            EVENTS_TIME, EVENTS_TIME, EVENTS_ID, EVENTS_ID,
+                            EVENTS_ID,
+                            EVENTS_JSON_SIZE, EVENTS_SIZE, EVENTS_LIMIT,
+                            EVENTS_PRIORITY, EVENTS_TIME, EVENTS_ID),
+                    new String[]{});
+        }
+        
+        /**
+         * Gets the rows with a priority lower than {@code priority}, in
+         * the order in which they should be evicted.
+         */
+        Cursor getEvictableEventRows(Event.Priority priority) {
+            return getWritableDatabase().query(
+                    TABLE_EVENTS,
+                    new String[] {
+                            EVENTS_ID,
+                            EVENTS_LOCATION,
+                            EVENTS_NAME,
+                            EVENTS_SIZE,
+                            EVENTS_PRIORITY },
+                    EVENTS_PRIORITY + " < ?",
+                    new String[] { Integer.toString(priority.ordinal()) },
+                    null,
+                    null,
+                    EVENTS_PRIORITY + " ASC, "
+                            + EVENTS_TIME + " ASC, "
+                            + EVENTS_ID + " ASC");
+        }
+        
+        /**
+         * Gets all of the rows, with the columns needed for checking them
+         * against the files.
+         */
+        Cursor getAllEventRows() {
+            return getWritableDatabase().query(
+                    TABLE_EVENTS,
+                    new String[] {
+                            EVENTS_ID,
+                            EVENTS_LOCATION,
+                            EVENTS_NAME,
+                            EVENTS_HASH },
+                    null,
+                    null,
+                    null,
+                    null,
+                    EVENTS_ID + " ASC");
+        }
+        
+        /**
+         * Gets up to {@code limit} rows of events stored before the
+         * {@code time}, oldest first.
+         */
+        Cursor getExpiredEventRows(long time, int limit) {
+            return getWritableDatabase().query(
+                    TABLE_EVENTS,
+                    new String[] {
+                            EVENTS_ID,
+                            EVENTS_LOCATION,
+                            EVENTS_NAME },
+                    EVENTS_TIME + " < ?",
+                    new String[] { Long.toString(time) },
+                    null,
+                    null,
+                    EVENTS_TIME + " ASC, " + EVENTS_ID + " ASC",
+                    Integer.toString(limit));
+        }
+        
+        boolean hasEventRow(String name) {
+            return DatabaseUtils.queryNumEntries(
+                    getWritableDatabase(),
+                    TABLE_EVENTS,
+                    EVENTS_NAME + " = ?",
+                    new String[] { name }) > 0;
+        }
+        
+        /**
+         * Inserts the rows for a group of events in a single transaction,
+         * along with the progress of the migration if the events come
+         * from the legacy {@code source}.
+         * 
+         * @return {@code true} if all rows were inserted, else
+         *         {@code false} and none were
+         */
+        boolean insertEventRows(
+                long time,
+                Location location,
+                String[] names,
+                String[] hashes,
+                long[] sizes,
+                long[] jsonSizes,
+                Event.Priority[] priorities,
+                @Nullable String source,
+                long offset) {
+            
+            final SQLiteDatabase database = getWritableDatabase();
+            database.beginTransaction();
+            try {
+                final ContentValues values = new ContentValues(7);
+                for (int i = 0; i < names.length; i++) {
+                    values.put(EVENTS_TIME, time);
+                    values.put(EVENTS_LOCATION, location.name());
+                    values.put(EVENTS_NAME, names[i]);
+                    values.put(EVENTS_HASH, hashes[i]);
+                    values.put(EVENTS_SIZE, sizes[i]);
+                    values.put(EVENTS_JSON_SIZE, jsonSizes[i]);
+                    values.put(EVENTS_PRIORITY, priorities[i].ordinal());
+                    
+                    if (database.insert(TABLE_EVENTS, null, values) == -1) {
+                        return false;
+                    }
+                }
+                if (source != null && !putMigrationOffset(source, offset)) {
+                    return false;
+                }
+                
+                database.setTransactionSuccessful();
+                return true;
+            } finally {
+                database.endTransaction();
+            }
+        }
+        
+        /**
+         * Removes the first {@code count} rows of {@code ids} in a single
+         * transaction, deleting them in chunks rather than one at a time.
+         * 
+         * @return the number of rows which were removed, which can be less
+         *         than {@code count} if some had already been removed
+         */
+        int removeEventRows(long[] ids, int count) {
+            final SQLiteDatabase database = getWritableDatabase();
+            database.beginTransaction();
+            try {
+                SQLiteStatement statement = null;
+                int removed = 0;
+                for (int offset = 0; offset < count; offset += REMOVE_CHUNK) {
+                    final int chunk = Math.min(REMOVE_CHUNK, count - offset);
+                    if (statement == null || chunk < REMOVE_CHUNK) {
+                        if (statement != null) statement.close();
+                        statement = compileRemoval(database, chunk);
+                    }
+                    
+                    for (int i = 0; i < chunk; i++) {
+                        statement.bindLong(i + 1, ids[offset + i]);
+                    }
+                    removed += statement.executeUpdateDelete();
+                }
+                if (statement != null) statement.close();
+                
+                database.setTransactionSuccessful();
+                return removed;
+            } finally {
+                database.endTransaction();
+            }
+        }
+        
+        void removeEventRows() {
+            getWritableDatabase().delete(TABLE_EVENTS, null, null);
+        }
+        
+        /**
+         * Rebuilds the database if at least a quarter of its pages are
+         * free, which returns the space to the file system.
+         *
+         * @return the number of bytes which have been freed
+         */
+        long compact() {
+            final SQLiteDatabase database = getWritableDatabase();
+            final long free = pragma(database, "freelist_count");
+            final long pages = pragma(database, "page_count");
+            if (free == 0 || free * 4 < pages) {
+                return 0;
+            }
+            
+            database.execSQL("VACUUM");
+            return (pages - pragma(database, "page_count"))
+                    * pragma(database, "page_size");
+        }
+        
+        /**
+         * @return the offset up to which events have been migrated from
+         *         the legacy {@code source}, or zero if none have been
+         */
+        long getMigrationOffset(String source) {
+            final Cursor cursor = getWritableDatabase().query(
+                    TABLE_MIGRATION,
+                    new String[] { MIGRATION_OFFSET },
+                    MIGRATION_SOURCE + " = ?",
+                    new String[] { source },
+                    null,
+                    null,
+                    null);
+            final long result = (cursor.moveToFirst()) ? cursor.getLong(0) : 0;
+            cursor.close();
+            return result;
+        }
+        
+        boolean putMigrationOffset(String source, long offset) {
+            final ContentValues values = new ContentValues(2);
+            values.put(MIGRATION_SOURCE, source);
+            values.put(MIGRATION_OFFSET, offset);
+            
+            return getWritableDatabase().insertWithOnConflict(
+                    TABLE_MIGRATION,
+                    null,
+                    values,
+                    SQLiteDatabase.CONFLICT_REPLACE) != -1;
+        }
+        
+        void removeMigrationOffsets() {
+            getWritableDatabase().delete(TABLE_MIGRATION, null, null);
+        }
+        
+        private static void createMigrationTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_MIGRATION + "("
+                    + MIGRATION_SOURCE + " TEXT PRIMARY KEY, "
+                    + MIGRATION_OFFSET + " INTEGER NOT NULL)");
+        }
+        
+        private static long pragma(SQLiteDatabase database, String name) {
+            final Cursor cursor = database.rawQuery(
+                    "PRAGMA " + name + ";",
+                    new String[] {});
+            final long result = (cursor.moveToFirst()) ? cursor.getLong(0) : 0;
+            cursor.close();
+            return result;
+        }
+        
+        private static SQLiteStatement compileRemoval(
+                SQLiteDatabase database,
+                int count) {
+            
+            final StringBuilder sql = new StringBuilder("DELETE FROM ")
+                    .append(TABLE_EVENTS)
+                    .append(" WHERE ")
+                    .append(EVENTS_ID)
+                    .append(" IN (?");
+            for (int i = 1; i < count; i++) {
+                sql.append(",?");
+            }
+            sql.append(')');
+            
+            return database.compileStatement(sql.toString());
+        }
+    }
+    
+    private static final class EventIterator implements
+            CloseableIterator<EventStoreItem> {
+        
+        private final DbHelper db;
+        private final Context context;
+        private final Quarantine quarantine;
+        private final Executor executor;
+        @Nullable
+        private StoreLock lock;
+        
+        private final Cursor cursor;
+        
+        /**
+         * @param executor  the executor of the store, on which the files of
+         *                  acknowledged events get deleted
+         * @param lock      the lock held for the batch, which gets released
+         *                  when the iterator is closed, may be {@code null}
+         */
+        EventIterator(
+                DbHelper db,
+                Context context,
+                Quarantine quarantine,
+                Executor executor,
+                @Nullable StoreLock lock) {
+            
+            this.db = db;
+            this.context = context;
+            this.quarantine = quarantine;
+            this.executor = executor;
+            this.lock = lock;
+            
+            cursor = db.getEventRows();
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return (cursor.getCount() > 0 && !cursor.isLast());
+        }
+        
+        @Override
+        @Nullable
+        public EventStoreItem next() {
+            if (!cursor.moveToNext()) throw new NoSuchElementException();
+            
+            final long id = getCurrentId();
+            final Location location = getCurrentLocation();
+            final String name = getCurrentName();
+            final String hash = getCurrentHash();
+            final int jsonSize = getCurrentJsonSize();
+            
+            return new EventStoreItem() {
+                @Override
+                public boolean available() {
+                    return location.available();
+                }
+                
+                @Override
+                @Nullable
+                public String get() {
+                    final PayloadBuffer buffer = new PayloadBuffer(jsonSize);
+                    return writeTo(buffer)
+                            ? new String(buffer.toByteArray(), UTF8)
+                            : null;
+                }
+                
+                @Override
+                public boolean writeTo(OutputStream out) {
+                    final File file = new File(
+                            location.directory(context),
+                            name);
+                    
+                    final byte[] stored;
+                    try {
+                        stored = read(file);
+                    } catch (FileNotFoundException e) {
+                        quarantine.add(id, location, name, "missing file");
+                        return false;
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed reading " + file, e);
+                        return false;
+                    }
+                    if (!EventChecksum.matches(hash, stored)) {
+                        quarantine.add(id, location, name, "checksum mismatch");
+                        return false;
+                    }
+                    
+                    try {
+                        final byte[] content = EventCompression.isCompressed(stored)
+                                ? EventCompression.decompress(
+                                        new ByteArrayInputStream(
+                                                stored,
+                                                1,
+                                                stored.length - 1),
+                                        jsonSize)
+                                : stored;
+                        if (CompactEventFormat.isCompact(content)) {
+                            CompactEventFormat.decode(content, out);
+                        } else {
+                            out.write(content);
+                        }
+                        return true;
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed decoding " + file, e);
+                        quarantine.add(id, location, name, "malformed content");
+                        return false;
+                    }
+                }
+            };
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void close(boolean clear) {
+            try {
+                if (clear) {
+                    clear();
+                }
+            } finally {
+                cursor.close();
+                
+                if (lock != null) {
+                    lock.unlock();
+                    lock = null;
+                }
+            }
+        }
+        
+        /**
+         * Removes the rows of all the events in a single transaction, and
+         * deletes their files in the background afterwards.
+         */
+        private void clear() {
+            final int count = cursor.getCount();
+            final long[] ids = new long[count];
+            final File[] files = new File[count];
+            
+            int i = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                ids[i] = getCurrentId();
+                files[i++] = new File(
+                        getCurrentLocation().directory(context),
+                        getCurrentName());
+            }
+            
+            final int removed = db.removeEventRows(ids, i);
+            if (removed != i) {
+                Log.w(TAG, String.format(
+                        Locale.US,
+                        "Removed %d out of %d event rows",
+                        removed,
+                        i));
+            }
+            executor.execute(new ReclaimTask(files));
+        }
+        
+        private long getCurrentId() {
+            return cursor.getLong(
+                    cursor.getColumnIndex(DbHelper.EVENTS_ID));
+        }
+        
+        private Location getCurrentLocation() {
+            return Location.valueOf(cursor.getString(
+                    cursor.getColumnIndex(DbHelper.EVENTS_LOCATION)));
+        }
+        
+        private int getCurrentJsonSize() {
+            final int index = cursor.getColumnIndex(DbHelper.EVENTS_JSON_SIZE);
+            return (int) (cursor.isNull(index)
+                    ? cursor.getLong(cursor.getColumnIndex(DbHelper.EVENTS_SIZE))
+                    : cursor.getLong(index));
+        }
+        
+        private String getCurrentName() {
+            return cursor.getString(
+                    cursor.getColumnIndex(DbHelper.EVENTS_NAME));
+        }
+        
+        @Nullable
+        private String getCurrentHash() {
+            return cursor.getString(
+                    cursor.getColumnIndex(DbHelper.EVENTS_HASH));
+        }
+    }
+    
+    private enum Location {
+        INTERNAL {
+            @Override
+            File directory(Context context) {
+                return new File(context.getFilesDir(), DIRECTORY);
+            }
+        },
+        EXTERNAL {
+            @Override
+            boolean available() {
+                return Environment.getExternalStorageState()
+                        .equals(Environment.MEDIA_MOUNTED);
+            }
+            
+            @Override
+            File directory(Context context) {
+                return new File(context.getExternalFilesDir(null), DIRECTORY);
+            }
+        };
+        
+        boolean available() {
+            return true;
+        }
+        
+        abstract File directory(Context context);
+        
+        /**
+         * @return the directory for the files of quarantined events
+         */
+        File quarantine(Context context) {
+            return new File(directory(context).getParentFile(), "quarantine");
+        }
+    }
+}
@@ -26,6 +26,8 @@ public class Event<T extends Event<T>> {
     final String name;
     final Params params;
     
+    Priority priority = Priority.NORMAL;
+    
     /**
      * Creates a new instance.
      *
@@ -68,4 +70,128 @@ public class Event<T extends Event<T>> {
         params.put(key, value);
         return (T) this;
     }
+    
+    /**
+     * Puts the key/value pair into the event parameters.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link T} instance
+     */
+    public T putParam(String key, int value) {
+        params.put(key, value);
+        return (T) this;
+    }
+    
+    /**
+     * Puts the key/value pair into the event parameters.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link T} instance
+     */
+    public T putParam(String key, long value) {
+        params.put(key, value);
+        return (T) this;
+    }
+    
+    /**
+     * Puts the key/value pair into the event parameters.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link T} instance
+     */
+    public T putParam(String key, float value) {
+        params.put(key, value);
+        return (T) this;
+    }
+    
+    /**
+     * Puts the key/value pair into the event parameters.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link T} instance
+     */
+    public T putParam(String key, double value) {
+        params.put(key, value);
+        return (T) this;
+    }
+    
+    /**
+     * Puts the key/value pair into the event parameters.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link T} instance
+     */
+    public T putParam(String key, boolean value) {
+        params.put(key, value);
+        return (T) this;
+    }
+    
+    /**
+     * Puts the key/value pair into the event parameters, with the
+     * character being sent as a string.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link T} instance
+     */
+    public T putParam(String key, char value) {
+        params.put(key, value);
+        return (T) this;
+    }
+    
+    /**
+     * Sets the priority of the event, which decides which events get
+     * uploaded first and which get evicted first when the event store is
+     * full.
+     *
+     * @param priority the priority
+     *
+     * @return this {@link T} instance
+     *
+     * @throws IllegalArgumentException if the {@code priority} is null
+     */
+    public T setPriority(Priority priority) {
+        Preconditions.checkArg(priority != null, "priority cannot be null");
+        
+        this.priority = priority;
+        return (T) this;
+    }
+    
+    public Priority getPriority() {
+        return priority;
+    }
+    
+    /**
+     * Priority classes for events.
+     * <p>
+     * The ordinals get persisted, so new classes must not be added in
+     * between existing ones.
+     */
+    public enum Priority {
+        
+        /**
+         * For events which can be lost without much concern, such as the
+         * events sent by the SDK itself.
+         */
+        LOW,
+        /**
+         * The default for events.
+         */
+        NORMAL,
+        /**
+         * For events which should not get lost, such as transactions.
+         */
+        HIGH
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import android.support.annotation.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Checksums of stored events, which are used for noticing events whose
+ * files have been truncated or corrupted before they get uploaded.
+ * <p>
+ * Events are checksummed with a CRC32, written as 8 hex characters.
+ * Events stored by previous versions have a SHA-1 as 40 hex characters,
+ * which can still be verified.
+ */
+final class EventChecksum {
+    
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    private static final int CRC32_LENGTH = 8;
+    private static final int SHA1_LENGTH = 40;
+    
+    private EventChecksum() {}
+    
+    /**
+     * @return the checksum of the {@code content}
+     */
+    static String of(byte[] content) {
+        final CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        
+        final long value = crc.getValue();
+        final char[] chars = new char[CRC32_LENGTH];
+        for (int i = 0; i < CRC32_LENGTH; i++) {
+            chars[i] = HEX[(int) (value >> (28 - 4 * i)) & 0xF];
+        }
+        
+        return new String(chars);
+    }
+    
+    /**
+     * Verifies the {@code content} against a {@code checksum}.
+     *
+     * @return {@code true} if the {@code content} matches, or if the
+     *         {@code checksum} is missing or cannot be verified
+     */
+    static boolean matches(@Nullable String checksum, byte[] content) {
+        if (checksum == null) {
+            return true;
+        }
+        
+        switch (checksum.length()) {
+            case CRC32_LENGTH:
+                return checksum.equalsIgnoreCase(of(content));
+            
+            case SHA1_LENGTH:
+                final MessageDigest sha1;
+                try {
+                    sha1 = MessageDigest.getInstance("SHA1");
+                } catch (NoSuchAlgorithmException e) {
+                    return true;
+                }
+                
+                final byte[] digest = sha1.digest(content);
+                for (int i = 0; i < digest.length; i++) {
+                    if (    checksum.charAt(2 * i) != HEX[(digest[i] >> 4) & 0xF]
+                            || checksum.charAt(2 * i + 1) != HEX[digest[i] & 0xF]) {
+                        return false;
+                    }
+                }
+                return true;
+            
+            default:
+                return true;
+        }
+    }
+}
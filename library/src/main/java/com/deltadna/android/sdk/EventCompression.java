@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates stored events, which are either in JSON or in the
+ * {@link CompactEventFormat}.
+ * <p>
+ * As events are stored one per file they are too small to compress well
+ * on their own, so a preset dictionary with content common to most events
+ * is used.
+ * <p>
+ * A compressed record starts with {@link #MAGIC}, followed by the zlib
+ * stream.
+ */
+final class EventCompression {
+    
+    static final byte MAGIC = 0x02;
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /**
+     * Must not be changed, as the compressed events which have been
+     * stored depend on it.
+     */
+    private static final byte[] DICTIONARY = (
+            "sdkVersionAndroid SDK v4.platformANDROIDuserLocaleuserCountry"
+            + "clientVersiondeviceNamedeviceTypehardwareVersion"
+            + "operatingSystemVersionmanufacturertimezoneOffsetuserLanguage"
+            + "transactiontransactionNametransactionTypeproductsReceived"
+            + "productsSpentrealCurrencyTyperealCurrencyAmountvirtualCurrency"
+            + "\"},\"eventParams\":{\"platform\":\"ANDROID\",\"sdkVersion\":\""
+            + "{\"eventName\":\"\",\"eventTimestamp\":\"20\",\"eventUUID\":\""
+            + "\",\"sessionID\":\"\",\"userID\":\"")
+            .getBytes(UTF8);
+    
+    private static final int BUFFER_SIZE = 512;
+    
+    private EventCompression() {}
+    
+    static boolean isCompressed(byte[] content) {
+        return content.length > 0 && content[0] == MAGIC;
+    }
+    
+    /**
+     * Compresses the {@code content} using the {@code deflater}, which
+     * will be reset.
+     *
+     * @return the compressed content, or the {@code content} if it could
+     *         not be compressed into fewer bytes
+     */
+    static byte[] compress(byte[] content, Deflater deflater) {
+        if (content.length < 2) {
+            return content;
+        }
+        
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(content);
+        deflater.finish();
+        
+        final byte[] buffer = new byte[content.length];
+        buffer[0] = MAGIC;
+        int count = 1;
+        while (!deflater.finished() && count < buffer.length) {
+            count += deflater.deflate(buffer, count, buffer.length - count);
+        }
+        
+        return (deflater.finished())
+                ? Arrays.copyOf(buffer, count)
+                : content;
+    }
+    
+    /**
+     * Decompresses a record from the {@code in} stream, which should be
+     * positioned after {@link #MAGIC}, reading it in small chunks.
+     *
+     * @param in        the stream
+     * @param expected  the expected length of the decompressed content,
+     *                  used for sizing the result
+     *
+     * @throws IOException if reading fails or the content is malformed
+     */
+    static byte[] decompress(InputStream in, int expected) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            final byte[] input = new byte[BUFFER_SIZE];
+            byte[] output = new byte[Math.max(expected, BUFFER_SIZE)];
+            int count = 0;
+            
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    final int read = in.read(input);
+                    if (read == -1) {
+                        throw new EOFException("Truncated compressed event");
+                    }
+                    inflater.setInput(input, 0, read);
+                }
+                
+                if (count == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                
+                try {
+                    final int inflated = inflater.inflate(
+                            output, count, output.length - count);
+                    if (inflated == 0 && inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    }
+                    count += inflated;
+                } catch (DataFormatException e) {
+                    throw new IOException("Malformed compressed event", e);
+                }
+            }
+            
+            return (count == output.length)
+                    ? output
+                    : Arrays.copyOf(output, count);
+        } finally {
+            inflater.end();
+        }
+    }
+}
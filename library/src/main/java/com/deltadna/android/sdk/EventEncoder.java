@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import android.support.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes collect events into their JSON envelope, writing straight into
+ * UTF-8 bytes ready for the store.
+ * <p>
+ * The parts of the envelope which do not change between events, such as
+ * the field names, the session and user ids, and the platform and SDK
+ * version parameters, are encoded once and copied into each event. The
+ * parameters are written by {@link Params} into a per-thread buffer, the
+ * timestamp is formatted once per second, and the event UUIDs are
+ * generated from per-thread pools of random bytes.
+ * <p>
+ * This class is thread safe.
+ */
+final class EventEncoder {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] HEX = "0123456789abcdef".getBytes(UTF8);
+    
+    private static final byte[] NAME = bytes("{\"eventName\":");
+    private static final byte[] TIMESTAMP = bytes(",\"eventTimestamp\":\"");
+    private static final byte[] UUID = bytes("\",\"eventUUID\":\"");
+    private static final byte[] PARAMS = bytes("\"eventParams\":{");
+    private static final byte[] END = bytes("}}");
+    
+    private static final int TIMESTAMP_LENGTH = 23;
+    private static final int UUID_LENGTH = 36;
+    private static final int UUIDS_PER_POOL = 64;
+    private static final int NAMES_LIMIT = 64;
+    private static final int BUFFER_CAPACITY = 512;
+    private static final int BUFFER_LIMIT = 16 * 1024;
+    
+    /**
+     * Parameters which get replaced by the {@link #constants}.
+     */
+    static final String[] RESERVED = {"platform", "sdkVersion"};
+    
+    /**
+     * Platform and SDK version parameters, without the surrounding braces.
+     */
+    private final byte[] constants;
+    
+    private final SimpleDateFormat timestampFormat;
+    private final Map<String, byte[]> names = new ConcurrentHashMap<>();
+    private final ThreadLocal<UuidPool> uuids = new ThreadLocal<UuidPool>() {
+        @Override
+        protected UuidPool initialValue() {
+            return new UuidPool();
+        }
+    };
+    private final ThreadLocal<PayloadBuffer> buffers =
+            new ThreadLocal<PayloadBuffer>() {
+                @Override
+                protected PayloadBuffer initialValue() {
+                    return new PayloadBuffer(BUFFER_CAPACITY);
+                }
+            };
+    
+    private volatile Identity identity = new Identity(null, "");
+    private volatile Second second = new Second(-1, new byte[0]);
+    
+    EventEncoder(String platform, String sdkVersion) {
+        constants = bytes(
+                "\"platform\":" + JSONObject.quote(platform)
+                + ",\"sdkVersion\":" + JSONObject.quote(sdkVersion));
+        
+        timestampFormat = new SimpleDateFormat(
+                "yyyy-MM-dd HH:mm:ss.", Locale.US);
+        timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+    
+    /**
+     * Encodes an event.
+     * 
+     * @param name      the name of the event
+     * @param params    the parameters of the event, which will not be
+     *                  modified
+     * @param userId    the user id, may be {@code null}
+     * @param sessionId the session id
+     * 
+     * @return the event in UTF-8 encoded JSON
+     */
+    byte[] encode(
+            String name,
+            Params params,
+            @Nullable String userId,
+            String sessionId) {
+        
+        final PayloadBuffer paramsBuffer = buffers.get();
+        paramsBuffer.truncate(0);
+        final int fields = params.writeFields(paramsBuffer, RESERVED);
+        
+        return envelope(
+                name(name),
+                System.currentTimeMillis(),
+                userId,
+                sessionId,
+                paramsBuffer,
+                fields);
+    }
+    
+    /**
+     * Encodes an event from a template.
+     *
+     * @param template  the template of the event
+     * @param overrides parameters which take precedence over the ones of
+     *                  the {@code template}, may be {@code null}
+     * @param userId    the user id, may be {@code null}
+     * @param sessionId the session id
+     *
+     * @return the event in UTF-8 encoded JSON
+     */
+    byte[] encode(
+            EventTemplate template,
+            @Nullable Params overrides,
+            @Nullable String userId,
+            String sessionId) {
+        
+        final PayloadBuffer paramsBuffer = buffers.get();
+        paramsBuffer.truncate(0);
+        final int fields = writeFields(paramsBuffer, template, overrides);
+        
+        return envelope(
+                name(template.name),
+                System.currentTimeMillis(),
+                userId,
+                sessionId,
+                paramsBuffer,
+                fields);
+    }
+    
+    /**
+     * Captures an event at the time of recording, with its parameters
+     * encoded such that later changes to them do not affect the event,
+     * for encoding once the user id is known.
+     */
+    Captured capture(String name, Params params, Event.Priority priority) {
+        final PayloadBuffer paramsBuffer = buffers.get();
+        paramsBuffer.truncate(0);
+        final int count = params.writeFields(paramsBuffer, RESERVED);
+        
+        return new Captured(name, priority, copy(paramsBuffer), count);
+    }
+    
+    /**
+     * Captures an event from a template at the time of recording.
+     *
+     * @see #capture(String, Params, Event.Priority)
+     */
+    Captured capture(EventTemplate template, @Nullable Params overrides) {
+        final PayloadBuffer paramsBuffer = buffers.get();
+        paramsBuffer.truncate(0);
+        final int count = writeFields(paramsBuffer, template, overrides);
+        
+        return new Captured(
+                template.name,
+                template.priority,
+                copy(paramsBuffer),
+                count);
+    }
+    
+    /**
+     * Encodes a captured event, with the timestamp of when it was
+     * captured.
+     */
+    byte[] encode(
+            Captured event,
+            @Nullable String userId,
+            String sessionId) {
+        
+        return envelope(
+                name(event.name),
+                event.time,
+                userId,
+                sessionId,
+                event.fields,
+                event.count);
+    }
+    
+    /**
+     * Copies the fields out of the per-thread buffer, sized to fit.
+     */
+    private PayloadBuffer copy(PayloadBuffer paramsBuffer) {
+        final PayloadBuffer fields = new PayloadBuffer(paramsBuffer.size());
+        fields.write(paramsBuffer.toByteArray());
+        
+        if (paramsBuffer.size() > BUFFER_LIMIT) {
+            buffers.remove();
+        }
+        return fields;
+    }
+    
+    private static int writeFields(
+            PayloadBuffer out,
+            EventTemplate template,
+            @Nullable Params overrides) {
+        
+        int fields = template.writeFields(out, overrides);
+        if (overrides != null) {
+            final int mark = out.size();
+            if (fields > 0) {
+                out.write(',');
+            }
+            
+            final int written = overrides.writeFields(out, RESERVED);
+            if (written == 0) {
+                out.truncate(mark);
+            }
+            fields += written;
+        }
+        
+        return fields;
+    }
+    
+    private byte[] envelope(
+            byte[] nameBytes,
+            long millis,
+            @Nullable String userId,
+            String sessionId,
+            PayloadBuffer paramsBuffer,
+            int fields) {
+        
+        final byte[] identityBytes = identity(userId, sessionId).bytes;
+        final boolean separator = fields > 0;
+        
+        final byte[] event = new byte[
+                NAME.length
+                + nameBytes.length
+                + TIMESTAMP.length
+                + TIMESTAMP_LENGTH
+                + UUID.length
+                + UUID_LENGTH
+                + 1
+                + identityBytes.length
+                + PARAMS.length
+                + paramsBuffer.size()
+                + (separator ? 1 : 0)
+                + constants.length
+                + END.length];
+        
+        int i = put(NAME, event, 0);
+        i = put(nameBytes, event, i);
+        i = put(TIMESTAMP, event, i);
+        i = timestamp(event, i, millis);
+        i = put(UUID, event, i);
+        i = uuids.get().next(event, i);
+        event[i++] = '"';
+        i = put(identityBytes, event, i);
+        i = put(PARAMS, event, i);
+        i = paramsBuffer.copyTo(event, i);
+        if (separator) {
+            event[i++] = ',';
+        }
+        i = put(constants, event, i);
+        put(END, event, i);
+        
+        if (paramsBuffer.size() > BUFFER_LIMIT) {
+            // don't hold on to the memory of an unusually large event
+            buffers.remove();
+        }
+        
+        return event;
+    }
+    
+    private byte[] name(String name) {
+        byte[] bytes = names.get(name);
+        if (bytes == null) {
+            bytes = bytes(JSONObject.quote(name));
+            if (names.size() < NAMES_LIMIT) {
+                names.put(name, bytes);
+            }
+        }
+        
+        return bytes;
+    }
+    
+    private Identity identity(@Nullable String userId, String sessionId) {
+        Identity current = identity;
+        if (!current.matches(userId, sessionId)) {
+            current = new Identity(userId, sessionId);
+            identity = current;
+        }
+        
+        return current;
+    }
+    
+    private int timestamp(byte[] dst, int offset, long millis) {
+        final long seconds = millis / 1000;
+        
+        Second current = second;
+        if (current.seconds != seconds) {
+            final String prefix;
+            synchronized (timestampFormat) {
+                prefix = timestampFormat.format(new Date(seconds * 1000));
+            }
+            
+            current = new Second(seconds, bytes(prefix));
+            second = current;
+        }
+        
+        int i = put(current.prefix, dst, offset);
+        final int fraction = (int) (millis % 1000);
+        dst[i++] = (byte) ('0' + fraction / 100);
+        dst[i++] = (byte) ('0' + fraction / 10 % 10);
+        dst[i++] = (byte) ('0' + fraction % 10);
+        
+        return i;
+    }
+    
+    private static int put(byte[] src, byte[] dst, int offset) {
+        System.arraycopy(src, 0, dst, offset, src.length);
+        return offset + src.length;
+    }
+    
+    private static byte[] bytes(String value) {
+        return value.getBytes(UTF8);
+    }
+    
+    /**
+     * Event captured before it could be encoded, holding on to its encoded
+     * parameter fields and the time at which it was recorded.
+     */
+    static final class Captured {
+        
+        final String name;
+        final Event.Priority priority;
+        final long time;
+        final PayloadBuffer fields;
+        final int count;
+        
+        Captured(
+                String name,
+                Event.Priority priority,
+                PayloadBuffer fields,
+                int count) {
+            
+            this.name = name;
+            this.priority = priority;
+            this.fields = fields;
+            this.count = count;
+            
+            time = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * Encoded session and user id fields, including the separators.
+     */
+    private static final class Identity {
+        
+        @Nullable
+        final String userId;
+        final String sessionId;
+        final byte[] bytes;
+        
+        Identity(@Nullable String userId, String sessionId) {
+            this.userId = userId;
+            this.sessionId = sessionId;
+            
+            final StringBuilder builder = new StringBuilder(",\"sessionID\":")
+                    .append(JSONObject.quote(sessionId));
+            if (userId != null) {
+                builder.append(",\"userID\":").append(JSONObject.quote(userId));
+            }
+            bytes = bytes(builder.append(',').toString());
+        }
+        
+        boolean matches(@Nullable String userId, String sessionId) {
+            return (this.sessionId.equals(sessionId)
+                    && (this.userId == null
+                            ? userId == null
+                            : this.userId.equals(userId)));
+        }
+    }
+    
+    /**
+     * Formatted timestamp up to and including the seconds.
+     */
+    private static final class Second {
+        
+        final long seconds;
+        final byte[] prefix;
+        
+        Second(long seconds, byte[] prefix) {
+            this.seconds = seconds;
+            this.prefix = prefix;
+        }
+    }
+    
+    /**
+     * Generates version 4 UUIDs from a pool of random bytes, which gets
+     * refilled from a {@link SecureRandom} in one call for many UUIDs.
+     */
+    private static final class UuidPool {
+        
+        private final SecureRandom random = new SecureRandom();
+        private final byte[] pool = new byte[16 * UUIDS_PER_POOL];
+        private int position = pool.length;
+        
+        int next(byte[] dst, int offset) {
+            if (position == pool.length) {
+                random.nextBytes(pool);
+                position = 0;
+            }
+            
+            pool[position + 6] = (byte) ((pool[position + 6] & 0x0f) | 0x40);
+            pool[position + 8] = (byte) ((pool[position + 8] & 0x3f) | 0x80);
+            
+            int i = offset;
+            for (int j = 0; j < 16; j++) {
+                if (j == 4 || j == 6 || j == 8 || j == 10) {
+                    dst[i++] = '-';
+                }
+                
+                final byte b = pool[position + j];
+                dst[i++] = HEX[(b >> 4) & 0x0f];
+                dst[i++] = HEX[b & 0x0f];
+            }
+            position += 16;
+            
+            return i;
+        }
+    }
+}
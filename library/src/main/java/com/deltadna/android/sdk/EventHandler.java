@@ -23,24 +23,28 @@ import android.util.Log;
 
 import com.deltadna.android.sdk.helpers.ClientInfo;
 import com.deltadna.android.sdk.helpers.EngageArchive;
+import com.deltadna.android.sdk.helpers.Settings;
 import com.deltadna.android.sdk.listeners.EngageListener;
 import com.deltadna.android.sdk.listeners.RequestListener;
-import com.deltadna.android.sdk.net.CancelableRequest;
 import com.deltadna.android.sdk.net.NetworkManager;
 import com.deltadna.android.sdk.net.Response;
 import com.deltadna.android.sdk.util.CloseableIterator;
+import com.deltadna.android.sdk.util.DirectExecutor;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Locale;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Class which handles collect and engage events, ensuring that collect
@@ -53,6 +57,13 @@ final class EventHandler {
             + ' '
             + EventHandler.class.getSimpleName();
     
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] EVENT_LIST_START =
+            "{\"eventList\":[".getBytes(UTF8);
+    private static final byte[] EVENT_LIST_END = "]}".getBytes(UTF8);
+    private static final int PAYLOAD_CAPACITY = 16 * 1024;
+    private static final long WRITER_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
     private final ScheduledExecutorService executor =
             new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
                 @Override
@@ -66,20 +77,30 @@ final class EventHandler {
     private final EventStore store;
     private final EngageArchive archive;
     private final NetworkManager network;
+    private final Settings settings;
+    
+    @Nullable
+    private volatile EventQueue<Batch> queue;
     
     @Nullable
     private ScheduledFuture<?> uploadTask;
     @Nullable
     private Future<?> upload;
     
+    private final AtomicReference<UploadState> uploadState =
+            new AtomicReference<>(UploadState.IDLE);
+    private final UploadCounters uploadCounters = new UploadCounters();
+    
     EventHandler(
             EventStore store,
             EngageArchive archive,
-            NetworkManager network) {
+            NetworkManager network,
+            Settings settings) {
         
         this.store = store;
         this.archive = archive;
         this.network = network;
+        this.settings = settings;
     }
 
     /**
@@ -129,20 +150,72 @@ final class EventHandler {
         }
     }
     
+    /**
+     * Takes a snapshot of the metrics for the events on their way from
+     * the queue through the store to being uploaded.
+     */
+    StoreMetrics getMetrics() {
+        return new StoreMetrics(store, queue, uploadCounters);
+    }
+    
     /**
      * Handles a collect {@code event} by placing into the queue,
      * to be sent at a later time.
      */
     void handleEvent(JSONObject event) {
-        store.add(event.toString());
+        handleEvent(event.toString().getBytes(UTF8));
+    }
+    
+    /**
+     * Handles a collect {@code event} which has already been encoded,
+     * by placing into the queue to be sent at a later time.
+     * <p>
+     * The event is handed over to a writer thread, so the caller never
+     * waits on the store.
+     */
+    void handleEvent(byte[] event) {
+        handleEvent(event, Event.Priority.NORMAL);
+    }
+    
+    void handleEvent(byte[] event, Event.Priority priority) {
+        handleEvents(new byte[][] {event}, new Event.Priority[] {priority});
+    }
+    
+    /**
+     * Handles a group of encoded collect {@code events}, which will be
+     * written to the store together.
+     */
+    void handleEvents(byte[][] events) {
+        final Event.Priority[] priorities = new Event.Priority[events.length];
+        Arrays.fill(priorities, Event.Priority.NORMAL);
+        
+        handleEvents(events, priorities);
+    }
+    
+    /**
+     * Handles a group of encoded collect {@code events} along with their
+     * {@code priorities}, which will be written to the store together.
+     */
+    void handleEvents(byte[][] events, Event.Priority[] priorities) {
+        EventQueue<Batch> current = queue;
+        if (current == null) {
+            current = startWriter();
+        }
+        
+        current.offer(new Batch(events, priorities));
     }
     
     /**
      * Handles an engage {@code event}.
+     * <p>
+     * The response is processed and archived on a background thread, with
+     * only the {@code listener} being called back on the
+     * {@code callbackExecutor}.
      */
     <E extends Engagement> void handleEngagement(
             final E engagement,
             final EngageListener<E> listener,
+            final Executor callbackExecutor,
             String userId,
             String sessionId,
             final int engageApiVersion,
@@ -167,7 +240,7 @@ final class EventHandler {
             }
             
             if (!engagement.params.isEmpty()) {
-                event.put("parameters", engagement.params.json);
+                event.put("parameters", engagement.params.toJson());
             }
         } catch (JSONException e) {
             // should never happen due to params enforcement
@@ -179,11 +252,19 @@ final class EventHandler {
             public void onCompleted(Response<JSONObject> result) {
                 engagement.setResponse(result);
                 if (engagement.isSuccessful()) {
-                    //noinspection ConstantConditions
-                    archive.put(
-                            engagement.name,
-                            engagement.flavour,
-                            engagement.getJson().toString());
+                    if (result.bytes != null) {
+                        // archive the response as received, no re-serialising
+                        archive.put(
+                                engagement.name,
+                                engagement.flavour,
+                                result.bytes);
+                    } else {
+                        //noinspection ConstantConditions
+                        archive.put(
+                                engagement.name,
+                                engagement.flavour,
+                                engagement.getJson().toString());
+                    }
                 } else {
                     Log.w(TAG, String.format(
                             Locale.US,
@@ -208,7 +289,7 @@ final class EventHandler {
                     }
                 }
                 
-                listener.onCompleted(engagement);
+                notifyCompleted(engagement);
             }
             
             @Override
@@ -223,7 +304,7 @@ final class EventHandler {
                         
                         Log.d(TAG, "Using cached engage " + json);
                         
-                        listener.onCompleted(engagement);
+                        notifyCompleted(engagement);
                     } catch (JSONException e1) {
                         /*
                          * This can only happen if the archive has become
@@ -235,13 +316,54 @@ final class EventHandler {
                         Log.e(  TAG,
                                 "Failed converting cached engage to JSON",
                                 e1);
-                        listener.onError(e1);
+                        notifyError(e1);
                     }
                 } else {
-                    listener.onError(t);
+                    notifyError(t);
                 }
             }
-        });
+            
+            private void notifyCompleted(final E engagement) {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCompleted(engagement);
+                    }
+                });
+            }
+            
+            private void notifyError(final Throwable t) {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onError(t);
+                    }
+                });
+            }
+        }, DirectExecutor.INSTANCE);
+    }
+    
+    /**
+     * Creates the queue from the {@link Settings} and starts the thread
+     * writing its events into the store.
+     */
+    private synchronized EventQueue<Batch> startWriter() {
+        if (queue == null) {
+            final EventQueue<Batch> created = new EventQueue<>(
+                    settings.getEventQueueCapacity(),
+                    settings.getEventQueueOverflow(),
+                    settings.getEventQueueBlockTimeout());
+            
+            final Thread writer = new Thread(
+                    new Writer(created),
+                    EventHandler.class.getSimpleName() + "-writer");
+            writer.setDaemon(true);
+            writer.start();
+            
+            queue = created;
+        }
+        
+        return queue;
     }
     
     private void cancelUploadTask() {
@@ -256,29 +378,117 @@ final class EventHandler {
         }
     }
     
+    /**
+     * Uploads stored events without blocking the executor thread.
+     * <p>
+     * The upload moves through the {@link UploadState}s, with the store
+     * read and request submission happening on the executor, and the
+     * acknowledgement being posted back onto the executor once the request
+     * completes. Only one upload can be in flight at any given time.
+     */
     private final class Upload implements Runnable {
         
         @Override
         public void run() {
-            final CloseableIterator<EventStoreItem> events = store.items();
-            if (!events.hasNext()) {
-                Log.d(TAG, "No stored events to upload");
+            if (!uploadState.compareAndSet(UploadState.IDLE, UploadState.READING)) {
+                Log.d(TAG, "Event upload already in progress, skipping");
+                return;
+            }
+            
+            final CloseableIterator<EventStoreItem> events;
+            try {
+                events = store.items();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed reading stored events", e);
+                uploadState.set(UploadState.IDLE);
+                return;
+            }
+            
+            final PayloadBuffer payload;
+            final int count;
+            try {
+                if (!events.hasNext()) {
+                    Log.d(TAG, "No stored events to upload");
+                    release(events);
+                    return;
+                }
+                
+                payload = new PayloadBuffer(PAYLOAD_CAPACITY);
+                count = read(events, payload);
+            } catch (RuntimeException e) {
+                // the batch stays in the store for the next upload
+                Log.w(TAG, "Failed reading stored events, will retry later", e);
+                release(events);
                 return;
             }
             
-            final StringBuilder builder = new StringBuilder("{\"eventList\":[");
+            Log.d(TAG, "Uploading " + count + " events");
+            uploadState.set(UploadState.UPLOADING);
+            final int uploaded = count;
+            final int bytes = payload.size();
+            final long submitted = System.nanoTime();
+            try {
+                network.collectBulk(payload.toByteArray(), new RequestListener<Void>() {
+                    @Override
+                    public void onCompleted(Response<Void> result) {
+                        if (result.isSuccessful()) {
+                            Log.d(TAG, "Successfully uploaded events");
+                            uploadCounters.onUpload(
+                                    uploaded,
+                                    bytes,
+                                    System.nanoTime() - submitted);
+                            acknowledge(events, true);
+                        } else {
+                            Log.w(TAG, "Failed to upload events due to " + result);
+                            if (result.code == 400) {
+                                Log.w(TAG, "Wiping event store due to unrecoverable data");
+                                acknowledge(events, true);
+                            } else {
+                                acknowledge(events, false);
+                            }
+                        }
+                    }
+                    
+                    @Override
+                    public void onError(Throwable t) {
+                        Log.w(  TAG,
+                                "Failed to upload events, will retry later",
+                                t);
+                        acknowledge(events, false);
+                    }
+                }, executor);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed submitting event upload", e);
+                acknowledge(events, false);
+            }
+        }
+        
+        /**
+         * Writes the {@code events} into the {@code payload}, up to the
+         * first one which is not available.
+         *
+         * @return the number of events written
+         */
+        private int read(
+                CloseableIterator<EventStoreItem> events,
+                PayloadBuffer payload) {
+            
+            payload.write(EVENT_LIST_START);
             int count = 0;
             while (events.hasNext()) {
                 final EventStoreItem event = events.next();
                 
                 if (event.available()) {
-                    final String content = event.get();
-                    if (content != null) {
-                        builder.append(content);
-                        builder.append(',');
-                        
+                    final int mark = payload.size();
+                    if (count > 0) {
+                        payload.write(',');
+                    }
+                    
+                    final int start = payload.size();
+                    if (event.writeTo(payload) && payload.size() > start) {
                         count++;
                     } else {
+                        payload.truncate(mark);
                         Log.w(TAG, "Failed retrieving event, skipping");
                     }
                 } else {
@@ -286,59 +496,88 @@ final class EventHandler {
                     break;
                 }
             }
-            if (builder.charAt(builder.length()- 1) == ',') {
-                builder.deleteCharAt(builder.length() - 1);
-            }
-            builder.append("]}");
+            payload.write(EVENT_LIST_END);
             
-            final JSONObject payload;
+            return count;
+        }
+        
+        /**
+         * Closes the {@code events} without clearing them, and returns the
+         * upload into an idle state.
+         */
+        private void release(CloseableIterator<EventStoreItem> events) {
             try {
-                payload = new JSONObject(builder.toString());
-            } catch (JSONException e) {
-                Log.w(TAG, e);
-                return;
+                events.close(false);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed closing stored events", e);
+            } finally {
+                uploadState.set(UploadState.IDLE);
             }
+        }
+        
+        /**
+         * Closes the {@code events} on the executor, clearing them if
+         * requested, and returns the upload into an idle state.
+         */
+        private void acknowledge(
+                final CloseableIterator<EventStoreItem> events,
+                final boolean clear) {
             
-            Log.d(TAG, "Uploading " + count + " events");
-            final CountDownLatch latch = new CountDownLatch(1);
-            final CancelableRequest request = network.collect(
-                    payload,
-                    new RequestListener<Void>() {
-                        @Override
-                        public void onCompleted(Response<Void> result) {
-                            if (result.isSuccessful()) {
-                                Log.d(TAG, "Successfully uploaded events");
-                                events.close(true);
-                            } else {
-                                Log.w(TAG, "Failed to upload events due to " + result);
-                                if (result.code == 400) {
-                                    Log.w(TAG, "Wiping event store due to unrecoverable data");
-                                    events.close(true);
-                                } else {
-                                    events.close(false);
-                                }
-                            }
-                            
-                            latch.countDown();
-                        }
-                        
-                        @Override
-                        public void onError(Throwable t) {
-                            Log.w(  TAG,
-                                    "Failed to upload events, will retry later",
-                                    t);
-                            
-                            events.close(false);
-                            latch.countDown();
-                        }
-                    });
-            
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-                Log.w(TAG, "Cancelling event upload", e);
-                request.cancel();
+            uploadState.set(UploadState.ACKNOWLEDGING);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        events.close(clear);
+                    } finally {
+                        uploadState.set(UploadState.IDLE);
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * Takes events off the queue and adds them to the store.
+     */
+    private final class Writer implements Runnable {
+        
+        private final EventQueue<Batch> queue;
+        
+        Writer(EventQueue<Batch> queue) {
+            this.queue = queue;
+        }
+        
+        @Override
+        public void run() {
+            while (true) {
+                final Batch batch = queue.take(WRITER_PARK_NANOS);
+                if (batch != null) {
+                    try {
+                        store.add(batch.events, batch.priorities);
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Failed adding events to store", e);
+                    }
+                }
             }
         }
     }
+    
+    private static final class Batch {
+        
+        final byte[][] events;
+        final Event.Priority[] priorities;
+        
+        Batch(byte[][] events, Event.Priority[] priorities) {
+            this.events = events;
+            this.priorities = priorities;
+        }
+    }
+    
+    private enum UploadState {
+        IDLE,
+        READING,
+        UPLOADING,
+        ACKNOWLEDGING
+    }
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.deltadna.android.sdk.helpers.Settings;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies the per event name sampling rates and rate limits from the
+ * {@link Settings} to recorded events, so that an event being recorded in
+ * a tight loop cannot fill up the event store at the expense of others.
+ * <p>
+ * Rate limits are implemented as token buckets, which get refilled at the
+ * limit and hold up to the burst. Each event name has its own bucket, so
+ * events with different names can be recorded without contention.
+ */
+final class EventLimiter {
+    
+    private static final String TAG = BuildConfig.LOG_TAG
+            + ' '
+            + EventLimiter.class.getSimpleName();
+    
+    static final String SUMMARY_EVENT = "eventsDropped";
+    
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    
+    private final Settings settings;
+    private final Random random = new Random();
+    
+    private final ConcurrentMap<String, Bucket> buckets =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Dropped> dropped =
+            new ConcurrentHashMap<>();
+    
+    EventLimiter(Settings settings) {
+        this.settings = settings;
+    }
+    
+    /**
+     * @param name the name of the event being recorded
+     *
+     * @return {@code true} if the event should be recorded, else
+     *         {@code false} if it should be dropped
+     */
+    boolean allow(String name) {
+        if (!settings.hasEventLimits()) {
+            return true;
+        }
+        
+        final double rate = settings.getEventSampleRate(name);
+        final double limit = settings.getEventRateLimit(name);
+        if (rate == 1 && limit == 0) {
+            return true;
+        }
+        
+        if (rate < 1 && random.nextDouble() >= rate) {
+            dropped(name).sampled.incrementAndGet();
+            return false;
+        }
+        
+        if (limit > 0) {
+            final int burst = settings.getEventRateBurst(name);
+            Bucket bucket = buckets.get(name);
+            if (bucket == null) {
+                final Bucket created = new Bucket(burst);
+                bucket = buckets.putIfAbsent(name, created);
+                if (bucket == null) {
+                    bucket = created;
+                }
+            }
+            
+            if (!bucket.take(limit, burst, System.nanoTime())) {
+                if (dropped(name).limited.getAndIncrement() == 0) {
+                    Log.w(TAG, "Rate limiting " + name + " events");
+                }
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Creates an event summarising the events dropped since the previous
+     * summary, and resets the counts.
+     *
+     * @return the summary event, or {@code null} if no events have been
+     *         dropped
+     */
+    @Nullable
+    synchronized Event summary() {
+        final JSONObject events = new JSONObject();
+        try {
+            for (final Map.Entry<String, Dropped> entry : dropped.entrySet()) {
+                // counts are reset rather than removed to not lose any
+                final long sampled = entry.getValue().sampled.getAndSet(0);
+                final long limited = entry.getValue().limited.getAndSet(0);
+                if (sampled > 0 || limited > 0) {
+                    events.put(entry.getKey(), new JSONObject()
+                            .put("sampled", sampled)
+                            .put("rateLimited", limited));
+                }
+            }
+        } catch (JSONException e) {
+            // cannot happen as the keys are not null
+            Log.w(TAG, e);
+        }
+        
+        return (events.length() == 0)
+                ? null
+                : new Event(SUMMARY_EVENT).putParam("droppedEvents", events);
+    }
+    
+    private Dropped dropped(String name) {
+        final Dropped counts = dropped.get(name);
+        if (counts == null) {
+            final Dropped created = new Dropped();
+            final Dropped existing = dropped.putIfAbsent(name, created);
+            return (existing != null) ? existing : created;
+        }
+        return counts;
+    }
+    
+    private static final class Bucket {
+        
+        private double tokens;
+        private long refilled = System.nanoTime();
+        
+        Bucket(int burst) {
+            tokens = burst;
+        }
+        
+        synchronized boolean take(double limit, int burst, long now) {
+            tokens = Math.min(
+                    burst,
+                    tokens + (now - refilled) * limit / NANOS_PER_SECOND);
+            refilled = now;
+            
+            if (tokens >= 1) {
+                tokens--;
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+    
+    private static final class Dropped {
+        
+        final AtomicLong sampled = new AtomicLong();
+        final AtomicLong limited = new AtomicLong();
+    }
+}
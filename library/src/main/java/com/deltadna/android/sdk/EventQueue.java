@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.deltadna.android.sdk.helpers.Preconditions;
+import com.deltadna.android.sdk.helpers.Settings;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue handing events over from the threads recording
+ * them to the thread writing them into the {@link EventStore}.
+ * <p>
+ * Based on Dmitry Vyukov's bounded queue, where each slot carries a
+ * sequence number so that producers only need a CAS on the tail in order
+ * to claim a slot. The head is claimed in the same way, which allows
+ * producers to evict the oldest element when the
+ * {@link Settings.EventQueueOverflow#DROP_OLDEST} policy is used.
+ * <p>
+ * The consumer parks itself when the queue is empty, and only gets
+ * unparked by a producer if it has announced that it went to sleep.
+ *
+ * @param <E> type of the elements
+ */
+final class EventQueue<E> {
+    
+    private static final String TAG = BuildConfig.LOG_TAG
+            + ' '
+            + EventQueue.class.getSimpleName();
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    
+    private final Settings.EventQueueOverflow overflow;
+    private final long blockTimeoutNanos;
+    
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+    @Nullable
+    private volatile Thread consumer;
+    
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong highWaterMark = new AtomicLong();
+    
+    /**
+     * @param capacity      the capacity, which will be rounded up to the
+     *                      next power of two, and to at least two as the
+     *                      sequence numbers need a spare slot to tell a full
+     *                      queue apart from an empty one
+     * @param overflow      the policy for when the queue is full
+     * @param blockTimeout  the timeout in milliseconds for
+     *                      {@link Settings.EventQueueOverflow#BLOCK}
+     */
+    EventQueue(
+            int capacity,
+            Settings.EventQueueOverflow overflow,
+            int blockTimeout) {
+        
+        Preconditions.checkArg(
+                capacity > 0 && capacity <= (1 << 30),
+                "capacity out of range");
+        Preconditions.checkArg(overflow != null, "overflow cannot be null");
+        Preconditions.checkArg(blockTimeout >= 0, "timeout cannot be negative");
+        
+        final int size = (capacity <= 2)
+                ? 2
+                : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        elements = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        
+        this.overflow = overflow;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+    }
+    
+    /**
+     * Offers an {@code element} to the queue, applying the overflow policy
+     * if the queue is full.
+     * 
+     * @return {@code true} if the element has been queued, else
+     *         {@code false} if it has been dropped
+     */
+    boolean offer(E element) {
+        boolean offered = tryOffer(element);
+        
+        if (!offered) {
+            switch (overflow) {
+                case DROP_NEWEST:
+                    onDropped();
+                    break;
+                
+                case DROP_OLDEST:
+                    while (!offered) {
+                        if (poll() != null) {
+                            onDropped();
+                        }
+                        offered = tryOffer(element);
+                    }
+                    break;
+                
+                case BLOCK:
+                    final long deadline = System.nanoTime() + blockTimeoutNanos;
+                    while (!offered) {
+                        if (System.nanoTime() - deadline >= 0) {
+                            onDropped();
+                            break;
+                        }
+                        
+                        LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                        offered = tryOffer(element);
+                    }
+                    break;
+            }
+        }
+        
+        if (offered) {
+            updateHighWaterMark();
+            
+            if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+                LockSupport.unpark(consumer);
+            }
+        }
+        
+        return offered;
+    }
+    
+    /**
+     * Retrieves and removes the oldest element.
+     * 
+     * @return the element, or {@code null} if the queue is empty
+     */
+    @Nullable
+    E poll() {
+        long position = head.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - (position + 1);
+            
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.set(index, position + mask + 1);
+                    
+                    return element;
+                }
+                
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+    
+    /**
+     * Retrieves and removes the oldest element, parking the calling thread
+     * for up to {@code timeoutNanos} if the queue is empty.
+     * <p>
+     * Should only be called from the single consumer thread. As with
+     * {@link LockSupport#parkNanos(Object, long)} the call may return
+     * before the timeout has elapsed.
+     * 
+     * @return the element, or {@code null} if the queue is still empty
+     */
+    @Nullable
+    E take(long timeoutNanos) {
+        E element = poll();
+        if (element != null) {
+            return element;
+        }
+        
+        consumer = Thread.currentThread();
+        sleeping.set(true);
+        // check again in case an offer happened before announcing
+        element = poll();
+        if (element == null) {
+            LockSupport.parkNanos(this, timeoutNanos);
+            element = poll();
+        }
+        sleeping.set(false);
+        
+        return element;
+    }
+    
+    /**
+     * @return the number of elements in the queue
+     */
+    int size() {
+        // reading the head first so the result cannot be negative
+        final long start = head.get();
+        return (int) Math.min(tail.get() - start, mask + 1);
+    }
+    
+    int capacity() {
+        return mask + 1;
+    }
+    
+    /**
+     * @return the number of elements dropped due to the queue being full
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+    
+    /**
+     * @return the highest number of elements the queue has held
+     */
+    long getHighWaterMark() {
+        return highWaterMark.get();
+    }
+    
+    private boolean tryOffer(E element) {
+        long position = tail.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - position;
+            
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.set(index, position + 1);
+                    
+                    return true;
+                }
+                
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+    
+    private void updateHighWaterMark() {
+        final int size = size();
+        long current = highWaterMark.get();
+        while (size > current && !highWaterMark.compareAndSet(current, size)) {
+            current = highWaterMark.get();
+        }
+    }
+    
+    private void onDropped() {
+        final long count = dropped.incrementAndGet();
+        if (count == 1 || count % 1000 == 0) {
+            Log.w(TAG, "Dropped " + count + " events due to full queue");
+        }
+    }
+}
@@ -18,10 +18,22 @@ package com.deltadna.android.sdk;
 
 import android.support.annotation.Nullable;
 
+import java.io.OutputStream;
+
 interface EventStoreItem {
     
     boolean available();
     
     @Nullable
     String get();
+    
+    /**
+     * Writes the event as UTF-8 encoded JSON into {@code out}, without
+     * going through an intermediate string.
+     * 
+     * @return  {@code true} if the event was written, {@code false} if it
+     *          could not be retrieved in which case {@code out} may hold
+     *          part of the event
+     */
+    boolean writeTo(OutputStream out);
 }
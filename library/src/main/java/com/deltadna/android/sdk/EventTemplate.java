@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import android.support.annotation.Nullable;
+
+import com.deltadna.android.sdk.helpers.Preconditions;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * An immutable template for events which get recorded many times with the
+ * same name and mostly the same parameters, such as an event for each
+ * completed level.
+ * <p>
+ * The parameters of the event are encoded once when the template gets
+ * created, so later changes to the event will not be reflected in the
+ * template. Recording the template through
+ * {@link DDNA#recordEvent(EventTemplate, Params)} mostly copies the
+ * encoded parameters, with any parameters passed in at that point taking
+ * precedence over the ones of the template under the same key.
+ */
+public final class EventTemplate {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    final String name;
+    final Event.Priority priority;
+    
+    /**
+     * Encoded parameters, separated by commas but without the surrounding
+     * braces.
+     */
+    private final byte[] fields;
+    /**
+     * Keys of the encoded parameters, in the order they have been encoded.
+     */
+    private final String[] keys;
+    /**
+     * Offsets into {@link #fields} at which each of the parameters ends.
+     */
+    private final int[] ends;
+    
+    /**
+     * Creates a new instance.
+     *
+     * @param event the event to create the template from
+     *
+     * @throws IllegalArgumentException if the {@code event} is null
+     */
+    public EventTemplate(Event event) {
+        Preconditions.checkArg(event != null, "event cannot be null");
+        
+        name = event.name;
+        priority = event.priority;
+        
+        final int size = event.params.size();
+        final String[] writtenKeys = new String[size];
+        final int[] writtenEnds = new int[size];
+        final PayloadBuffer buffer = new PayloadBuffer(size * 32);
+        final int written = event.params.writeFields(
+                buffer,
+                EventEncoder.RESERVED,
+                writtenKeys,
+                writtenEnds);
+        
+        fields = buffer.toByteArray();
+        keys = Arrays.copyOf(writtenKeys, written);
+        ends = Arrays.copyOf(writtenEnds, written);
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public Event.Priority getPriority() {
+        return priority;
+    }
+    
+    /**
+     * Writes the parameters of the template which are not in
+     * {@code overrides} into {@code out}, as JSON fields without the
+     * surrounding braces.
+     *
+     * @return the number of fields written
+     */
+    int writeFields(PayloadBuffer out, @Nullable Params overrides) {
+        int overridden = -1;
+        if (overrides != null && !overrides.isEmpty()) {
+            for (int i = 0; i < keys.length; i++) {
+                if (overrides.has(keys[i])) {
+                    overridden = i;
+                    break;
+                }
+            }
+        }
+        
+        if (overridden < 0) {
+            out.write(fields);
+            return keys.length;
+        }
+        
+        int written = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i >= overridden && overrides.has(keys[i])) {
+                continue;
+            }
+            
+            if (written++ > 0) {
+                out.write(',');
+            }
+            // each field apart from the first follows a separator
+            final int start = (i == 0) ? 0 : ends[i - 1] + 1;
+            out.write(fields, start, ends[i] - start);
+        }
+        
+        return written;
+    }
+    
+    /**
+     * Creates an event equivalent to recording the template with the
+     * {@code overrides}, for when the event cannot be encoded straight
+     * away.
+     */
+    Event toEvent(@Nullable Params overrides) {
+        final Params params;
+        try {
+            params = new Params(new JSONObject(
+                    '{' + new String(fields, UTF8) + '}'));
+        } catch (JSONException e) {
+            // cannot happen as the fields have been encoded by us
+            throw new IllegalStateException(e);
+        }
+        
+        if (overrides != null) {
+            final JSONObject values = overrides.toJson();
+            final Iterator<String> iterator = values.keys();
+            while (iterator.hasNext()) {
+                final String key = iterator.next();
+                params.put(key, values.opt(key));
+            }
+        }
+        
+        return new Event(name, params).setPriority(priority);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.deltadna.android.sdk.helpers.Preconditions;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs the phases of initialising the SDK which touch the disk on a
+ * background thread, in the order in which they were added, and keeps
+ * track of how long each of them took.
+ * <p>
+ * If a phase fails then the remaining phases will not be run, and the
+ * failure will be reported through the {@link Future}.
+ */
+final class Initialiser {
+    
+    private static final String TAG = BuildConfig.LOG_TAG
+            + ' '
+            + Initialiser.class.getSimpleName();
+    
+    private final Map<String, Runnable> phases = new LinkedHashMap<>();
+    private final Map<String, Long> timings = new LinkedHashMap<>();
+    
+    private final FutureTask<Void> task;
+    
+    /**
+     * @param completion run on the background thread once all of the
+     *                   phases have completed successfully
+     */
+    Initialiser(final Runnable completion) {
+        task = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() {
+                final long start = SystemClock.elapsedRealtime();
+                for (final Map.Entry<String, Runnable> phase : phases.entrySet()) {
+                    final long phaseStart = SystemClock.elapsedRealtime();
+                    try {
+                        phase.getValue().run();
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed initialising " + phase.getKey(), e);
+                        throw e;
+                    }
+                    final long duration = SystemClock.elapsedRealtime() - phaseStart;
+                    
+                    synchronized (timings) {
+                        timings.put(phase.getKey(), duration);
+                    }
+                    Log.d(TAG, String.format(
+                            Locale.US,
+                            "Initialised %s in %dms",
+                            phase.getKey(),
+                            duration));
+                }
+                
+                completion.run();
+                Log.d(TAG, String.format(
+                        Locale.US,
+                        "Initialised in %dms",
+                        SystemClock.elapsedRealtime() - start));
+                return null;
+            }
+        });
+    }
+    
+    /**
+     * Adds a phase, which must happen before the initialiser is started.
+     */
+    Initialiser phase(String name, Runnable phase) {
+        Preconditions.checkString(name, "name cannot be null or empty");
+        Preconditions.checkArg(phase != null, "phase cannot be null");
+        
+        phases.put(name, phase);
+        return this;
+    }
+    
+    Future<Void> start() {
+        final Thread thread = new Thread(
+                task,
+                Initialiser.class.getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+        
+        return task;
+    }
+    
+    boolean isDone() {
+        return task.isDone();
+    }
+    
+    /**
+     * Gets the durations of the phases which have completed so far.
+     * 
+     * @return the durations in milliseconds keyed by the name of the
+     *         phase, in the order in which the phases ran
+     */
+    Map<String, Long> getTimings() {
+        synchronized (timings) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(timings));
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import java.util.Arrays;
+
+/**
+ * Minor units of the ISO 4217 currencies, as published on 2016-07-01.
+ * <p>
+ * Generated by scripts/generate-iso4217, do not edit by hand.
+ */
+final class Iso4217 {
+    
+    /**
+     * Currency codes packed into integers, in ascending order.
+     */
+    private static final int[] CODES = {
+            0x414544, // AED
+            0x41464E, // AFN
+            0x414C4C, // ALL
+            0x414D44, // AMD
+            0x414E47, // ANG
+            0x414F41, // AOA
+            0x415253, // ARS
+            0x415544, // AUD
+            0x415747, // AWG
+            0x415A4E, // AZN
+            0x42414D, // BAM
+            0x424244, // BBD
+            0x424454, // BDT
+            0x42474E, // BGN
+            0x424844, // BHD
+            0x424946, // BIF
+            0x424D44, // BMD
+            0x424E44, // BND
+            0x424F42, // BOB
+            0x424F56, // BOV
+            0x42524C, // BRL
+            0x425344, // BSD
+            0x42544E, // BTN
+            0x425750, // BWP
+            0x42594E, // BYN
+            0x425952, // BYR
+            0x425A44, // BZD
+            0x434144, // CAD
+            0x434446, // CDF
+            0x434845, // CHE
+            0x434846, // CHF
+            0x434857, // CHW
+            0x434C46, // CLF
+            0x434C50, // CLP
+            0x434E59, // CNY
+            0x434F50, // COP
+            0x434F55, // COU
+            0x435243, // CRC
+            0x435543, // CUC
+            0x435550, // CUP
+            0x435645, // CVE
+            0x435A4B, // CZK
+            0x444A46, // DJF
+            0x444B4B, // DKK
+            0x444F50, // DOP
+            0x445A44, // DZD
+            0x454750, // EGP
+            0x45524E, // ERN
+            0x455442, // ETB
+            0x455552, // EUR
+            0x464A44, // FJD
+            0x464B50, // FKP
+            0x474250, // GBP
+            0x47454C, // GEL
+            0x474853, // GHS
+            0x474950, // GIP
+            0x474D44, // GMD
+            0x474E46, // GNF
+            0x475451, // GTQ
+            0x475944, // GYD
+            0x484B44, // HKD
+            0x484E4C, // HNL
+            0x48524B, // HRK
+            0x485447, // HTG
+            0x485546, // HUF
+            0x494452, // IDR
+            0x494C53, // ILS
+            0x494E52, // INR
+            0x495144, // IQD
+            0x495252, // IRR
+            0x49534B, // ISK
+            0x4A4D44, // JMD
+            0x4A4F44, // JOD
+            0x4A5059, // JPY
+            0x4B4553, // KES
+            0x4B4753, // KGS
+            0x4B4852, // KHR
+            0x4B4D46, // KMF
+            0x4B5057, // KPW
+            0x4B5257, // KRW
+            0x4B5744, // KWD
+            0x4B5944, // KYD
+            0x4B5A54, // KZT
+            0x4C414B, // LAK
+            0x4C4250, // LBP
+            0x4C4B52, // LKR
+            0x4C5244, // LRD
+            0x4C534C, // LSL
+            0x4C5944, // LYD
+            0x4D4144, // MAD
+            0x4D444C, // MDL
+            0x4D4741, // MGA
+            0x4D4B44, // MKD
+            0x4D4D4B, // MMK
+            0x4D4E54, // MNT
+            0x4D4F50, // MOP
+            0x4D524F, // MRO
+            0x4D5552, // MUR
+            0x4D5652, // MVR
+            0x4D574B, // MWK
+            0x4D584E, // MXN
+            0x4D5856, // MXV
+            0x4D5952, // MYR
+            0x4D5A4E, // MZN
+            0x4E4144, // NAD
+            0x4E474E, // NGN
+            0x4E494F, // NIO
+            0x4E4F4B, // NOK
+            0x4E5052, // NPR
+            0x4E5A44, // NZD
+            0x4F4D52, // OMR
+            0x504142, // PAB
+            0x50454E, // PEN
+            0x50474B, // PGK
+            0x504850, // PHP
+            0x504B52, // PKR
+            0x504C4E, // PLN
+            0x505947, // PYG
+            0x514152, // QAR
+            0x524F4E, // RON
+            0x525344, // RSD
+            0x525542, // RUB
+            0x525746, // RWF
+            0x534152, // SAR
+            0x534244, // SBD
+            0x534352, // SCR
+            0x534447, // SDG
+            0x53454B, // SEK
+            0x534744, // SGD
+            0x534850, // SHP
+            0x534C4C, // SLL
+            0x534F53, // SOS
+            0x535244, // SRD
+            0x535350, // SSP
+            0x535444, // STD
+            0x535643, // SVC
+            0x535950, // SYP
+            0x535A4C, // SZL
+            0x544842, // THB
+            0x544A53, // TJS
+            0x544D54, // TMT
+            0x544E44, // TND
+            0x544F50, // TOP
+            0x545259, // TRY
+            0x545444, // TTD
+            0x545744, // TWD
+            0x545A53, // TZS
+            0x554148, // UAH
+            0x554758, // UGX
+            0x555344, // USD
+            0x55534E, // USN
+            0x555949, // UYI
+            0x555955, // UYU
+            0x555A53, // UZS
+            0x564546, // VEF
+            0x564E44, // VND
+            0x565556, // VUV
+            0x575354, // WST
+            0x584146, // XAF
+            0x584147, // XAG
+            0x584155, // XAU
+            0x584241, // XBA
+            0x584242, // XBB
+            0x584243, // XBC
+            0x584244, // XBD
+            0x584344, // XCD
+            0x584452, // XDR
+            0x584F46, // XOF
+            0x585044, // XPD
+            0x585046, // XPF
+            0x585054, // XPT
+            0x585355, // XSU
+            0x585453, // XTS
+            0x585541, // XUA
+            0x585858, // XXX
+            0x594552, // YER
+            0x5A4152, // ZAR
+            0x5A4D57, // ZMW
+            0x5A574C  // ZWL
+    };
+    
+    /**
+     * Minor units of the currencies, at the same positions as in
+     * {@link #CODES}.
+     */
+    private static final byte[] UNITS = {
+            2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 0,
+            2, 2, 2, 2, 2, 2, 2, 2, 2, 0, 2, 2, 2, 2, 2, 2,
+            4, 0, 2, 2, 2, 2, 2, 2, 2, 2, 0, 2, 2, 2, 2, 2,
+            2, 2, 2, 2, 2, 2, 2, 2, 2, 0, 2, 2, 2, 2, 2, 2,
+            2, 2, 2, 2, 3, 2, 0, 2, 3, 0, 2, 2, 2, 0, 2, 0,
+            3, 2, 2, 2, 2, 2, 2, 2, 3, 2, 2, 2, 2, 2, 2, 2,
+            2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 2,
+            2, 2, 2, 2, 2, 0, 2, 2, 2, 2, 0, 2, 2, 2, 2, 2,
+            2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 2, 2,
+            2, 2, 2, 2, 0, 2, 2, 0, 2, 2, 2, 0, 0, 2, 0, 0,
+            0, 0, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2,
+            2, 2, 2
+    };
+    
+    private Iso4217() {}
+    
+    /**
+     * Looks up the minor units of a currency.
+     * 
+     * @param code the three letter currency code, in upper case
+     * 
+     * @return the minor units, or {@code -1} if the currency is unknown
+     */
+    static int minorUnits(String code) {
+        if (code.length() != 3) {
+            return -1;
+        }
+        
+        final char first = code.charAt(0);
+        final char second = code.charAt(1);
+        final char third = code.charAt(2);
+        if ((first | second | third) > 0x7F) {
+            return -1;
+        }
+        
+        final int index = Arrays.binarySearch(
+                CODES,
+                (first << 16) | (second << 8) | third);
+        return (index >= 0) ? UNITS[index] : -1;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * Writes JSON values as UTF-8 bytes into a {@link PayloadBuffer}, without
+ * going through an intermediate {@link JSONObject} or {@link String}.
+ * <p>
+ * Values are serialised the same way as {@link JSONObject#toString()}
+ * would, such that the output can be parsed back into equal values.
+ */
+final class JsonBytes {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] HEX = "0123456789abcdef".getBytes(UTF8);
+    
+    private static final byte[] LITERAL_TRUE = "true".getBytes(UTF8);
+    private static final byte[] LITERAL_FALSE = "false".getBytes(UTF8);
+    private static final byte[] LITERAL_NULL = "null".getBytes(UTF8);
+    
+    private JsonBytes() {}
+    
+    /**
+     * Writes any value which can be put into a {@link JSONObject}, as well
+     * as {@link JsonParams}.
+     */
+    static void value(Object value, PayloadBuffer out) {
+        if (value instanceof String) {
+            string((String) value, out);
+        } else if (value instanceof Params) {
+            ((Params) value).writeTo(out);
+        } else if (value instanceof Product) {
+            ((Product) value).writeTo(out);
+        } else if (value instanceof JsonParams) {
+            object(((JsonParams) value).toJson(), out);
+        } else if (value instanceof JSONObject) {
+            object((JSONObject) value, out);
+        } else if (value instanceof JSONArray) {
+            array((JSONArray) value, out);
+        } else if (value instanceof Boolean) {
+            bool((Boolean) value, out);
+        } else if (    value instanceof Integer
+                    || value instanceof Long
+                    || value instanceof Short
+                    || value instanceof Byte) {
+            number(((Number) value).longValue(), out);
+        } else if (value instanceof Double) {
+            number((double) (Double) value, out);
+        } else if (value instanceof Float) {
+            number((float) (Float) value, out);
+        } else if (value instanceof Number) {
+            try {
+                ascii(JSONObject.numberToString((Number) value), out);
+            } catch (JSONException e) {
+                throw new IllegalArgumentException(e);
+            }
+        } else if (value == null || value == JSONObject.NULL) {
+            out.write(LITERAL_NULL);
+        } else {
+            string(value.toString(), out);
+        }
+    }
+    
+    static void object(JSONObject value, PayloadBuffer out) {
+        out.write('{');
+        final Iterator<String> keys = value.keys();
+        boolean first = true;
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            if (!first) {
+                out.write(',');
+            }
+            string(key, out);
+            out.write(':');
+            value(value.opt(key), out);
+            first = false;
+        }
+        out.write('}');
+    }
+    
+    static void array(JSONArray value, PayloadBuffer out) {
+        out.write('[');
+        for (int i = 0; i < value.length(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            value(value.opt(i), out);
+        }
+        out.write(']');
+    }
+    
+    static void bool(boolean value, PayloadBuffer out) {
+        out.write(value ? LITERAL_TRUE : LITERAL_FALSE);
+    }
+    
+    static void number(long value, PayloadBuffer out) {
+        if (value == Long.MIN_VALUE) {
+            ascii(Long.toString(value), out);
+            return;
+        }
+        
+        if (value < 0) {
+            out.write('-');
+            value = -value;
+        }
+        
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            out.write((int) ('0' + value / divisor % 10));
+            divisor /= 10;
+        }
+    }
+    
+    /**
+     * Writes a finite double, with whole values written without a
+     * fraction like {@link JSONObject#numberToString(Number)} does.
+     */
+    static void number(double value, PayloadBuffer out) {
+        if (value == (long) value) {
+            number((long) value, out);
+        } else {
+            ascii(Double.toString(value), out);
+        }
+    }
+    
+    static void number(float value, PayloadBuffer out) {
+        if (value == (long) value) {
+            number((long) value, out);
+        } else {
+            ascii(Float.toString(value), out);
+        }
+    }
+    
+    /**
+     * Writes a quoted JSON string, encoding the characters into UTF-8 as
+     * they get written.
+     */
+    static void string(String value, PayloadBuffer out) {
+        out.write('"');
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            
+            if (c < 0x80) {
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        out.write('\\');
+                        out.write(c);
+                        break;
+                    case '\n':
+                        out.write('\\');
+                        out.write('n');
+                        break;
+                    case '\r':
+                        out.write('\\');
+                        out.write('r');
+                        break;
+                    case '\t':
+                        out.write('\\');
+                        out.write('t');
+                        break;
+                    case '\b':
+                        out.write('\\');
+                        out.write('b');
+                        break;
+                    case '\f':
+                        out.write('\\');
+                        out.write('f');
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            unicodeEscape(c, out);
+                        } else {
+                            out.write(c);
+                        }
+                }
+            } else if (c < 0x800) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else if (c == 0x2028 || c == 0x2029) {
+                unicodeEscape(c, out);
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(
+                        c, value.charAt(++i));
+                out.write(0xF0 | (codePoint >> 18));
+                out.write(0x80 | ((codePoint >> 12) & 0x3F));
+                out.write(0x80 | ((codePoint >> 6) & 0x3F));
+                out.write(0x80 | (codePoint & 0x3F));
+            } else if ( c >= Character.MIN_SURROGATE
+                        && c <= Character.MAX_SURROGATE) {
+                // unpaired, replaced in the same way as String.getBytes()
+                out.write('?');
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+        out.write('"');
+    }
+    
+    private static void ascii(String value, PayloadBuffer out) {
+        for (int i = 0; i < value.length(); i++) {
+            out.write(value.charAt(i));
+        }
+    }
+    
+    private static void unicodeEscape(int c, PayloadBuffer out) {
+        out.write('\\');
+        out.write('u');
+        out.write(HEX[c >> 12]);
+        out.write(HEX[(c >> 8) & 0xF]);
+        out.write(HEX[(c >> 4) & 0xF]);
+        out.write(HEX[c & 0xF]);
+    }
+}
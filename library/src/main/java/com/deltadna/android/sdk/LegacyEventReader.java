@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Reads the records of a file from the {@link LegacyEventStore} one at a
+ * time, such that only a single record is held in memory, starting from
+ * an offset at which a previous read may have stopped.
+ * <p>
+ * Each record is a big endian length followed by as many bytes of UTF-8.
+ */
+final class LegacyEventReader implements Closeable {
+    
+    private static final String TAG = BuildConfig.LOG_TAG
+            + ' '
+            + LegacyEventReader.class.getSimpleName();
+    private static final int BUFFER_SIZE = 8 * 1024;
+    
+    private final File file;
+    private final long length;
+    private final InputStream in;
+    private final int limit;
+    private final byte[] header = new byte[4];
+    
+    private long position;
+    private int skipped;
+    
+    /**
+     * @param file      the file to read from
+     * @param offset    the offset to start reading from, which should be
+     *                  either zero or a {@link #position()} from a
+     *                  previous reader
+     * @param limit     the size above which records will be skipped
+     *                  instead of being read
+     *
+     * @throws IOException if the file could not be opened, or the
+     *                     {@code offset} is outside of it
+     */
+    LegacyEventReader(File file, long offset, int limit) throws IOException {
+        this.file = file;
+        this.limit = limit;
+        
+        length = file.length();
+        if (offset < 0 || offset > length) {
+            throw new IOException(String.format(
+                    Locale.US,
+                    "Offset %d outside of %s with length %d",
+                    offset,
+                    file,
+                    length));
+        }
+        
+        in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            skip(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        position = offset;
+    }
+    
+    /**
+     * Reads the next record.
+     *
+     * @return the record, or {@code null} if the end of the file has been
+     *         reached
+     *
+     * @throws IOException if reading fails
+     */
+    @Nullable
+    byte[] next() throws IOException {
+        while (true) {
+            final int read = fill(header);
+            if (read == 0) {
+                return null;
+            } else if (read < header.length) {
+                Log.w(TAG, "Truncated record at " + position + " in " + file);
+                return null;
+            }
+            
+            final int size = ((header[0] & 0xff) << 24)
+                    | ((header[1] & 0xff) << 16)
+                    | ((header[2] & 0xff) << 8)
+                    | (header[3] & 0xff);
+            if (size < 0) {
+                Log.w(TAG, "Malformed record at " + position + " in " + file);
+                return null;
+            } else if (position + header.length + size > length) {
+                Log.w(TAG, "Truncated record at " + position + " in " + file);
+                return null;
+            }
+            
+            if (size > limit) {
+                skip(size);
+                position += header.length + size;
+                skipped++;
+                continue;
+            }
+            
+            final byte[] record = new byte[size];
+            if (fill(record) < size) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+            position += header.length + size;
+            
+            return record;
+        }
+    }
+    
+    /**
+     * @return the offset just after the last record which has been read
+     *         or skipped
+     */
+    long position() {
+        return position;
+    }
+    
+    /**
+     * @return the number of records which have been skipped for being
+     *         over the limit
+     */
+    int skipped() {
+        return skipped;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+    
+    /**
+     * @return the number of bytes read into {@code dst}, which is less
+     *         than its length only if the end of the file has been reached
+     */
+    private int fill(byte[] dst) throws IOException {
+        int read = 0;
+        while (read < dst.length) {
+            final int count = in.read(dst, read, dst.length - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        
+        return read;
+    }
+    
+    private void skip(long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            final long skipped = in.skip(remaining);
+            if (skipped > 0) {
+                remaining -= skipped;
+            } else if (in.read() >= 0) {
+                remaining--;
+            } else {
+                throw new EOFException("Unexpected end of " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import android.support.annotation.Nullable;
+
+import com.deltadna.android.sdk.helpers.Preconditions;
+import com.deltadna.android.sdk.util.CloseableIterator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link EventStore} keeping events in memory only, such that they get
+ * lost when the process ends, for ephemeral sessions and for tests which
+ * should not depend on the device storage.
+ * <p>
+ * The events of each priority are kept oldest first in a ring buffer, with
+ * the store being bounded by the total size of the events. Events which do
+ * not fit are counted rather than logged.
+ */
+final class MemoryEventStore implements EventStore {
+    
+    /**
+     * Default limit for the total size of the events, in bytes.
+     */
+    static final long DEFAULT_LIMIT = 2 * EVENTS_LIMIT;
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Event.Priority[] PRIORITIES = Event.Priority.values();
+    
+    private final long limit;
+    
+    // guarded by this
+    private final List<ArrayDeque<byte[]>> queues;
+    private long size;
+    
+    private final AtomicLongArray evicted =
+            new AtomicLongArray(PRIORITIES.length);
+    private final AtomicLongArray dropped =
+            new AtomicLongArray(PRIORITIES.length);
+    private final StoreCounters counters = new StoreCounters();
+    
+    MemoryEventStore() {
+        this(DEFAULT_LIMIT);
+    }
+    
+    /**
+     * @param limit the limit for the total size of the events, in bytes
+     */
+    MemoryEventStore(long limit) {
+        Preconditions.checkArg(limit > 0, "limit must be positive");
+        
+        this.limit = limit;
+        
+        queues = new ArrayList<>(PRIORITIES.length);
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            queues.add(new ArrayDeque<byte[]>());
+        }
+    }
+    
+    @Override
+    public synchronized void add(byte[][] events, Event.Priority[] priorities) {
+        final long start = System.nanoTime();
+        
+        long added = 0;
+        int admitted = 0;
+        int lowest = PRIORITIES.length;
+        for (int i = 0; i < events.length; i++) {
+            if (events[i].length > EVENTS_LIMIT) {
+                dropped.incrementAndGet(priorities[i].ordinal());
+                counters.onRejected(StoreMetrics.Rejection.EVENT_TOO_LARGE, 1);
+            } else {
+                added += events[i].length;
+                admitted++;
+                lowest = Math.min(lowest, priorities[i].ordinal());
+            }
+        }
+        if (admitted == 0) {
+            return;
+        }
+        
+        final long excess = size + added - limit;
+        if (excess > 0 && !evict(excess, lowest)) {
+            for (int i = 0; i < events.length; i++) {
+                if (events[i].length <= EVENTS_LIMIT) {
+                    dropped.incrementAndGet(priorities[i].ordinal());
+                }
+            }
+            counters.onRejected(StoreMetrics.Rejection.STORE_FULL, admitted);
+            return;
+        }
+        
+        for (int i = 0; i < events.length; i++) {
+            if (events[i].length <= EVENTS_LIMIT) {
+                queues.get(priorities[i].ordinal()).addLast(events[i]);
+            }
+        }
+        size += added;
+        counters.onWrite(admitted, added, System.nanoTime() - start);
+    }
+    
+    @Override
+    public synchronized CloseableIterator<EventStoreItem> items() {
+        final List<byte[]> batch = new ArrayList<>();
+        final int[] counts = new int[PRIORITIES.length];
+        long total = 0;
+        
+        fill:
+        for (int priority = PRIORITIES.length - 1; priority >= 0; priority--) {
+            for (final byte[] event : queues.get(priority)) {
+                if (total + event.length > EVENTS_LIMIT) {
+                    break fill;
+                }
+                
+                batch.add(event);
+                counts[priority]++;
+                total += event.length;
+            }
+        }
+        
+        return new Batch(batch, counts);
+    }
+    
+    @Override
+    public synchronized void clear() {
+        for (final ArrayDeque<byte[]> queue : queues) {
+            queue.clear();
+        }
+        size = 0;
+    }
+    
+    @Override
+    public long getEvicted(Event.Priority priority) {
+        return evicted.get(priority.ordinal());
+    }
+    
+    @Override
+    public long getDropped(Event.Priority priority) {
+        return dropped.get(priority.ordinal());
+    }
+    
+    @Override
+    public synchronized long getStoredEvents() {
+        long events = 0;
+        for (final ArrayDeque<byte[]> queue : queues) {
+            events += queue.size();
+        }
+        return events;
+    }
+    
+    @Override
+    public synchronized long getStoredBytes() {
+        return size;
+    }
+    
+    @Override
+    public StoreCounters getCounters() {
+        return counters;
+    }
+    
+    /**
+     * Evicts the oldest events with a priority lower than {@code priority},
+     * starting with the lowest priority, until at least {@code excess}
+     * bytes have been freed.
+     *
+     * @return {@code true} if enough has been evicted, else
+     *         {@code false} and nothing has been evicted
+     */
+    private boolean evict(long excess, int priority) {
+        long evictable = 0;
+        for (int i = 0; i < priority && evictable < excess; i++) {
+            for (final byte[] event : queues.get(i)) {
+                evictable += event.length;
+                if (evictable >= excess) break;
+            }
+        }
+        if (evictable < excess) {
+            return false;
+        }
+        
+        long freed = 0;
+        for (int i = 0; i < priority && freed < excess; i++) {
+            final ArrayDeque<byte[]> queue = queues.get(i);
+            while (!queue.isEmpty() && freed < excess) {
+                freed += queue.pollFirst().length;
+                evicted.incrementAndGet(i);
+            }
+        }
+        size -= freed;
+        
+        return true;
+    }
+    
+    /**
+     * Removes the events of a batch, which are at the head of their queues
+     * unless they have been evicted or cleared in the meantime.
+     */
+    private synchronized void acknowledge(List<byte[]> batch, int[] counts) {
+        int index = 0;
+        for (int priority = PRIORITIES.length - 1; priority >= 0; priority--) {
+            final ArrayDeque<byte[]> queue = queues.get(priority);
+            for (int i = 0; i < counts[priority]; i++) {
+                final byte[] event = batch.get(index++);
+                if (queue.peekFirst() == event) {
+                    queue.pollFirst();
+                    size -= event.length;
+                }
+            }
+        }
+    }
+    
+    private final class Batch implements CloseableIterator<EventStoreItem> {
+        
+        private final List<byte[]> events;
+        private final int[] counts;
+        
+        private int position;
+        
+        Batch(List<byte[]> events, int[] counts) {
+            this.events = events;
+            this.counts = counts;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return position < events.size();
+        }
+        
+        @Override
+        public EventStoreItem next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            
+            final byte[] event = events.get(position++);
+            return new EventStoreItem() {
+                @Override
+                public boolean available() {
+                    return true;
+                }
+                
+                @Override
+                @Nullable
+                public String get() {
+                    return new String(event, UTF8);
+                }
+                
+                @Override
+                public boolean writeTo(OutputStream out) {
+                    try {
+                        out.write(event);
+                        return true;
+                    } catch (IOException e) {
+                        return false;
+                    }
+                }
+            };
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void close(boolean clear) {
+            if (clear) {
+                acknowledge(events, counts);
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.deltadna.android.sdk;
 
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.deltadna.android.sdk.helpers.Preconditions;
@@ -23,18 +24,44 @@ import com.deltadna.android.sdk.helpers.Preconditions;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Arrays;
+import java.util.Iterator;
+
 /**
  * Constructs parameters which can be used with events.
+ * <p>
+ * The parameters are kept in a compact ordered form, with primitive values
+ * held unboxed, and get serialised straight into the event when it is
+ * recorded. Nested {@link JsonParams} are serialised at that point too,
+ * rather than when they are put. A {@link JSONObject} only gets created
+ * once {@link #toJson()} is called, after which the parameters are backed
+ * by it.
  */
 public class Params implements JsonParams {
     
-    final JSONObject json;
+    private static final byte INT = 0;
+    private static final byte LONG = 1;
+    private static final byte FLOAT = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte OBJECT = 5;
+    
+    private static final int INITIAL_CAPACITY = 8;
+    
+    @Nullable
+    private JSONObject json;
+    
+    private String[] keys;
+    private byte[] types;
+    private long[] primitives;
+    private Object[] objects;
+    private int size;
     
     /**
      * Creates a new instance.
      */
     public Params() {
-        this(new JSONObject());
+        this(null);
     }
     
     public Params(JSONObject json) {
@@ -43,6 +70,16 @@ public class Params implements JsonParams {
     
     @Override
     public JSONObject toJson() {
+        if (json == null) {
+            json = materialise();
+            
+            keys = null;
+            types = null;
+            primitives = null;
+            objects = null;
+            size = 0;
+        }
+        
         return json;
     }
     
@@ -57,7 +94,9 @@ public class Params implements JsonParams {
      * @throws IllegalArgumentException if the {@code key} is null or empty
      */
     public Params put(String key, JsonParams value) {
-        return put(key, (value != null) ? value.toJson() : null);
+        return put(key, (json != null && value != null)
+                ? value.toJson()
+                : value);
     }
     
     /**
@@ -69,6 +108,8 @@ public class Params implements JsonParams {
      * @return this {@link Params} instance
      *
      * @throws IllegalArgumentException if the {@code key} is null or empty
+     * @throws IllegalArgumentException if the {@code value} is a number
+     *                                  which is not finite
      */
     public Params put(String key, Object value) {
         Preconditions.checkString(key, "key cannot be null or empty");
@@ -76,16 +117,397 @@ public class Params implements JsonParams {
             Log.w(BuildConfig.LOG_TAG, "null value for key: " + key);
         }
         
-        try {
-            json.put(key, value);
-        } catch (JSONException e) {
-            throw new IllegalArgumentException(e);
+        if (json != null) {
+            try {
+                json.put(key, value);
+            } catch (JSONException e) {
+                throw new IllegalArgumentException(e);
+            }
+        } else if (value == null) {
+            remove(key);
+        } else if (value instanceof Integer) {
+            set(key, INT, (Integer) value, null);
+        } else if (value instanceof Long) {
+            set(key, LONG, (Long) value, null);
+        } else if (value instanceof Float) {
+            put(key, (float) (Float) value);
+        } else if (value instanceof Double) {
+            put(key, (double) (Double) value);
+        } else if (value instanceof Boolean) {
+            put(key, (boolean) (Boolean) value);
+        } else {
+            if (value instanceof Number) {
+                checkFinite(((Number) value).doubleValue());
+            }
+            set(key, OBJECT, 0, value);
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Puts the key/value pair into these parameters.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link Params} instance
+     *
+     * @throws IllegalArgumentException if the {@code key} is null or empty
+     */
+    public Params put(String key, int value) {
+        if (json != null) {
+            return put(key, (Object) value);
+        }
+        
+        Preconditions.checkString(key, "key cannot be null or empty");
+        set(key, INT, value, null);
+        return this;
+    }
+    
+    /**
+     * Puts the key/value pair into these parameters.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link Params} instance
+     *
+     * @throws IllegalArgumentException if the {@code key} is null or empty
+     */
+    public Params put(String key, long value) {
+        if (json != null) {
+            return put(key, (Object) value);
+        }
+        
+        Preconditions.checkString(key, "key cannot be null or empty");
+        set(key, LONG, value, null);
+        return this;
+    }
+    
+    /**
+     * Puts the key/value pair into these parameters.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link Params} instance
+     *
+     * @throws IllegalArgumentException if the {@code key} is null or empty
+     * @throws IllegalArgumentException if the {@code value} is not finite
+     */
+    public Params put(String key, float value) {
+        if (json != null) {
+            return put(key, (Object) value);
+        }
+        
+        Preconditions.checkString(key, "key cannot be null or empty");
+        checkFinite(value);
+        set(key, FLOAT, Float.floatToRawIntBits(value), null);
+        return this;
+    }
+    
+    /**
+     * Puts the key/value pair into these parameters.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link Params} instance
+     *
+     * @throws IllegalArgumentException if the {@code key} is null or empty
+     * @throws IllegalArgumentException if the {@code value} is not finite
+     */
+    public Params put(String key, double value) {
+        if (json != null) {
+            return put(key, (Object) value);
+        }
+        
+        Preconditions.checkString(key, "key cannot be null or empty");
+        checkFinite(value);
+        set(key, DOUBLE, Double.doubleToRawLongBits(value), null);
+        return this;
+    }
+    
+    /**
+     * Puts the key/value pair into these parameters.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link Params} instance
+     *
+     * @throws IllegalArgumentException if the {@code key} is null or empty
+     */
+    public Params put(String key, boolean value) {
+        if (json != null) {
+            return put(key, (Object) value);
         }
         
+        Preconditions.checkString(key, "key cannot be null or empty");
+        set(key, BOOLEAN, value ? 1 : 0, null);
         return this;
     }
     
+    /**
+     * Puts the key/value pair into these parameters, with the character
+     * being sent as a string.
+     *
+     * @param key   the key
+     * @param value the value
+     *
+     * @return this {@link Params} instance
+     *
+     * @throws IllegalArgumentException if the {@code key} is null or empty
+     */
+    public Params put(String key, char value) {
+        // without this overload the character would be widened to an int
+        return put(key, (Object) value);
+    }
+    
+    int size() {
+        return (json != null) ? json.length() : size;
+    }
+    
+    boolean has(String key) {
+        return (json != null) ? json.has(key) : (indexOf(key) >= 0);
+    }
+    
     boolean isEmpty() {
-        return (json.length() == 0);
+        return (json != null) ? (json.length() == 0) : (size == 0);
+    }
+    
+    /**
+     * Writes the parameters as a JSON object into {@code out}.
+     */
+    void writeTo(PayloadBuffer out) {
+        out.write('{');
+        writeFields(out, null);
+        out.write('}');
+    }
+    
+    /**
+     * Writes the parameters as JSON fields into {@code out}, without the
+     * surrounding braces.
+     *
+     * @param out       the buffer to write into
+     * @param excluded  keys which should not be written, may be
+     *                  {@code null}
+     *
+     * @return the number of fields written
+     */
+    int writeFields(PayloadBuffer out, @Nullable String[] excluded) {
+        return writeFields(out, excluded, null, null);
+    }
+    
+    /**
+     * Writes the parameters as JSON fields into {@code out}, recording
+     * where each of them has been written to.
+     *
+     * @param out       the buffer to write into
+     * @param excluded  keys which should not be written, may be
+     *                  {@code null}
+     * @param fieldKeys filled with the keys of the written fields, may be
+     *                  {@code null}
+     * @param fieldEnds filled with the size of {@code out} after each of
+     *                  the written fields, may be {@code null}
+     *
+     * @return the number of fields written
+     */
+    int writeFields(
+            PayloadBuffer out,
+            @Nullable String[] excluded,
+            @Nullable String[] fieldKeys,
+            @Nullable int[] fieldEnds) {
+        
+        int written = 0;
+        
+        if (json != null) {
+            final Iterator<String> iterator = json.keys();
+            while (iterator.hasNext()) {
+                final String key = iterator.next();
+                if (!contains(excluded, key)) {
+                    field(key, written, out);
+                    JsonBytes.value(json.opt(key), out);
+                    mark(key, written++, out, fieldKeys, fieldEnds);
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (contains(excluded, keys[i])) {
+                    continue;
+                }
+                
+                field(keys[i], written, out);
+                switch (types[i]) {
+                    case INT:
+                    case LONG:
+                        JsonBytes.number(primitives[i], out);
+                        break;
+                    
+                    case FLOAT:
+                        JsonBytes.number(
+                                Float.intBitsToFloat((int) primitives[i]),
+                                out);
+                        break;
+                    
+                    case DOUBLE:
+                        JsonBytes.number(
+                                Double.longBitsToDouble(primitives[i]),
+                                out);
+                        break;
+                    
+                    case BOOLEAN:
+                        JsonBytes.bool(primitives[i] != 0, out);
+                        break;
+                    
+                    default:
+                        JsonBytes.value(objects[i], out);
+                }
+                mark(keys[i], written++, out, fieldKeys, fieldEnds);
+            }
+        }
+        
+        return written;
+    }
+    
+    private void set(
+            String key,
+            byte type,
+            long primitive,
+            @Nullable Object object) {
+        
+        int index = indexOf(key);
+        if (index < 0) {
+            if (keys == null) {
+                keys = new String[INITIAL_CAPACITY];
+                types = new byte[INITIAL_CAPACITY];
+                primitives = new long[INITIAL_CAPACITY];
+                objects = new Object[INITIAL_CAPACITY];
+            } else if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                types = Arrays.copyOf(types, size * 2);
+                primitives = Arrays.copyOf(primitives, size * 2);
+                objects = Arrays.copyOf(objects, size * 2);
+            }
+            
+            index = size++;
+            keys[index] = key;
+        }
+        
+        types[index] = type;
+        primitives[index] = primitive;
+        objects[index] = object;
+    }
+    
+    private void remove(String key) {
+        final int index = indexOf(key);
+        if (index >= 0) {
+            final int moved = size - index - 1;
+            System.arraycopy(keys, index + 1, keys, index, moved);
+            System.arraycopy(types, index + 1, types, index, moved);
+            System.arraycopy(primitives, index + 1, primitives, index, moved);
+            System.arraycopy(objects, index + 1, objects, index, moved);
+            
+            size--;
+            keys[size] = null;
+            objects[size] = null;
+        }
+    }
+    
+    private int indexOf(String key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        
+        return -1;
+    }
+    
+    private JSONObject materialise() {
+        final JSONObject result = new JSONObject();
+        
+        try {
+            for (int i = 0; i < size; i++) {
+                switch (types[i]) {
+                    case INT:
+                        result.put(keys[i], (int) primitives[i]);
+                        break;
+                    
+                    case LONG:
+                        result.put(keys[i], primitives[i]);
+                        break;
+                    
+                    case FLOAT:
+                        result.put(
+                                keys[i],
+                                (Object) Float.intBitsToFloat(
+                                        (int) primitives[i]));
+                        break;
+                    
+                    case DOUBLE:
+                        result.put(
+                                keys[i],
+                                Double.longBitsToDouble(primitives[i]));
+                        break;
+                    
+                    case BOOLEAN:
+                        result.put(keys[i], primitives[i] != 0);
+                        break;
+                    
+                    default:
+                        result.put(keys[i], (objects[i] instanceof JsonParams)
+                                ? ((JsonParams) objects[i]).toJson()
+                                : objects[i]);
+                }
+            }
+        } catch (JSONException e) {
+            // cannot happen as the values have been checked when put
+            throw new IllegalStateException(e);
+        }
+        
+        return result;
+    }
+    
+    private static void field(String key, int index, PayloadBuffer out) {
+        if (index > 0) {
+            out.write(',');
+        }
+        JsonBytes.string(key, out);
+        out.write(':');
+    }
+    
+    private static void mark(
+            String key,
+            int index,
+            PayloadBuffer out,
+            @Nullable String[] fieldKeys,
+            @Nullable int[] fieldEnds) {
+        
+        if (fieldKeys != null) {
+            fieldKeys[index] = key;
+        }
+        if (fieldEnds != null) {
+            fieldEnds[index] = out.size();
+        }
+    }
+    
+    private static boolean contains(@Nullable String[] keys, String key) {
+        if (keys != null) {
+            for (final String candidate : keys) {
+                if (candidate.equals(key)) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    private static void checkFinite(double value) {
+        Preconditions.checkArg(
+                !Double.isNaN(value) && !Double.isInfinite(value),
+                "value must be a finite number");
     }
 }
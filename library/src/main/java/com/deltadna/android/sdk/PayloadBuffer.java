@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk;
+
+import com.deltadna.android.sdk.helpers.Preconditions;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable buffer which request payloads get written into.
+ * <p>
+ * Unlike {@link java.io.ByteArrayOutputStream} the buffer is not
+ * synchronised, and it can be truncated back to a previous size so that
+ * a partially written element can be rolled back.
+ */
+final class PayloadBuffer extends OutputStream {
+    
+    private byte[] buffer;
+    private int count;
+    
+    PayloadBuffer(int capacity) {
+        buffer = new byte[Math.max(capacity, 16)];
+    }
+    
+    @Override
+    public void write(int b) {
+        ensure(1);
+        buffer[count++] = (byte) b;
+    }
+    
+    @Override
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+    
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        
+        ensure(length);
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+    
+    int size() {
+        return count;
+    }
+    
+    /**
+     * Discards everything written after the buffer was of {@code size}.
+     */
+    void truncate(int size) {
+        Preconditions.checkArg(
+                size >= 0 && size <= count,
+                "size must be between 0 and the current size");
+        
+        count = size;
+    }
+    
+    /**
+     * Copies the contents into {@code dst} at {@code offset}.
+     *
+     * @return the offset after the copied contents
+     */
+    int copyTo(byte[] dst, int offset) {
+        System.arraycopy(buffer, 0, dst, offset, count);
+        return offset + count;
+    }
+    
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+    
+    private void ensure(int length) {
+        if (count + length > buffer.length) {
+            buffer = Arrays.copyOf(
+                    buffer,
+                    Math.max(buffer.length * 2, count + length));
+        }
+    }
+}
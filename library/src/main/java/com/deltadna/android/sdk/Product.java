@@ -25,14 +25,24 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Constructs a product, to be used in conjunction with a {@link Transaction}.
  */
 public class Product<T extends Product<T>> implements JsonParams {
     
+    /**
+     * Exact powers of ten for the minor units of the ISO 4217 currencies,
+     * which range from zero to nine digits.
+     */
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+    
     final Params realCurrency = new Params();
-    final JSONArray virtualCurrencies = new JSONArray();
-    final JSONArray items = new JSONArray();
+    final List<Params> virtualCurrencies = new ArrayList<>();
+    final List<Params> items = new ArrayList<>();
     
     /**
      * Creates a new instance.
@@ -45,13 +55,13 @@ public class Product<T extends Product<T>> implements JsonParams {
         
         try {
             if (!realCurrency.isEmpty()) {
-                contents.put("realCurrency", realCurrency.json);
+                contents.put("realCurrency", realCurrency.toJson());
             }
-            if (virtualCurrencies.length() > 0) {
-                contents.put("virtualCurrencies", virtualCurrencies);
+            if (!virtualCurrencies.isEmpty()) {
+                contents.put("virtualCurrencies", toJson(virtualCurrencies));
             }
-            if (items.length() > 0) {
-                contents.put("items", items);
+            if (!items.isEmpty()) {
+                contents.put("items", toJson(items));
             }
         } catch (JSONException e) {
             throw new IllegalStateException(e);
@@ -60,6 +70,29 @@ public class Product<T extends Product<T>> implements JsonParams {
         return contents;
     }
     
+    /**
+     * Writes the product as a JSON object into {@code out}, in the same
+     * form as {@link #toJson()}.
+     */
+    void writeTo(PayloadBuffer out) {
+        out.write('{');
+        boolean first = true;
+        if (!realCurrency.isEmpty()) {
+            JsonBytes.string("realCurrency", out);
+            out.write(':');
+            realCurrency.writeTo(out);
+            first = false;
+        }
+        if (!virtualCurrencies.isEmpty()) {
+            write("virtualCurrencies", virtualCurrencies, first, out);
+            first = false;
+        }
+        if (!items.isEmpty()) {
+            write("items", items, first, out);
+        }
+        out.write('}');
+    }
+    
     /**
      * Set a real currency for the product.
      *
@@ -95,12 +128,12 @@ public class Product<T extends Product<T>> implements JsonParams {
      * @throws IllegalArgumentException if the {@code type} is null or empty
      */
     public T addVirtualCurrency(String name, String type, int amount) {
-        virtualCurrencies.put(new Params().put(
+        virtualCurrencies.add(new Params().put(
                 "virtualCurrency",
                 new Params()
                         .put("virtualCurrencyName", name)
                         .put("virtualCurrencyType", type)
-                        .put("virtualCurrencyAmount", amount)).json);
+                        .put("virtualCurrencyAmount", amount)));
         
         return (T) this;
     }
@@ -118,12 +151,12 @@ public class Product<T extends Product<T>> implements JsonParams {
      * @throws IllegalArgumentException if the {@code type} is null or empty
      */
     public T addItem(String name, String type, int amount) {
-        items.put(new Params().put(
+        items.add(new Params().put(
                 "item",
                 new Params()
                         .put("itemName", name)
                         .put("itemType", type)
-                        .put("itemAmount", amount)).json);
+                        .put("itemAmount", amount)));
         
         return (T) this;
     }
@@ -151,17 +184,44 @@ public class Product<T extends Product<T>> implements JsonParams {
         Preconditions.checkArg(
                 !TextUtils.isEmpty(code),
                 "code cannot be null or empty");
-
-        if (ddna.getIso4217() == null) {
-            ddna.readIso4217();
-        }
-
-        if (ddna.getIso4217().containsKey(code)) {
-            return new Float(value * Math.pow(10, ddna.getIso4217().get(code)))
-                    .intValue();
+        
+        final int minorUnits = Iso4217.minorUnits(code);
+        if (minorUnits >= 0) {
+            // narrowed to a float first as values such as 1.23 are not exact
+            return (int) (float) (value * POW10[minorUnits]);
         } else {
             Log.w(BuildConfig.LOG_TAG, "Failed to find currency for: " + code);
             return 0;
         }
     }
+    
+    private static JSONArray toJson(List<Params> list) {
+        final JSONArray array = new JSONArray();
+        for (final Params params : list) {
+            array.put(params.toJson());
+        }
+        
+        return array;
+    }
+    
+    private static void write(
+            String key,
+            List<Params> list,
+            boolean first,
+            PayloadBuffer out) {
+        
+        if (!first) {
+            out.write(',');
+        }
+        JsonBytes.string(key, out);
+        out.write(':');
+        out.write('[');
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            list.get(i).writeTo(out);
+        }
+        out.write(']');
+    }
 }
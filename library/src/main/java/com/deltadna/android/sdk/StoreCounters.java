@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters for the writes into an {@link EventStore} and for the events
+ * taken out of it other than by uploading, which get read when taking a
+ * {@link StoreMetrics} snapshot.
+ */
+final class StoreCounters {
+    
+    final AtomicLong writes = new AtomicLong();
+    final AtomicLong writtenEvents = new AtomicLong();
+    final AtomicLong writtenBytes = new AtomicLong();
+    /**
+     * In microseconds.
+     */
+    final StoreMetrics.Recorder writeLatency = new StoreMetrics.Recorder();
+    final AtomicLongArray rejected =
+            new AtomicLongArray(StoreMetrics.Rejection.values().length);
+    final AtomicLong expired = new AtomicLong();
+    final AtomicLong quarantined = new AtomicLong();
+    final AtomicLong migrated = new AtomicLong();
+    
+    /**
+     * @param events    the number of events written together
+     * @param bytes     the size of the events as stored
+     * @param nanos     how long the write took
+     */
+    void onWrite(int events, long bytes, long nanos) {
+        writes.incrementAndGet();
+        writtenEvents.addAndGet(events);
+        writtenBytes.addAndGet(bytes);
+        writeLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+    
+    void onRejected(StoreMetrics.Rejection reason, int events) {
+        rejected.addAndGet(reason.ordinal(), events);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Lock for coordinating access to the event store between threads, and
+ * optionally between the processes of the application by locking a file
+ * which is shared between them.
+ * <p>
+ * Locks for the same file share their state within a process, as a file
+ * lock is held on behalf of the whole process. The lock is not reentrant
+ * and may be released by a different thread than the one which acquired
+ * it.
+ */
+final class StoreLock {
+    
+    private static final String TAG = BuildConfig.LOG_TAG
+            + ' '
+            + StoreLock.class.getSimpleName();
+    
+    private static final Map<String, Semaphore> LOCALS = new HashMap<>();
+    
+    private final File file;
+    private final boolean shared;
+    private final Semaphore local;
+    
+    // guarded by local
+    @Nullable
+    private FileChannel channel;
+    @Nullable
+    private FileLock lock;
+    
+    /**
+     * @param file      the file to lock
+     * @param shared    whether the lock should be shared with other
+     *                  processes
+     */
+    StoreLock(File file, boolean shared) {
+        this.file = file;
+        this.shared = shared;
+        
+        local = local(file);
+    }
+    
+    /**
+     * Acquires the lock, waiting for it to become available.
+     */
+    void lock() {
+        local.acquireUninterruptibly();
+        if (shared) {
+            try {
+                lock = channel().lock();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed locking " + file + ", falling back to process lock", e);
+            }
+        }
+    }
+    
+    /**
+     * Acquires the lock only if it is not held by another thread or
+     * process at the time.
+     *
+     * @return {@code true} if the lock has been acquired, else
+     *         {@code false}
+     */
+    boolean tryLock() {
+        if (!local.tryAcquire()) {
+            return false;
+        }
+        
+        if (shared) {
+            try {
+                lock = channel().tryLock();
+                if (lock == null) {
+                    local.release();
+                    return false;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed locking " + file + ", falling back to process lock", e);
+            }
+        }
+        
+        return true;
+    }
+    
+    void unlock() {
+        if (lock != null) {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed unlocking " + file, e);
+            } finally {
+                lock = null;
+            }
+        }
+        
+        local.release();
+    }
+    
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            final File parent = file.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Failed creating " + parent);
+            }
+            
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        
+        return channel;
+    }
+    
+    private static Semaphore local(File file) {
+        final String path = file.getAbsolutePath();
+        synchronized (LOCALS) {
+            Semaphore local = LOCALS.get(path);
+            if (local == null) {
+                local = new Semaphore(1);
+                LOCALS.put(path, local);
+            }
+            
+            return local;
+        }
+    }
+}
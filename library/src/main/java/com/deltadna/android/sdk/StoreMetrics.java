@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import android.support.annotation.Nullable;
+
+import com.deltadna.android.sdk.helpers.Objects;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Snapshot of the metrics for recorded events, from being written into the
+ * event store until being uploaded.
+ * <p>
+ * The metrics get collected through counters which are updated as events
+ * flow through the SDK, with the counts being totals since the SDK has
+ * been started.
+ */
+public final class StoreMetrics {
+    
+    /**
+     * Reason for events not being admitted into the store.
+     */
+    public enum Rejection {
+        
+        /**
+         * The event was larger than the bulk events limit.
+         */
+        EVENT_TOO_LARGE,
+        /**
+         * The store was full, without events of a lower priority which
+         * could have been evicted.
+         */
+        STORE_FULL,
+        /**
+         * The queue in front of the store was full, counted in groups of
+         * events recorded together rather than in events.
+         */
+        QUEUE_FULL
+    }
+    
+    private final long time;
+    
+    private final long storedEvents;
+    private final long storedBytes;
+    private final long pendingWrites;
+    
+    private final long writes;
+    private final long writtenEvents;
+    private final long writtenBytes;
+    private final Histogram writeLatency;
+    private final long[] rejected;
+    private final long evicted;
+    private final long expired;
+    private final long quarantined;
+    private final long migrated;
+    
+    private final long uploads;
+    private final long uploadedEvents;
+    private final long uploadedBytes;
+    private final Histogram batchSizes;
+    private final Histogram ackLatency;
+    
+    StoreMetrics(
+            EventStore store,
+            @Nullable EventQueue<?> queue,
+            UploadCounters upload) {
+        
+        time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        
+        storedEvents = store.getStoredEvents();
+        storedBytes = store.getStoredBytes();
+        pendingWrites = (queue != null) ? queue.size() : 0;
+        
+        final StoreCounters counters = store.getCounters();
+        writes = counters.writes.get();
+        writtenEvents = counters.writtenEvents.get();
+        writtenBytes = counters.writtenBytes.get();
+        writeLatency = counters.writeLatency.snapshot();
+        
+        rejected = new long[Rejection.values().length];
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] = counters.rejected.get(i);
+        }
+        if (queue != null) {
+            rejected[Rejection.QUEUE_FULL.ordinal()] = queue.getDropped();
+        }
+        
+        long evicted = 0;
+        for (final Event.Priority priority : Event.Priority.values()) {
+            evicted += store.getEvicted(priority);
+        }
+        this.evicted = evicted;
+        expired = counters.expired.get();
+        quarantined = counters.quarantined.get();
+        migrated = counters.migrated.get();
+        
+        uploads = upload.uploads.get();
+        uploadedEvents = upload.uploadedEvents.get();
+        uploadedBytes = upload.uploadedBytes.get();
+        batchSizes = upload.batchSizes.snapshot();
+        ackLatency = upload.ackLatency.snapshot();
+    }
+    
+    /**
+     * @return the time at which the snapshot was taken, in milliseconds
+     *         of a monotonic clock which is only meaningful relative to
+     *         other snapshots
+     */
+    public long getTime() {
+        return time;
+    }
+    
+    /**
+     * @return the number of events in the store waiting to be uploaded
+     */
+    public long getStoredEvents() {
+        return storedEvents;
+    }
+    
+    /**
+     * @return the size of the events in the store waiting to be uploaded,
+     *         in bytes as stored
+     */
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+    
+    /**
+     * @return the number of groups of recorded events waiting to be
+     *         written into the store
+     */
+    public long getPendingWrites() {
+        return pendingWrites;
+    }
+    
+    /**
+     * @return the number of groups of events written into the store
+     */
+    public long getWrites() {
+        return writes;
+    }
+    
+    /**
+     * @return the number of events written into the store
+     */
+    public long getWrittenEvents() {
+        return writtenEvents;
+    }
+    
+    /**
+     * @return the size of the events written into the store, in bytes as
+     *         stored
+     */
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+    
+    /**
+     * Gets the rate at which events have been written into the store
+     * since an earlier snapshot.
+     *
+     * @param earlier the earlier snapshot
+     *
+     * @return the rate in events per second
+     */
+    public double getWriteRate(StoreMetrics earlier) {
+        final long millis = time - earlier.time;
+        return (millis > 0)
+                ? (writtenEvents - earlier.writtenEvents) * 1000d / millis
+                : 0;
+    }
+    
+    /**
+     * @return the latencies of writing groups of events into the store,
+     *         in microseconds
+     */
+    public Histogram getWriteLatency() {
+        return writeLatency;
+    }
+    
+    /**
+     * @param reason the reason for the rejection
+     *
+     * @return the number of events which have not been admitted into the
+     *         store for the {@code reason}
+     */
+    public long getRejected(Rejection reason) {
+        return rejected[reason.ordinal()];
+    }
+    
+    /**
+     * @return the number of events which have been evicted from the store
+     *         to make space for events with a higher priority
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+    
+    /**
+     * @return the number of events which have been removed from the store
+     *         due to being older than the maximum event age
+     */
+    public long getExpired() {
+        return expired;
+    }
+    
+    /**
+     * @return the number of events which have been taken out of the store
+     *         due to being unreadable or failing verification
+     */
+    public long getQuarantined() {
+        return quarantined;
+    }
+    
+    /**
+     * @return the number of events which have been migrated into the store
+     *         from the legacy store
+     */
+    public long getMigrated() {
+        return migrated;
+    }
+    
+    /**
+     * @return the number of uploads which have been acknowledged by the
+     *         Collect service
+     */
+    public long getUploads() {
+        return uploads;
+    }
+    
+    /**
+     * @return the number of events in the uploads which have been
+     *         acknowledged by the Collect service
+     */
+    public long getUploadedEvents() {
+        return uploadedEvents;
+    }
+    
+    /**
+     * @return the size of the uploads which have been acknowledged by the
+     *         Collect service, in bytes
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+    
+    /**
+     * @return the number of events in each upload
+     */
+    public Histogram getBatchSizes() {
+        return batchSizes;
+    }
+    
+    /**
+     * @return the latencies from submitting uploads until they have been
+     *         acknowledged, in microseconds
+     */
+    public Histogram getAckLatency() {
+        return ackLatency;
+    }
+    
+    @Override
+    public String toString() {
+        return new Objects.ToStringHelper(this)
+                .add("storedEvents", storedEvents)
+                .add("storedBytes", storedBytes)
+                .add("pendingWrites", pendingWrites)
+                .add("writes", writes)
+                .add("writtenEvents", writtenEvents)
+                .add("writtenBytes", writtenBytes)
+                .add("writeLatency", writeLatency)
+                .add("rejected", Arrays.toString(rejected))
+                .add("evicted", evicted)
+                .add("expired", expired)
+                .add("quarantined", quarantined)
+                .add("migrated", migrated)
+                .add("uploads", uploads)
+                .add("uploadedEvents", uploadedEvents)
+                .add("uploadedBytes", uploadedBytes)
+                .add("batchSizes", batchSizes)
+                .add("ackLatency", ackLatency)
+                .toString();
+    }
+    
+    /**
+     * Distribution of values over buckets with power of two bounds, such
+     * that bucket {@code 0} holds values below {@code 1} and each following
+     * bucket holds values below twice the bound of the previous one.
+     */
+    public static final class Histogram {
+        
+        static final int BUCKETS = 32;
+        
+        private final long[] counts;
+        
+        Histogram(long[] counts) {
+            this.counts = counts;
+        }
+        
+        public int getBuckets() {
+            return counts.length;
+        }
+        
+        /**
+         * @return the exclusive upper bound of the values in the
+         *         {@code bucket}, or {@link Long#MAX_VALUE} for the last
+         *         bucket
+         */
+        public long getUpperBound(int bucket) {
+            return (bucket < counts.length - 1)
+                    ? 1L << bucket
+                    : Long.MAX_VALUE;
+        }
+        
+        public long getCount(int bucket) {
+            return counts[bucket];
+        }
+        
+        /**
+         * @return the number of values across all buckets
+         */
+        public long getTotal() {
+            long total = 0;
+            for (final long count : counts) {
+                total += count;
+            }
+            return total;
+        }
+        
+        /**
+         * Gets an estimate of a percentile, as the upper bound of the
+         * bucket holding it.
+         *
+         * @param percentile the percentile between {@code 0} and
+         *                   {@code 100}
+         *
+         * @return the estimate, or {@code 0} if there are no values
+         */
+        public long getPercentile(double percentile) {
+            final long total = getTotal();
+            if (total == 0) {
+                return 0;
+            }
+            
+            final double rank = total * percentile / 100;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return getUpperBound(i);
+                }
+            }
+            return getUpperBound(counts.length - 1);
+        }
+        
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder("[");
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    if (builder.length() > 1) {
+                        builder.append(", ");
+                    }
+                    if (i < counts.length - 1) {
+                        builder.append('<').append(getUpperBound(i));
+                    } else {
+                        builder.append(">=").append(1L << (i - 1));
+                    }
+                    builder.append(": ").append(counts[i]);
+                }
+            }
+            return builder.append(']').toString();
+        }
+    }
+    
+    /**
+     * Records values into a {@link Histogram} through atomic counters,
+     * such that recording needs no locking.
+     */
+    static final class Recorder {
+        
+        private final AtomicLongArray counts =
+                new AtomicLongArray(Histogram.BUCKETS);
+        
+        void record(long value) {
+            counts.incrementAndGet(bucket(value));
+        }
+        
+        Histogram snapshot() {
+            final long[] values = new long[Histogram.BUCKETS];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = counts.get(i);
+            }
+            return new Histogram(values);
+        }
+        
+        static int bucket(long value) {
+            return (value <= 0)
+                    ? 0
+                    : Math.min(
+                            Histogram.BUCKETS - 1,
+                            64 - Long.numberOfLeadingZeros(value));
+        }
+    }
+}
@@ -21,7 +21,8 @@ import android.text.TextUtils;
 import com.deltadna.android.sdk.helpers.Preconditions;
 
 /**
- * Constructs a transaction {@link Event}.
+ * Constructs a transaction {@link Event}, which has a
+ * {@link Event.Priority#HIGH} priority by default.
  */
 public class Transaction<T extends Transaction<T>> extends Event<T> {
     
@@ -45,6 +46,8 @@ public class Transaction<T extends Transaction<T>> extends Event<T> {
         
         super("transaction");
         
+        priority = Priority.HIGH;
+        
         putParam("transactionName", name);
         putParam("transactionType", type);
         
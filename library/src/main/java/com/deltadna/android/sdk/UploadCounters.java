@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the uploads of stored events, which get read when taking a
+ * {@link StoreMetrics} snapshot.
+ */
+final class UploadCounters {
+    
+    final AtomicLong uploads = new AtomicLong();
+    final AtomicLong uploadedEvents = new AtomicLong();
+    final AtomicLong uploadedBytes = new AtomicLong();
+    final StoreMetrics.Recorder batchSizes = new StoreMetrics.Recorder();
+    /**
+     * In microseconds.
+     */
+    final StoreMetrics.Recorder ackLatency = new StoreMetrics.Recorder();
+    
+    /**
+     * @param events    the number of events in the upload
+     * @param bytes     the size of the upload
+     * @param nanos     how long it took from submitting the upload until
+     *                  it was acknowledged
+     */
+    void onUpload(int events, long bytes, long nanos) {
+        uploads.incrementAndGet();
+        uploadedEvents.addAndGet(events);
+        uploadedBytes.addAndGet(bytes);
+        batchSizes.record(events);
+        ackLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+}
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Set;
@@ -37,8 +38,9 @@ import com.deltadna.android.sdk.BuildConfig;
  */
 public class EngageArchive{
 	static private final String FILENAME = "ENGAGEMENTS";
+	static private final Charset UTF8 = Charset.forName("UTF-8");
 
-	private HashMap<String, String> mTable = new HashMap<String, String>();
+	private HashMap<String, byte[]> mTable = new HashMap<String, byte[]>();
 	private Object mLock = new Object();
 	private String mPath;
 
@@ -74,8 +76,10 @@ public class EngageArchive{
 	 * 
 	 * @return The data on success, null otherwise.
 	 */
+    @Nullable
     public String get(String decisionPoint, @Nullable String flavour) {
-        return mTable.get(createKey(decisionPoint, flavour));
+        final byte[] value = mTable.get(createKey(decisionPoint, flavour));
+        return (value != null) ? new String(value, UTF8) : null;
 	}
     
 	/**
@@ -90,9 +94,25 @@ public class EngageArchive{
             @Nullable String flavour,
             String value) {
         
-        mTable.put(createKey(decisionPoint, flavour), value);
+        put(decisionPoint, flavour, value.getBytes(UTF8));
 	}
     
+    /**
+     * Puts a decision point with a flavour in the archive, storing the
+     * {@code value} as-is without going through a {@link String}.
+     * 
+     * @param decisionPoint the decision point
+     * @param flavour       the flavour, may be {@code null}
+     * @param value         the data in UTF-8 encoded bytes
+     */
+    public void put(
+            String decisionPoint,
+            @Nullable String flavour,
+            byte[] value) {
+        
+        mTable.put(createKey(decisionPoint, flavour), value);
+    }
+    
 	/**
 	 * Loads an existing archive from disk.
 	 * 
@@ -111,7 +131,6 @@ public class EngageArchive{
 					fs = new FileInputStream(file);
 
 					String key = null;
-					String value = null;
 					int read = 0;
 					byte[] length = new byte[4];
 					int valueLength;
@@ -123,8 +142,7 @@ public class EngageArchive{
 						if(read % 2 == 0){
 							key = new String(valueField, "UTF-8");
 						}else{
-							value = new String(valueField, "UTF-8");
-							mTable.put(key, value);
+							mTable.put(key, valueField);
 						}
 						read++;
 					}
@@ -161,16 +179,16 @@ public class EngageArchive{
 				byte[] valueBytes = null;
 				byte[] valueLenBytes = null;
 				String key = null;
-				String value = null;
+				byte[] value = null;
 				Set<String> keys = mTable.keySet();
 				Iterator<String> iter = keys.iterator();
 				while(iter.hasNext()){
 					key = iter.next();
 					value = mTable.get(key);
 					
-					keyBytes = key.getBytes();
+					keyBytes = key.getBytes(UTF8);
 					keyLenBytes = Utils.toBytes(keyBytes.length);
-					valueBytes = value.getBytes();
+					valueBytes = value;
 					valueLenBytes = Utils.toBytes(valueBytes.length);
 
 					bytes.write(keyLenBytes);
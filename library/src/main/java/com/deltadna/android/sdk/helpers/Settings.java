@@ -16,6 +16,9 @@
 
 package com.deltadna.android.sdk.helpers;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * DeltaDNA runtime setting.
  *
@@ -71,6 +74,38 @@ public class Settings{
     
     private boolean useInternalStorageForEvents;
     
+    private boolean prewarmConnections;
+    
+    private boolean compressStoredEvents;
+    
+    private boolean multiProcessEventStore;
+    
+    private boolean ephemeralEventStore;
+    
+    private int eventQueueCapacity = 1024;
+    private EventQueueOverflow eventQueueOverflow = EventQueueOverflow.DROP_NEWEST;
+    /**
+     * In milliseconds.
+     */
+    private int eventQueueBlockTimeout = 100;
+    
+    private int aggregationFlushInterval = 60;
+    
+    private int eventMaxAge;
+    
+    /*
+     * Concurrent as these get read on the threads recording events.
+     */
+    private final Map<String, Double> eventSampleRates =
+            new ConcurrentHashMap<>();
+    /**
+     * In events per second.
+     */
+    private final Map<String, Double> eventRateLimits =
+            new ConcurrentHashMap<>();
+    private final Map<String, Integer> eventRateBursts =
+            new ConcurrentHashMap<>();
+    
 	/**
 	 * TRUE to send new player event on first run of application.
 	 *
@@ -318,4 +353,356 @@ public class Settings{
     public void setUseInternalStorageForEvents(boolean useInternal) {
         useInternalStorageForEvents = useInternal;
     }
+    
+    /**
+     * Gets whether connections to the Collect and Engage hosts will be
+     * opened ahead of time when the SDK is started.
+     *
+     * @return {@code true} if connections will be opened ahead of time
+     */
+    public boolean isPrewarmConnections() {
+        return prewarmConnections;
+    }
+    
+    /**
+     * Sets whether connections to the Collect and Engage hosts should be
+     * opened ahead of time when the SDK is started, which makes the first
+     * requests faster at the cost of an additional request to each host.
+     *
+     * @param prewarm {@code true} to open connections ahead of time
+     */
+    public void setPrewarmConnections(boolean prewarm) {
+        prewarmConnections = prewarm;
+    }
+    
+    /**
+     * Gets whether events will be compressed when stored.
+     *
+     * @return {@code true} if events will be compressed
+     */
+    public boolean isCompressStoredEvents() {
+        return compressStoredEvents;
+    }
+    
+    /**
+     * Sets whether events should be compressed when stored, which allows
+     * more events to be kept while offline and reduces the amount of data
+     * read when uploading, at the cost of additional processing.
+     * <p>
+     * Events stored before changing the setting can still be read.
+     *
+     * @param compress {@code true} to compress stored events
+     */
+    public void setCompressStoredEvents(boolean compress) {
+        compressStoredEvents = compress;
+    }
+    
+    /**
+     * Gets whether access to the event store will be coordinated between
+     * the processes of the application.
+     *
+     * @return {@code true} if access will be coordinated between processes
+     */
+    public boolean isMultiProcessEventStore() {
+        return multiProcessEventStore;
+    }
+    
+    /**
+     * Sets whether access to the event store should be coordinated between
+     * the processes of the application, which is needed when the SDK gets
+     * started in more than one process, such as when handling push
+     * notifications in a separate process. Events recorded in any of the
+     * processes end up in the same store, and each of them gets uploaded
+     * by only one of the processes.
+     * <p>
+     * The setting needs to be changed before the SDK is started, and should
+     * be the same in all of the processes.
+     *
+     * @param multiProcess {@code true} to coordinate access between
+     *                     processes
+     */
+    public void setMultiProcessEventStore(boolean multiProcess) {
+        multiProcessEventStore = multiProcess;
+    }
+    
+    /**
+     * Gets whether events will be kept in memory only until they have been
+     * uploaded.
+     *
+     * @return {@code true} if events will be kept in memory only
+     */
+    public boolean isEphemeralEventStore() {
+        return ephemeralEventStore;
+    }
+    
+    /**
+     * Sets whether events should be kept in memory only until they have
+     * been uploaded, such that no events get written to the storage of the
+     * device. Events which have not been uploaded by the time the process
+     * ends will be lost.
+     * <p>
+     * The setting needs to be changed before the SDK is started.
+     *
+     * @param ephemeral {@code true} to keep events in memory only
+     */
+    public void setEphemeralEventStore(boolean ephemeral) {
+        ephemeralEventStore = ephemeral;
+    }
+    
+    /**
+     * Gets the capacity of the queue holding recorded events until they
+     * have been written to the event store.
+     *
+     * @return the capacity in events
+     */
+    public int getEventQueueCapacity() {
+        return eventQueueCapacity;
+    }
+    
+    /**
+     * Sets the capacity of the queue holding recorded events until they
+     * have been written to the event store. The capacity will be rounded
+     * up to the next power of two.
+     * <p>
+     * Only applies when set before the first event is recorded.
+     *
+     * @param capacity the capacity in events
+     *
+     * @throws IllegalArgumentException if the {@code capacity} is not
+     *                                  positive
+     */
+    public void setEventQueueCapacity(int capacity) {
+        Preconditions.checkArg(capacity > 0, "capacity must be positive");
+        
+        eventQueueCapacity = capacity;
+    }
+    
+    /**
+     * Gets what happens to recorded events when the event queue is full.
+     *
+     * @return the overflow policy
+     */
+    public EventQueueOverflow getEventQueueOverflow() {
+        return eventQueueOverflow;
+    }
+    
+    /**
+     * Sets what happens to recorded events when the event queue is full.
+     * <p>
+     * Only applies when set before the first event is recorded.
+     *
+     * @param overflow the overflow policy
+     *
+     * @throws IllegalArgumentException if the {@code overflow} is null
+     */
+    public void setEventQueueOverflow(EventQueueOverflow overflow) {
+        Preconditions.checkArg(overflow != null, "overflow cannot be null");
+        
+        eventQueueOverflow = overflow;
+    }
+    
+    /**
+     * Gets how long recording an event waits for space in a full event
+     * queue when using {@link EventQueueOverflow#BLOCK}.
+     *
+     * @return the timeout in milliseconds
+     */
+    public int getEventQueueBlockTimeout() {
+        return eventQueueBlockTimeout;
+    }
+    
+    /**
+     * Sets how long recording an event waits for space in a full event
+     * queue when using {@link EventQueueOverflow#BLOCK}.
+     * <p>
+     * Only applies when set before the first event is recorded.
+     *
+     * @param milliseconds the timeout in milliseconds
+     *
+     * @throws IllegalArgumentException if the {@code milliseconds} is
+     *                                  negative
+     */
+    public void setEventQueueBlockTimeout(int milliseconds) {
+        Preconditions.checkArg(milliseconds >= 0, "value cannot be negative");
+        
+        eventQueueBlockTimeout = milliseconds;
+    }
+    
+    /**
+     * Gets how often the aggregated metrics will be recorded as events.
+     *
+     * @return the interval in seconds
+     */
+    public int getAggregationFlushInterval() {
+        return aggregationFlushInterval;
+    }
+    
+    /**
+     * Sets how often the aggregated metrics will be recorded as events, in
+     * addition to when the session ends. A value of {@code 0} disables the
+     * periodic recording.
+     * <p>
+     * Only applies when set before the SDK is started.
+     *
+     * @param seconds the interval in seconds
+     *
+     * @throws IllegalArgumentException if the {@code seconds} is negative
+     */
+    public void setAggregationFlushInterval(int seconds) {
+        Preconditions.checkArg(seconds >= 0, "value cannot be negative");
+        
+        aggregationFlushInterval = seconds;
+    }
+    
+    /**
+     * Gets the age after which stored events which have not been uploaded
+     * will be removed from the store.
+     *
+     * @return the age in seconds, or {@code 0} if events do not expire
+     */
+    public int getEventMaxAge() {
+        return eventMaxAge;
+    }
+    
+    /**
+     * Sets the age after which stored events which have not been uploaded
+     * will be removed from the store, such that events recorded on a device
+     * which has been offline for a long time do not crowd out newer events.
+     * A value of {@code 0} keeps events until they have been uploaded.
+     * <p>
+     * Expired events are removed in the background, shortly after the SDK
+     * is started and periodically thereafter.
+     *
+     * @param seconds the age in seconds
+     *
+     * @throws IllegalArgumentException if the {@code seconds} is negative
+     */
+    public void setEventMaxAge(int seconds) {
+        Preconditions.checkArg(seconds >= 0, "value cannot be negative");
+        
+        eventMaxAge = seconds;
+    }
+    
+    /**
+     * Gets the fraction of events with the {@code name} which will be
+     * recorded.
+     *
+     * @param name the name of the event
+     *
+     * @return the rate between {@code 0} and {@code 1}
+     */
+    public double getEventSampleRate(String name) {
+        final Double rate = eventSampleRates.get(name);
+        return (rate != null) ? rate : 1;
+    }
+    
+    /**
+     * Sets the fraction of events with the {@code name} which will be
+     * recorded, with the rest being dropped at random when they are
+     * recorded.
+     *
+     * @param name the name of the event
+     * @param rate the rate between {@code 0} and {@code 1}
+     *
+     * @throws IllegalArgumentException if the {@code name} is null or
+     *                                  empty, or if the {@code rate} is
+     *                                  out of range
+     */
+    public void setEventSampleRate(String name, double rate) {
+        Preconditions.checkString(name, "name cannot be null or empty");
+        Preconditions.checkArg(rate >= 0 && rate <= 1, "rate out of range");
+        
+        if (rate == 1) {
+            eventSampleRates.remove(name);
+        } else {
+            eventSampleRates.put(name, rate);
+        }
+    }
+    
+    /**
+     * Gets the number of events with the {@code name} which can be
+     * recorded per second.
+     *
+     * @param name the name of the event
+     *
+     * @return the limit in events per second, or {@code 0} if there is
+     *         no limit
+     */
+    public double getEventRateLimit(String name) {
+        final Double limit = eventRateLimits.get(name);
+        return (limit != null) ? limit : 0;
+    }
+    
+    /**
+     * Gets the number of events with the {@code name} which can be
+     * recorded in a burst before the rate limit applies.
+     *
+     * @param name the name of the event
+     *
+     * @return the burst in events, or {@code 0} if there is no limit
+     */
+    public int getEventRateBurst(String name) {
+        final Integer burst = eventRateBursts.get(name);
+        return (burst != null) ? burst : 0;
+    }
+    
+    /**
+     * Sets how many events with the {@code name} can be recorded per
+     * second, with any further events being dropped when they are
+     * recorded. Up to {@code burst} events can be recorded at once after
+     * a quiet period.
+     *
+     * @param name      the name of the event
+     * @param limit     the limit in events per second, or {@code 0} to
+     *                  remove the limit
+     * @param burst     the burst in events
+     *
+     * @throws IllegalArgumentException if the {@code name} is null or
+     *                                  empty, if the {@code limit} is
+     *                                  negative, or if the {@code burst}
+     *                                  is not positive
+     */
+    public void setEventRateLimit(String name, double limit, int burst) {
+        Preconditions.checkString(name, "name cannot be null or empty");
+        Preconditions.checkArg(limit >= 0, "limit cannot be negative");
+        Preconditions.checkArg(burst > 0, "burst must be positive");
+        
+        // burst is only read while there is a limit
+        if (limit == 0) {
+            eventRateLimits.remove(name);
+            eventRateBursts.remove(name);
+        } else {
+            eventRateBursts.put(name, burst);
+            eventRateLimits.put(name, limit);
+        }
+    }
+    
+    /**
+     * Gets whether sampling or rate limits have been set for any events.
+     *
+     * @return {@code true} if any events are sampled or rate limited
+     */
+    public boolean hasEventLimits() {
+        return !eventSampleRates.isEmpty() || !eventRateLimits.isEmpty();
+    }
+    
+    /**
+     * Policy for recorded events arriving when the event queue is full.
+     */
+    public enum EventQueueOverflow {
+        
+        /**
+         * The event being recorded will be dropped.
+         */
+        DROP_NEWEST,
+        /**
+         * The oldest event in the queue will be dropped to make space.
+         */
+        DROP_OLDEST,
+        /**
+         * Recording will wait for space up to the block timeout, after
+         * which the event will be dropped.
+         */
+        BLOCK
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * {@link InputStream} which keeps a copy of all the bytes read through it,
+ * such that a response can be converted while streaming and still have its
+ * raw bytes available afterwards.
+ * <p>
+ * When the expected length is known the buffer is allocated once at the
+ * exact size.
+ */
+final class CapturingInputStream extends FilterInputStream {
+    
+    private static final int DEFAULT_CAPACITY = 1024;
+    
+    private byte[] buffer;
+    private int count;
+    
+    /**
+     * @param in                the stream to read from
+     * @param expectedLength    the expected length of the stream, or
+     *                          {@code -1} if unknown
+     */
+    CapturingInputStream(InputStream in, int expectedLength) {
+        super(in);
+        
+        buffer = new byte[(expectedLength >= 0)
+                ? expectedLength
+                : DEFAULT_CAPACITY];
+    }
+    
+    @Override
+    public int read() throws IOException {
+        final int read = in.read();
+        if (read != -1) {
+            ensureCapacity(count + 1);
+            buffer[count++] = (byte) read;
+        }
+        
+        return read;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int read = in.read(b, off, len);
+        if (read > 0) {
+            ensureCapacity(count + read);
+            System.arraycopy(b, off, buffer, count, read);
+            count += read;
+        }
+        
+        return read;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes still need to be captured
+        long skipped = 0;
+        while (skipped < n && read() != -1) {
+            skipped++;
+        }
+        
+        return skipped;
+    }
+    
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+    
+    @Override
+    public synchronized void mark(int readlimit) {}
+    
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("Mark not supported");
+    }
+    
+    /**
+     * Reads the remainder of the stream straight into the buffer.
+     */
+    void drain() throws IOException {
+        while (true) {
+            if (count == buffer.length) {
+                // probe for the end before growing the buffer
+                if (read() == -1) {
+                    return;
+                }
+            } else {
+                final int read = in.read(buffer, count, buffer.length - count);
+                if (read == -1) {
+                    return;
+                }
+                
+                count += read;
+            }
+        }
+    }
+    
+    /**
+     * @return the bytes read so far
+     */
+    byte[] bytes() {
+        return (count == buffer.length)
+                ? buffer
+                : Arrays.copyOf(buffer, count);
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(
+                    buffer,
+                    Math.max(capacity, buffer.length * 2));
+        }
+    }
+}
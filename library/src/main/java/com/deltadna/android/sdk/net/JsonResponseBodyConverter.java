@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk.net;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * Converts a {@link Response} body into a {@link JSONObject} by parsing the
+ * tokens as they are being read from the stream, without going through an
+ * intermediate {@link String} representation.
+ */
+final class JsonResponseBodyConverter
+        implements StreamingResponseBodyConverter<JSONObject> {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    @Override
+    public JSONObject convert(byte[] input) throws Exception {
+        return convert(new ByteArrayInputStream(input));
+    }
+    
+    @Override
+    public JSONObject convert(InputStream input) throws Exception {
+        // not closing the reader as the stream is owned by the caller
+        final JsonReader reader = new JsonReader(
+                new InputStreamReader(input, UTF8));
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new JSONException("Expected object but found " + reader.peek());
+        }
+        
+        return readObject(reader);
+    }
+    
+    private static JSONObject readObject(JsonReader reader)
+            throws IOException, JSONException {
+        
+        final JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            object.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        
+        return object;
+    }
+    
+    private static JSONArray readArray(JsonReader reader)
+            throws IOException, JSONException {
+        
+        final JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            array.put(readValue(reader));
+        }
+        reader.endArray();
+        
+        return array;
+    }
+    
+    private static Object readValue(JsonReader reader)
+            throws IOException, JSONException {
+        
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            
+            case STRING:
+                return reader.nextString();
+            
+            case NUMBER:
+                return toNumber(reader.nextString());
+            
+            case BOOLEAN:
+                return reader.nextBoolean();
+            
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            
+            default:
+                throw new JSONException("Unexpected " + reader.peek());
+        }
+    }
+    
+    /**
+     * Narrows the number literal in the same way as {@link JSONObject}
+     * would, so that the converted values are of identical types.
+     */
+    private static Number toNumber(String literal) {
+        if (        literal.indexOf('.') == -1
+                &&  literal.indexOf('e') == -1
+                &&  literal.indexOf('E') == -1) {
+            try {
+                final long value = Long.parseLong(literal);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                } else {
+                    return value;
+                }
+            } catch (NumberFormatException ignored) {
+                // fall through to a double
+            }
+        }
+        
+        return Double.valueOf(literal);
+    }
+}
@@ -16,14 +16,13 @@
 
 package com.deltadna.android.sdk.net;
 
-import android.os.Handler;
-import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.deltadna.android.sdk.BuildConfig;
 import com.deltadna.android.sdk.listeners.RequestListener;
+import com.deltadna.android.sdk.util.MainThreadExecutor;
 
 import java.util.Locale;
 import java.util.Map;
@@ -32,6 +31,7 @@ import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -46,6 +46,9 @@ import java.util.concurrent.TimeoutException;
  * Handles enqueuing of network requests on an {@link ExecutorService}
  * and calling back on the listeners (if supplied) either with the
  * success result or the failure cause.
+ * <p>
+ * Listeners are called back on the main UI thread, unless a different
+ * {@link Executor} has been supplied when enqueuing the request.
  */
 final class NetworkDispatcher {
     
@@ -56,8 +59,15 @@ final class NetworkDispatcher {
     
     private final Map<Request, Cancelable> requests =
             new ConcurrentHashMap<>(MAX_REQUESTS);
+    /**
+     * Origins with connections opened ahead of time, mapped to how long
+     * opening the connection took.
+     */
+    private final Map<String, Long> warmedOrigins = new ConcurrentHashMap<>();
     
-    private final Handler handler = new Handler(Looper.getMainLooper());
+    final RequestMetrics metrics = new RequestMetrics();
+    
+    private final Executor mainThreadExecutor = new MainThreadExecutor();
     private final ScheduledExecutorService executor;
     
     NetworkDispatcher() {
@@ -71,16 +81,37 @@ final class NetworkDispatcher {
         return enqueue(request, ResponseBodyConverter.NULL, listener);
     }
     
+    CancelableRequest enqueue(
+            Request<Void> request,
+            @Nullable RequestListener<Void> listener,
+            Executor callbackExecutor) {
+        
+        return enqueue(
+                request,
+                ResponseBodyConverter.NULL,
+                listener,
+                callbackExecutor);
+    }
+    
     <T> CancelableRequest enqueue(
-            final Request<T> request,
+            Request<T> request,
             @Nullable ResponseBodyConverter<T> converter,
             @Nullable RequestListener<T> listener) {
         
+        return enqueue(request, converter, listener, mainThreadExecutor);
+    }
+    
+    <T> CancelableRequest enqueue(
+            final Request<T> request,
+            @Nullable ResponseBodyConverter<T> converter,
+            @Nullable RequestListener<T> listener,
+            Executor callbackExecutor) {
+        
         Log.d(TAG, "Enqueuing " + request);
         
         final Future<Response<T>> future = executor.submit(request
                 .setConverter(converter)
-                .setRequestListener(listener));
+                .setRequestListener(listener, callbackExecutor));
         
         final Cancelable cancelable = new Cancelable(future);
         requests.put(request, cancelable);
@@ -88,6 +119,15 @@ final class NetworkDispatcher {
         return cancelable;
     }
     
+    /**
+     * Enqueues a {@code request} which opens a connection ahead of time, to
+     * be reused by the following requests to the same origin.
+     */
+    CancelableRequest prewarm(Request<Void> request) {
+        request.warmUp = true;
+        return enqueue(request, null);
+    }
+    
     private final class NetworkExecutor extends ScheduledThreadPoolExecutor {
         
         NetworkExecutor(int maxRequests) {
@@ -119,7 +159,8 @@ final class NetworkDispatcher {
                 return new RequestFuture<>(
                         super.decorateTask(callable, task),
                         request,
-                        request.listener);
+                        request.listener,
+                        request.callbackExecutor);
             } else {
                 throw new IllegalArgumentException(String.format(
                         Locale.US,
@@ -143,9 +184,10 @@ final class NetworkDispatcher {
                             "Successfully performed %s with %s",
                             future.request,
                             response));
+                    onPerformed(future.request);
                     
                     if (future.listener != null) {
-                        handler.post(new Runnable() {
+                        future.callbackExecutor.execute(new Runnable() {
                             @Override
                             public void run() {
                                 future.listener.onCompleted(response);
@@ -169,7 +211,7 @@ final class NetworkDispatcher {
                                 TimeUnit.MILLISECONDS);
                         requests.get(future.request).setTask(newFuture);
                     } else if (future.listener != null) {
-                        handler.post(new Runnable() {
+                        future.callbackExecutor.execute(new Runnable() {
                             @Override
                             public void run() {
                                 future.listener.onError(e.getCause());
@@ -190,6 +232,26 @@ final class NetworkDispatcher {
         }
     }
     
+    private void onPerformed(Request request) {
+        if (request.warmUp) {
+            Log.d(TAG, String.format(
+                    Locale.US,
+                    "Warmed up connection to %s in %d ms",
+                    request.origin(),
+                    request.connectMillis));
+            
+            warmedOrigins.put(request.origin(), request.connectMillis);
+            metrics.onWarmedConnection();
+        } else {
+            metrics.onRequest(request.connectMillis, request.durationMillis);
+            
+            final Long warmedConnect = warmedOrigins.remove(request.origin());
+            if (warmedConnect != null) {
+                metrics.onWarmedRequest(warmedConnect);
+            }
+        }
+    }
+    
     /**
      * Wrapper around a {@link RunnableScheduledFuture} which encapsulates
      * some fields which we'll need for later use.
@@ -200,15 +262,18 @@ final class NetworkDispatcher {
         private final Request<V> request;
         @Nullable
         private final RequestListener<V> listener;
+        private final Executor callbackExecutor;
 
         private RequestFuture(
                 RunnableScheduledFuture<V> delegate,
                 Request<V> request,
-                @Nullable RequestListener<V> listener) {
+                @Nullable RequestListener<V> listener,
+                Executor callbackExecutor) {
 
             this.delegate = delegate;
             this.request = request;
             this.listener = listener;
+            this.callbackExecutor = callbackExecutor;
         }
 
         @Override
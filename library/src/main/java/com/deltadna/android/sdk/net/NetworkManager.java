@@ -27,10 +27,13 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.security.NoSuchAlgorithmException;
-import java.util.Locale;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * TODO make package private after ads decoupling
@@ -47,9 +50,7 @@ public class NetworkManager {
     private final Settings settings;
     
     @Nullable
-    private final String hash;
-    @Nullable
-    private final MessageDigest md5;
+    private final PayloadHasher hasher;
     
     private final NetworkDispatcher dispatcher;
     
@@ -64,98 +65,227 @@ public class NetworkManager {
         this.engageUrl = engageUrl + '/' + envKey;
         this.settings = settings;
         
-        this.hash = hash;
-        MessageDigest md = null;
+        PayloadHasher payloadHasher = null;
         if (hash != null && !hash.isEmpty()) {
             try {
-                md = MessageDigest.getInstance("MD5");
+                payloadHasher = new PayloadHasher(hash);
             } catch (NoSuchAlgorithmException e) {
                 Log.w(TAG, "Events will not be hashed", e);
             }
         }
-        md5 = md;
+        hasher = payloadHasher;
         
         dispatcher = new NetworkDispatcher();
     }
     
+    /**
+     * Sends a Collect request, with the {@code listener} being called back
+     * on the main UI thread.
+     */
     public CancelableRequest collect(
             JSONObject payload,
             @Nullable RequestListener<Void> listener) {
         
-        return dispatcher.enqueue(
-                new Request.Builder<Void>()
-                        .post(RequestBody.json(payload))
-                        .url(payload.has("eventList")
-                                ? buildHashedEndpoint(collectUrl + "/bulk", payload.toString())
-                                : buildHashedEndpoint(collectUrl, payload.toString()))
-                        .header("Accept", "application/json")
-                        .maxRetries(settings.getHttpRequestMaxRetries())
-                        .retryDelay(settings.getHttpRequestRetryDelay() * 1000)
-                        .connectionTimeout(settings.getHttpRequestCollectTimeout() * 1000)
-                        .build(),
-                listener);
+        return collect(payload, listener, null);
+    }
+    
+    /**
+     * Sends a Collect request, with the {@code listener} being called back
+     * on the {@code callbackExecutor}.
+     *
+     * @param callbackExecutor  the executor for the listener, may be
+     *                          {@code null} for the main UI thread
+     */
+    public CancelableRequest collect(
+            JSONObject payload,
+            @Nullable RequestListener<Void> listener,
+            @Nullable Executor callbackExecutor) {
+        
+        return collect(
+                RequestBody.json(payload),
+                payload.has("eventList") ? collectUrl + "/bulk" : collectUrl,
+                listener,
+                callbackExecutor);
+    }
+    
+    /**
+     * Sends a bulk Collect request with an already encoded
+     * {@code payload}, with the {@code listener} being called back on the
+     * {@code callbackExecutor}.
+     *
+     * @param payload           the events as UTF-8 encoded JSON, which
+     *                          will be sent as is
+     * @param callbackExecutor  the executor for the listener, may be
+     *                          {@code null} for the main UI thread
+     */
+    public CancelableRequest collectBulk(
+            byte[] payload,
+            @Nullable RequestListener<Void> listener,
+            @Nullable Executor callbackExecutor) {
+        
+        return collect(
+                RequestBody.json(payload),
+                collectUrl + "/bulk",
+                listener,
+                callbackExecutor);
     }
     
+    /**
+     * Sends an Engage request, with the {@code listener} being called back
+     * on the main UI thread.
+     */
     public CancelableRequest engage(
             JSONObject payload,
             RequestListener<JSONObject> listener) {
         
+        return engage(payload, listener, null);
+    }
+    
+    /**
+     * Sends an Engage request, with the {@code listener} being called back
+     * on the {@code callbackExecutor}.
+     *
+     * @param callbackExecutor  the executor for the listener, may be
+     *                          {@code null} for the main UI thread
+     */
+    public CancelableRequest engage(
+            JSONObject payload,
+            RequestListener<JSONObject> listener,
+            @Nullable Executor callbackExecutor) {
+        
         // TODO tweak timeouts to make engage come back within the magic 5s
-        return dispatcher.enqueue(
-                new Request.Builder<JSONObject>()
-                        .post(RequestBody.json(payload))
-                        .url(buildHashedEndpoint(engageUrl, payload.toString()))
-                        .header("Accept", "application/json")
-                        .connectionTimeout(settings.getHttpRequestEngageTimeout() * 1000)
-                        .build(),
-                ResponseBodyConverter.JSON,
-                listener);
+        final RequestBody body = RequestBody.json(payload);
+        final Request<JSONObject> request = new Request.Builder<JSONObject>()
+                .post(body)
+                .url(buildHashedEndpoint(engageUrl, body))
+                .header("Accept", "application/json")
+                .connectionTimeout(settings.getHttpRequestEngageTimeout() * 1000)
+                .build();
+        
+        return (callbackExecutor == null)
+                ? dispatcher.enqueue(
+                        request,
+                        ResponseBodyConverter.JSON,
+                        listener)
+                : dispatcher.enqueue(
+                        request,
+                        ResponseBodyConverter.JSON,
+                        listener,
+                        callbackExecutor);
     }
     
+    /**
+     * Fetches a file, with the {@code listener} being called back on the
+     * main UI thread.
+     */
     public CancelableRequest fetch(
             String url,
-            final File dest,
+            File dest,
             RequestListener<File> listener) {
         
+        return fetch(url, dest, listener, null);
+    }
+    
+    /**
+     * Fetches a file, with the {@code listener} being called back on the
+     * {@code callbackExecutor}.
+     *
+     * @param callbackExecutor  the executor for the listener, may be
+     *                          {@code null} for the main UI thread
+     */
+    public CancelableRequest fetch(
+            String url,
+            final File dest,
+            RequestListener<File> listener,
+            @Nullable Executor callbackExecutor) {
+        
         // TODO tweak timeouts as this should come back quickly as well
-        return dispatcher.enqueue(
-                new Request.Builder<File>()
-                        .get()
-                        .url(url)
-                        .connectionTimeout(settings.getHttpRequestEngageTimeout() * 1000)
-                        .build(),
+        final Request<File> request = new Request.Builder<File>()
+                .get()
+                .url(url)
+                .connectionTimeout(settings.getHttpRequestEngageTimeout() * 1000)
+                .build();
+        final ResponseBodyConverter<File> converter =
                 new ResponseBodyConverter<File>() {
                     @Override
                     public File convert(byte[] input) throws Exception {
                         final FileOutputStream os = new FileOutputStream(dest);
                         os.write(input);
                         os.close();
-
+                        
                         return dest;
                     }
-                },
-                listener);
+                };
+        
+        return (callbackExecutor == null)
+                ? dispatcher.enqueue(request, converter, listener)
+                : dispatcher.enqueue(
+                        request,
+                        converter,
+                        listener,
+                        callbackExecutor);
     }
     
-    private String buildHashedEndpoint(String endpoint, String payload) {
-        final StringBuilder builder = new StringBuilder(endpoint);
-        
-        if (hash != null && md5 != null) {
-            builder.append("/hash/");
-            
-            final byte[] messageBytes;
+    /**
+     * Opens connections to the Collect and Engage hosts ahead of the first
+     * requests, so that the DNS lookup and the TCP and TLS handshakes will
+     * have been done by the time they are made.
+     * <p>
+     * The connections are kept alive by {@link HttpURLConnection} and get
+     * reused by the following requests to the same hosts, with the time
+     * spent on opening them being reported in the {@link #getMetrics()}.
+     * Any HTTP response counts as a warmed up connection, as only the
+     * connection matters.
+     */
+    public void prewarm() {
+        final Set<String> origins = new LinkedHashSet<>(2);
+        for (final String url : new String[] {collectUrl, engageUrl}) {
             try {
-                messageBytes = (payload + hash).getBytes("UTF-8");
-            } catch (UnsupportedEncodingException e) {
-                throw new IllegalStateException(e);
-            }
-            
-            final byte[] digest = md5.digest(messageBytes);
-            for (final byte b : digest) {
-                builder.append(String.format(Locale.US, "%02X", b));
+                origins.add(Request.origin(new URL(url)));
+            } catch (MalformedURLException e) {
+                Log.w(TAG, "Not warming up connection to " + url, e);
             }
         }
         
-        return builder.toString();
+        for (final String origin : origins) {
+            dispatcher.prewarm(new Request.Builder<Void>()
+                    .head()
+                    .url(origin + '/')
+                    .connectionTimeout(settings.getHttpRequestEngageTimeout() * 1000)
+                    .build());
+        }
+    }
+    
+    /**
+     * @return the timing metrics for the requests performed
+     */
+    public RequestMetrics getMetrics() {
+        return dispatcher.metrics;
+    }
+    
+    private CancelableRequest collect(
+            RequestBody body,
+            String endpoint,
+            @Nullable RequestListener<Void> listener,
+            @Nullable Executor callbackExecutor) {
+        
+        final Request<Void> request = new Request.Builder<Void>()
+                .post(body)
+                .url(buildHashedEndpoint(endpoint, body))
+                .header("Accept", "application/json")
+                .maxRetries(settings.getHttpRequestMaxRetries())
+                .retryDelay(settings.getHttpRequestRetryDelay() * 1000)
+                .connectionTimeout(settings.getHttpRequestCollectTimeout() * 1000)
+                .build();
+        
+        return (callbackExecutor == null)
+                ? dispatcher.enqueue(request, listener)
+                : dispatcher.enqueue(request, listener, callbackExecutor);
+    }
+    
+    private String buildHashedEndpoint(String endpoint, RequestBody body) {
+        return (hasher != null)
+                ? endpoint + "/hash/" + hasher.hash(body.content)
+                : endpoint;
     }
 }
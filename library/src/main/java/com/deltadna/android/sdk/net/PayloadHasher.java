@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk.net;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes request payloads together with a secret, as expected by the
+ * hashed Collect and Engage endpoints.
+ * <p>
+ * Each thread gets its own {@link MessageDigest}, as instances are not
+ * thread safe, and the payload and secret are fed to it as separate
+ * updates without having to be joined first.
+ */
+final class PayloadHasher {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final String ALGORITHM = "MD5";
+    
+    private final byte[] secret;
+    private final ThreadLocal<MessageDigest> digests =
+            new ThreadLocal<MessageDigest>() {
+                @Override
+                protected MessageDigest initialValue() {
+                    try {
+                        return MessageDigest.getInstance(ALGORITHM);
+                    } catch (NoSuchAlgorithmException e) {
+                        // checked for availability on construction
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+    
+    /**
+     * @throws NoSuchAlgorithmException if the digest is not available
+     */
+    PayloadHasher(String secret) throws NoSuchAlgorithmException {
+        MessageDigest.getInstance(ALGORITHM);
+        
+        this.secret = secret.getBytes(UTF8);
+    }
+    
+    /**
+     * Hashes the {@code payload} bytes followed by the secret.
+     * 
+     * @return the hash as an uppercase hex string
+     */
+    String hash(byte[] payload) {
+        final MessageDigest digest = digests.get();
+        digest.update(payload);
+        digest.update(secret);
+        
+        // digesting also resets the instance for the next use
+        return hex(digest.digest());
+    }
+    
+    static String hex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        
+        return new String(chars);
+    }
+}
@@ -28,6 +28,8 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Encapsulates the required details and logic for performing an
@@ -57,7 +59,12 @@ final class Request<T> implements Callable<Response<T>> {
     final int retryDelay;
     @Nullable
     RequestListener<T> listener;
+    @Nullable
+    Executor callbackExecutor;
     int runs;
+    boolean warmUp;
+    long connectMillis;
+    long durationMillis;
     
     private Request(
             URL url,
@@ -85,8 +92,12 @@ final class Request<T> implements Callable<Response<T>> {
         return this;
     }
     
-    Request<T> setRequestListener(@Nullable RequestListener<T> listener) {
+    Request<T> setRequestListener(
+            @Nullable RequestListener<T> listener,
+            Executor callbackExecutor) {
+        
         this.listener = listener;
+        this.callbackExecutor = callbackExecutor;
         return this;
     }
     
@@ -94,10 +105,19 @@ final class Request<T> implements Callable<Response<T>> {
         return (runs <= maxRetries);
     }
     
+    /**
+     * @return the scheme and authority of the url, which identify the
+     *         connection used by the request
+     */
+    String origin() {
+        return origin(url);
+    }
+    
     @Override
     public Response<T> call() throws Exception {
         runs++;
         
+        final long start = System.nanoTime();
         HttpURLConnection connection = null;
         try {
             connection = (HttpURLConnection) url.openConnection();
@@ -116,12 +136,22 @@ final class Request<T> implements Callable<Response<T>> {
             }
             
             connection.connect();
+            connectMillis = millisSince(start);
+            
+            final Response<T> response = Response.create(connection, converter);
+            durationMillis = millisSince(start);
             
-            return Response.create(connection, converter);
-        } finally {
+            /*
+             * Not disconnecting as the response has been fully read, which
+             * allows the connection to be reused by following requests.
+             */
+            return response;
+        } catch (Exception e) {
             if (connection != null) {
                 connection.disconnect();
             }
+            
+            throw e;
         }
     }
     
@@ -135,6 +165,14 @@ final class Request<T> implements Callable<Response<T>> {
                 .toString();
     }
 
+    static String origin(URL url) {
+        return url.getProtocol() + "://" + url.getAuthority();
+    }
+    
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+    
     /**
      * Builder providing a fluid API for creating a {@link Request}.
      * 
@@ -161,6 +199,10 @@ final class Request<T> implements Callable<Response<T>> {
             return method(RequestMethod.GET, null);
         }
         
+        Builder<T> head() {
+            return method(RequestMethod.HEAD, null);
+        }
+        
         Builder<T> post(RequestBody body) {
             Preconditions.checkArg(body != null, "body cannot be empty");
             return method(RequestMethod.POST, body);
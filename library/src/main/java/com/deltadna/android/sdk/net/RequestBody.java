@@ -76,4 +76,11 @@ final class RequestBody {
                 "application/json; charset=utf-8",
                 content.toString().getBytes(UTF8));
     }
+    
+    /**
+     * @param content UTF-8 encoded JSON, which is used as is
+     */
+    static RequestBody json(byte[] content) {
+        return new RequestBody("application/json; charset=utf-8", content);
+    }
 }
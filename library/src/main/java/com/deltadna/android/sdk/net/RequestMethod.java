@@ -25,6 +25,7 @@ import java.net.ProtocolException;
 enum RequestMethod {
     
     GET(false),
+    HEAD(false),
     POST(true);
     
     private final boolean output;
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk.net;
+
+import com.deltadna.android.sdk.helpers.Objects;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing metrics for the requests performed through the
+ * {@link NetworkManager}.
+ * <p>
+ * The values are counters which get updated as requests complete, and can
+ * be read at any time from any thread.
+ */
+public final class RequestMetrics {
+    
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong connectMillis = new AtomicLong();
+    private final AtomicLong durationMillis = new AtomicLong();
+    
+    private final AtomicLong warmedConnections = new AtomicLong();
+    private final AtomicLong warmedRequests = new AtomicLong();
+    private final AtomicLong warmedConnectMillis = new AtomicLong();
+    
+    RequestMetrics() {}
+    
+    /**
+     * @return the number of completed requests
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+    
+    /**
+     * @return the total time spent by requests on connecting, in
+     *         milliseconds
+     */
+    public long getConnectMillis() {
+        return connectMillis.get();
+    }
+    
+    /**
+     * @return the total time spent by requests from start to the response
+     *         having been read, in milliseconds
+     */
+    public long getDurationMillis() {
+        return durationMillis.get();
+    }
+    
+    /**
+     * @return the number of connections which have been opened ahead of
+     *         time
+     */
+    public long getWarmedConnections() {
+        return warmedConnections.get();
+    }
+    
+    /**
+     * @return the number of requests which were made to a host with a
+     *         connection opened ahead of time
+     */
+    public long getWarmedRequests() {
+        return warmedRequests.get();
+    }
+    
+    /**
+     * Gets how long opening the connections ahead of time took, for the
+     * connections which have then been used by a request. This is the
+     * time spent on connecting outside of those requests rather than a
+     * measured saving.
+     * 
+     * @return the connect time, in milliseconds
+     */
+    public long getWarmedConnectMillis() {
+        return warmedConnectMillis.get();
+    }
+    
+    @Override
+    public String toString() {
+        return new Objects.ToStringHelper(this)
+                .add("requests", requests)
+                .add("connectMillis", connectMillis)
+                .add("durationMillis", durationMillis)
+                .add("warmedConnections", warmedConnections)
+                .add("warmedRequests", warmedRequests)
+                .add("warmedConnectMillis", warmedConnectMillis)
+                .toString();
+    }
+    
+    void onRequest(long connect, long duration) {
+        requests.incrementAndGet();
+        connectMillis.addAndGet(connect);
+        durationMillis.addAndGet(duration);
+    }
+    
+    void onWarmedConnection() {
+        warmedConnections.incrementAndGet();
+    }
+    
+    void onWarmedRequest(long warmedConnect) {
+        warmedRequests.incrementAndGet();
+        warmedConnectMillis.addAndGet(warmedConnect);
+    }
+}
@@ -20,7 +20,7 @@ import android.support.annotation.Nullable;
 
 import com.deltadna.android.sdk.helpers.Objects;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.Arrays;
@@ -103,12 +103,16 @@ public final class Response<T> {
             @Nullable ResponseBodyConverter<T> converter) throws Exception {
         
         final int code = connection.getResponseCode();
+        final InputStream stream = isSuccess(code)
+                ? connection.getInputStream()
+                : connection.getErrorStream();
         return create(
                 code,
                 connection.getContentLength(),
-                isSuccess(code)
-                        ? connection.getInputStream()
-                        : connection.getErrorStream(),
+                // a HEAD response never has a body to read
+                (stream == null && "HEAD".equals(connection.getRequestMethod()))
+                        ? new ByteArrayInputStream(new byte[0])
+                        : stream,
                 converter);
     }
     
@@ -118,27 +122,32 @@ public final class Response<T> {
             InputStream stream,
             @Nullable ResponseBodyConverter<T> converter) throws Exception {
         
-        final ByteArrayOutputStream buffer;
+        final CapturingInputStream input =
+                new CapturingInputStream(stream, contentLength);
+        final boolean streaming = isSuccess(code)
+                && converter instanceof StreamingResponseBodyConverter;
+        
+        T body = null;
         //noinspection TryFinallyCanBeTryWithResources
         try {
-            buffer = (contentLength != -1)
-                    ? new ByteArrayOutputStream(contentLength)
-                    : new ByteArrayOutputStream();
-            int read;
-            while ((read = stream.read()) != -1) {
-                buffer.write(read);
+            if (streaming) {
+                body = ((StreamingResponseBodyConverter<T>) converter)
+                        .convert(input);
             }
+            input.drain();
         } finally {
             stream.close();
         }
         
-        final byte[] bytes = buffer.toByteArray();
+        final byte[] bytes = input.bytes();
+        if (isSuccess(code) && converter != null && !streaming) {
+            body = converter.convert(bytes);
+        }
+        
         return new Response<>(
                 code,
                 bytes,
-                (isSuccess(code) && converter != null)
-                        ? converter.convert(bytes)
-                        : null,
+                body,
                 !isSuccess(code)
                         ? ResponseBodyConverter.STRING.convert(bytes)
                         : null);
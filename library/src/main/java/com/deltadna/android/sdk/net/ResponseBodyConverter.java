@@ -40,12 +40,7 @@ interface ResponseBodyConverter<T> {
             return new String(input, Charset.forName("UTF-8"));
         }
     };
-    ResponseBodyConverter<JSONObject> JSON = new ResponseBodyConverter<JSONObject>() {
-        @Override
-        public JSONObject convert(byte[] input) throws Exception {
-            return new JSONObject(ResponseBodyConverter.STRING.convert(input));
-        }
-    };
+    ResponseBodyConverter<JSONObject> JSON = new JsonResponseBodyConverter();
     
     T convert(byte[] input) throws Exception;
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk.net;
+
+import java.io.InputStream;
+
+/**
+ * {@link ResponseBodyConverter} which is able to convert the body straight
+ * from the response stream, instead of from the fully buffered bytes.
+ * 
+ * @param <T> type to convert the {@link Response} stream to
+ */
+interface StreamingResponseBodyConverter<T> extends ResponseBodyConverter<T> {
+    
+    /**
+     * Converts the body from the {@code input} stream, which should not be
+     * closed by the implementation.
+     */
+    T convert(InputStream input) throws Exception;
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+
+/**
+ * {@link Executor} which runs commands on the calling thread.
+ * <p>
+ * When used for delivering request callbacks this will be one of the
+ * background network threads.
+ */
+public enum DirectExecutor implements Executor {
+    
+    INSTANCE;
+    
+    @Override
+    public void execute(@NonNull Runnable command) {
+        command.run();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk
+
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockito_kotlin.*
+import org.json.JSONArray
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import org.mockito.ArgumentCaptor
+
+@RunWith(JUnit4::class)
+class AggregatorTest {
+    
+    private val listener = mock<Aggregator.Listener>()
+    private val uut = Aggregator(listener)
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun metricCannotBeEmpty() {
+        uut.increment("")
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun valueMustBeFinite() {
+        uut.record("metric", Double.NaN)
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun boundsMustBeAscending() {
+        uut.histogram("metric", 2.0, 1.0)
+    }
+    
+    @Test
+    fun flushWithoutValues() {
+        uut.flush()
+        
+        assertThat(flushed()).isEmpty()
+    }
+    
+    @Test
+    fun flushSummarises() {
+        uut     .increment("taps")
+                .increment("taps")
+                .record("frameTime", 16.0)
+                .record("frameTime", 33.0)
+                .record("frameTime", 8.0)
+                .flush()
+        
+        with(flushed()) {
+            assertThat(size).isEqualTo(2)
+            
+            with(first { it.name == "taps" }.params.toJson()) {
+                assertThat(getLong("aggregateCount")).isEqualTo(2)
+                assertThat(getDouble("aggregateSum")).isEqualTo(2.0)
+            }
+            with(first { it.name == "frameTime" }.params.toJson()) {
+                assertThat(getLong("aggregateCount")).isEqualTo(3)
+                assertThat(getDouble("aggregateSum")).isEqualTo(57.0)
+                assertThat(getDouble("aggregateMin")).isEqualTo(8.0)
+                assertThat(getDouble("aggregateMax")).isEqualTo(33.0)
+                assertThat(has("aggregatePeriod")).isTrue()
+                assertThat(has("aggregateBuckets")).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun flushResets() {
+        uut.increment("taps").flush()
+        reset(listener)
+        
+        uut.flush()
+        assertThat(flushed()).isEmpty()
+        reset(listener)
+        
+        uut.increment("taps").flush()
+        assertThat(flushed().single().params.toJson().getLong("aggregateCount"))
+                .isEqualTo(1)
+    }
+    
+    @Test
+    fun histogram() {
+        uut     .histogram("frameTime", 16.0, 33.0)
+                .record("frameTime", 8.0)
+                .record("frameTime", 16.0)
+                .record("frameTime", 20.0)
+                .record("frameTime", 33.0)
+                .record("frameTime", 50.0)
+                .flush()
+        
+        with(flushed().single().params.toJson()) {
+            assertThat(getJSONArray("aggregateBounds").toString())
+                    .isEqualTo(JSONArray(listOf(16.0, 33.0)).toString())
+            assertThat(getJSONArray("aggregateBuckets").toString())
+                    .isEqualTo(JSONArray(listOf(1, 2, 2)).toString())
+        }
+    }
+    
+    @Test
+    fun metricsLimited() {
+        (0..299).forEach { uut.increment("metric$it") }
+        uut.flush()
+        
+        assertThat(flushed()).hasSize(256)
+    }
+    
+    @Test
+    fun periodicFlush() {
+        uut.increment("taps")
+        uut.start(1)
+        
+        verify(listener, timeout(3000)).onFlush(any())
+        uut.stop()
+    }
+    
+    @Suppress("UNCHECKED_CAST")
+    private fun flushed(): List<Event<*>> {
+        with(ArgumentCaptor.forClass(List::class.java)) {
+            verify(listener).onFlush(capture() as List<Event<*>>?)
+            return value as List<Event<*>>
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk
+
+import com.google.common.truth.Truth.assertThat
+import org.json.JSONObject
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.lang.management.ManagementFactory
+import java.nio.charset.Charset
+import java.util.*
+
+@RunWith(RobolectricTestRunner::class)
+class CompactEventFormatTest {
+    
+    private val encoder = EventEncoder("ANDROID", "Android SDK v4.2.3")
+    
+    @Test
+    fun roundTripsEvent() {
+        with(event()) {
+            val compact = CompactEventFormat.encode(this)!!
+            
+            assertThat(CompactEventFormat.isCompact(compact)).isTrue()
+            assertThat(compact.size).isLessThan(size * 6 / 10)
+            assertThat(JSONObject(CompactEventFormat.decode(compact)).toString())
+                    .isEqualTo(JSONObject(String(this, UTF8)).toString())
+        }
+    }
+    
+    @Test
+    fun roundTripsValues() {
+        val json = listOf(
+                "\"string\":\"a\\\"b\\\\c\\nd\\u0001é\"",
+                "\"repeated\":\"string\"",
+                "\"integer\":-1234567890123",
+                "\"zero\":0",
+                "\"double\":1.5e10",
+                "\"leadingZero\":\"007\"",
+                "\"upperUuid\":\"1B4E28BA-2FA1-11D2-883F-0016D3CCA427\"",
+                "\"uuid\":\"1b4e28ba-2fa1-11d2-883f-0016d3cca427\"",
+                "\"timestamp\":\"2016-02-29 23:59:59.999\"",
+                "\"invalidTimestamp\":\"2016-02-30 00:00:00.000\"",
+                "\"true\":true",
+                "\"false\":false",
+                "\"null\":null",
+                "\"array\":[1,\"a\",[],{}]",
+                "\"nested\":{\"string\":\"repeated\"}")
+                .joinToString(",", "{", "}")
+        
+        with(CompactEventFormat.encode(json.toByteArray(UTF8))!!) {
+            assertThat(CompactEventFormat.decode(this)).isEqualTo(json)
+        }
+    }
+    
+    @Test
+    fun decodesIntoStream() {
+        val json = listOf(
+                "\"eventName\":\"name\"",
+                "\"eventParams\":{\"separators\":\"\\u2028a\\u2029\"}",
+                "\"multiByte\":\"é€😀\"")
+                .joinToString(",", "{", "}")
+        
+        with(ByteArrayOutputStream()) {
+            CompactEventFormat.decode(
+                    CompactEventFormat.encode(json.toByteArray(UTF8))!!,
+                    this)
+            
+            assertThat(toByteArray()).isEqualTo(json.toByteArray(UTF8))
+        }
+    }
+    
+    @Test
+    fun notJson() {
+        assertThat(CompactEventFormat.encode("not json".toByteArray(UTF8)))
+                .isNull()
+    }
+    
+    @Test(expected = IOException::class)
+    fun decodeTruncated() {
+        with(CompactEventFormat.encode(event())!!) {
+            CompactEventFormat.decode(copyOf(size - 1))
+        }
+    }
+    
+    @Test(expected = IOException::class)
+    fun decodeJson() {
+        CompactEventFormat.decode(event())
+    }
+    
+    @Test
+    fun benchmark() {
+        val events = (1..1000).map { event() }
+        val compacts = events.map { CompactEventFormat.encode(it)!! }
+        (1..5).forEach {
+            events.forEach { CompactEventFormat.encode(it) }
+            compacts.forEach { CompactEventFormat.decode(it) }
+        }
+        
+        val json = events.sumBy { it.size }
+        val compact = compacts.sumBy { it.size }
+        println(String.format(
+                Locale.US,
+                "json %d bytes/event, compact %d bytes/event (%.0f%%)",
+                json / events.size,
+                compact / events.size,
+                compact * 100.0 / json))
+        
+        report("encode", events.size) {
+            events.forEach { CompactEventFormat.encode(it) }
+        }
+        report("decode", events.size) {
+            compacts.forEach { CompactEventFormat.decode(it) }
+        }
+        
+        assertThat(compact).isLessThan(json * 6 / 10)
+    }
+    
+    private fun event() = encoder.encode(
+            "missionStarted",
+            Params()
+                    .put("missionName", "Mission01")
+                    .put("missionID", "M001")
+                    .put("isTutorial", false)
+                    .put("missionDifficulty", "EASY"),
+            "c2f1e4b6-5b8e-4b0e-9c1f-3d3f6a7b8c9d",
+            "0bc56224-8939-4639-b5ba-197f84dad4f4")
+    
+    private fun report(name: String, events: Int, action: () -> Unit) {
+        val bean = ManagementFactory.getThreadMXBean()
+        val allocations = bean is com.sun.management.ThreadMXBean
+                && bean.isThreadAllocatedMemorySupported
+        val thread = Thread.currentThread().id
+        
+        val bytes = if (allocations)
+            (bean as com.sun.management.ThreadMXBean).getThreadAllocatedBytes(thread)
+            else 0L
+        val start = System.nanoTime()
+        action()
+        val nanos = System.nanoTime() - start
+        val allocated = if (allocations)
+            (bean as com.sun.management.ThreadMXBean).getThreadAllocatedBytes(thread) - bytes
+            else -1L
+        
+        println(String.format(
+                Locale.US,
+                "%s: %.0f events/s, %d bytes allocated per event",
+                name,
+                events / (nanos / 1e9),
+                if (allocated >= 0) allocated / events else -1))
+    }
+    
+    companion object {
+        
+        private val UTF8 = Charset.forName("UTF-8")
+    }
+}
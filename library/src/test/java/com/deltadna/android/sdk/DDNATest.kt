@@ -28,6 +28,7 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
 import org.robolectric.RuntimeEnvironment
+import java.util.concurrent.TimeUnit
 
 @RunWith(RobolectricTestRunner::class)
 class DDNATest {
@@ -65,6 +66,22 @@ class DDNATest {
         }
     }
     
+    @Test
+    fun initialisesInBackground() {
+        uut.readiness.get(5, TimeUnit.SECONDS)
+        
+        assertThat(uut.isReady).isTrue()
+        assertThat(uut.initialisationTimings.keys)
+                .containsExactly("preferences", "store", "archive")
+                .inOrder()
+        assertThat(uut.userId).isNotEmpty()
+    }
+    
+    @Test
+    fun waitsForReadiness() {
+        assertThat(createUut().userId).isNotEmpty()
+    }
+    
     private fun createUut() = DDNA(
             RuntimeEnvironment.application,
             "environmentKey",
@@ -0,0 +1,791 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk
+
+import android.content.Context
+import android.os.Environment
+import com.deltadna.android.sdk.helpers.Settings
+import com.deltadna.android.sdk.helpers.Utils
+import com.google.common.truth.Truth.assertThat
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowEnvironment
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+class DatabaseEventStoreTest {
+    
+    private var application: Context? = null
+    private var settings: Settings? = null
+    private var prefs: Preferences? = null
+    
+    private val executor = Executors.newSingleThreadExecutor()
+    
+    private var uut: DatabaseEventStore? = null
+    
+    @Before
+    fun before() {
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED)
+        
+        application = RuntimeEnvironment.application
+        settings = Settings()
+        prefs = Preferences(application)
+        
+        uut = store()
+        // let the start up work finish before tests set up legacy files
+        executor.submit(Runnable {}).get()
+    }
+    
+    @After
+    fun after() {
+        executor.shutdown()
+        executor.awaitTermination(10, TimeUnit.SECONDS)
+    }
+    
+    @Test
+    fun migratesLegacyStore() {
+        val legacy = LegacyEventStore(
+                File(   application!!.getExternalFilesDir(null),
+                        "/ddsdk/events/").path,
+                prefs,
+                false,
+                false)
+        legacy.swap()
+        legacy.swap()
+        legacy.push("1")
+        
+        uut = store()
+        pause()
+        
+        assertThat(legacy.read().size).isEqualTo(0)
+        with(uut!!.items()) {
+            assertThat(next().get()).isEqualTo("1")
+            assertThat(hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun migratesLegacyStoreInChunks() {
+        val padding = "x".repeat(64)
+        legacyFile("A", (1..2000).map { "{\"event\":$it,\"padding\":\"$padding\"}" })
+        
+        uut = store()
+        pause()
+        
+        assertThat(uut!!.counters.migrated.get()).isEqualTo(2000L)
+        assertThat(legacyDirectory().exists()).isFalse()
+        with(uut!!.items()) {
+            (1..2000).forEach {
+                assertThat(JSONObject(next().get()).getInt("event")).isEqualTo(it)
+            }
+            assertThat(hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun resumesLegacyMigration() {
+        legacyFile("B", listOf("1", "2"))
+        // cannot be read as a file, so the migration stops after B
+        File(legacyDirectory(), "A").mkdirs()
+        
+        uut = store()
+        pause()
+        
+        assertThat(legacyDirectory().exists()).isTrue()
+        File(legacyDirectory(), "A").delete()
+        legacyFile("A", listOf("3"))
+        
+        uut = store()
+        pause()
+        
+        assertThat(legacyDirectory().exists()).isFalse()
+        with(uut!!.items()) {
+            listOf("1", "2", "3").forEach {
+                assertThat(next().get()).isEqualTo(it)
+            }
+            assertThat(hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun itemsAddedAndRetrievable() {
+        val items = listOf("1", "2", "3")
+        with(uut!!) {
+            items.forEach { add(it) }
+            pause()
+            
+            with(items()) {
+                items.forEach {
+                    with(next()) {
+                        assertThat(available()).isTrue()
+                        assertThat(get()).isEqualTo(it)
+                    }
+                }
+                
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun itemAddedOnInternal() {
+        settings!!.isUseInternalStorageForEvents = true
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_UNMOUNTED)
+        
+        with(uut!!) {
+            add("1")
+            pause()
+            
+            with(items()) {
+                with(next()) {
+                    assertThat(available()).isTrue()
+                    assertThat(get()).isEqualTo("1")
+                }
+                
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun itemAddedWhenExternalNotAvailable() {
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_UNMOUNTED)
+        
+        with(uut!!) {
+            add("1")
+            pause()
+            
+            with(items()) {
+                with(next()) {
+                    assertThat(available()).isTrue()
+                    assertThat(get()).isEqualTo("1")
+                }
+                
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun itemNotAvailableOnExternalUnmounted() {
+        with(uut!!) {
+            add("1")
+            pause()
+            ShadowEnvironment.setExternalStorageState(Environment.MEDIA_UNMOUNTED)
+            
+            with(items()) {
+                assertThat(next().available()).isFalse()
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun itemsRetrievedUpToLimit() {
+        val items = listOf(512*1024, 512*1024, 512*1024, 1024*1024)
+        with(uut!!) {
+            items.forEach {
+                with(CharArray(it)) {
+                    fill('a')
+                    add(String(this))
+                }
+                pause()
+            }
+            
+            with(items()) {
+                assertThat(hasNext()).isTrue()
+                next()
+                assertThat(hasNext()).isTrue()
+                next()
+                assertThat(hasNext()).isFalse()
+                close(true)
+            }
+            with(items()) {
+                assertThat(hasNext()).isTrue()
+                next()
+                assertThat(hasNext()).isFalse()
+                close(true)
+            }
+            with(items()) {
+                assertThat(hasNext()).isTrue()
+                next()
+                assertThat(hasNext()).isFalse()
+                close(true)
+            }
+            with(items()) {
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun oversizeItemNotAdded() {
+        with(uut!!) {
+            with(CharArray(1024*1024+1)) {
+                fill('a')
+                add(String(this))
+            }
+            pause()
+            
+            assertThat(items().hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun itemNotAddedWhenFull() {
+        with(uut!!) {
+            (0..5).forEach {
+                with(CharArray(1024*1024)) {
+                    fill('a')
+                    add(String(this))
+                }
+                pause()
+            }
+            
+            (0..4).forEach {
+                with(items()) {
+                    assertThat(hasNext()).isTrue()
+                    next()
+                    assertThat(hasNext()).isFalse()
+                    close(true)
+                }
+            }
+            assertThat(items().hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun groupAddedAndRetrievableInOrder() {
+        val items = listOf("1", "2", "3")
+        with(uut!!) {
+            add(*items.map { it.toByteArray() }.toTypedArray())
+            pause()
+            
+            with(items()) {
+                items.forEach {
+                    assertThat(next().get()).isEqualTo(it)
+                }
+                
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun groupSkipsOversizeItems() {
+        with(uut!!) {
+            add(
+                    "1".toByteArray(),
+                    ByteArray(1024*1024+1, { 'a'.toByte() }),
+                    "2".toByteArray())
+            pause()
+            
+            with(items()) {
+                assertThat(next().get()).isEqualTo("1")
+                assertThat(next().get()).isEqualTo("2")
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun groupNotAddedWhenItDoesNotFit() {
+        with(uut!!) {
+            (0..3).forEach {
+                add(ByteArray(1024*1024, { 'a'.toByte() }))
+                pause()
+            }
+            
+            // would fit individually, but not together
+            add(
+                    ByteArray(512*1024, { 'b'.toByte() }),
+                    ByteArray(512*1024+1, { 'b'.toByte() }))
+            pause()
+            
+            (0..3).forEach {
+                with(items()) {
+                    assertThat(next().get()!![0]).isEqualTo('a')
+                    assertThat(hasNext()).isFalse()
+                    close(true)
+                }
+            }
+            assertThat(items().hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun limitHeldForConcurrentAdds() {
+        with(uut!!) {
+            (0..3).forEach { add(ByteArray(1024*1024, { 'a'.toByte() })) }
+            pause()
+            
+            // only one of them fits
+            val start = CountDownLatch(1)
+            val threads = (0..1).map {
+                Thread {
+                    start.await()
+                    add(ByteArray(1024*1024, { 'b'.toByte() }))
+                }
+            }
+            threads.forEach { it.start() }
+            start.countDown()
+            threads.forEach { it.join() }
+            pause()
+            
+            assertThat(storedEvents).isEqualTo(5)
+            assertThat(storedBytes).isEqualTo(5L * 1024 * 1024)
+            assertThat(getDropped(Event.Priority.NORMAL)).isEqualTo(1)
+        }
+    }
+    
+    @Test
+    fun eventsStoredCompactly() {
+        val event = EventEncoder("ANDROID", "sdkVersion").encode(
+                "name",
+                Params().put("key", "value"),
+                "userId",
+                "sessionId")
+        with(uut!!) {
+            add(event)
+            pause()
+            
+            val files = listOf(
+                    File(application!!.getExternalFilesDir(null), "com.deltadna.android.sdk/events"),
+                    File(application!!.filesDir, "com.deltadna.android.sdk/events"))
+                    .flatMap { it.listFiles()?.toList() ?: emptyList() }
+            assertThat(files).hasSize(1)
+            assertThat(files[0].length()).isLessThan(event.size.toLong())
+            
+            with(items()) {
+                assertThat(next().get()).isEqualTo(String(event))
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun eventsStoredCompressed() {
+        settings!!.isCompressStoredEvents = true
+        val event = EventEncoder("ANDROID", "sdkVersion").encode(
+                "name",
+                Params().put("key", "value"),
+                "userId",
+                "sessionId")
+        with(uut!!) {
+            add(event)
+            add(ByteArray(1024, { 'a'.toByte() }))
+            pause()
+            
+            with(items()) {
+                assertThat(next().get()).isEqualTo(String(event))
+                assertThat(next().get()).isEqualTo(String(ByteArray(1024, { 'a'.toByte() })))
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun itemsWrittenToStream() {
+        val event = EventEncoder("ANDROID", "sdkVersion").encode(
+                "name",
+                Params().put("key", "välue\u2028"),
+                "userId",
+                "sessionId")
+        with(uut!!) {
+            add(event)
+            add("not json".toByteArray())
+            pause()
+            
+            with(items()) {
+                with(ByteArrayOutputStream()) {
+                    assertThat(next().writeTo(this)).isTrue()
+                    assertThat(JSONObject(String(toByteArray())).toString())
+                            .isEqualTo(JSONObject(String(event)).toString())
+                }
+                with(ByteArrayOutputStream()) {
+                    assertThat(next().writeTo(this)).isTrue()
+                    assertThat(toByteArray()).isEqualTo("not json".toByteArray())
+                }
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun limitAppliesToCompressedSize() {
+        settings!!.isCompressStoredEvents = true
+        with(uut!!) {
+            (0..7).forEach {
+                add(ByteArray(1024*1024, { 'a'.toByte() }))
+                pause()
+            }
+            
+            (0..7).forEach {
+                with(items()) {
+                    assertThat(next().get()!!.length).isEqualTo(1024*1024)
+                    close(true)
+                }
+            }
+            assertThat(items().hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun itemsRetrievedByPriority() {
+        with(uut!!) {
+            add(arrayOf("1".toByteArray()), arrayOf(Event.Priority.LOW))
+            add(arrayOf("2".toByteArray()), arrayOf(Event.Priority.NORMAL))
+            add(arrayOf("3".toByteArray()), arrayOf(Event.Priority.HIGH))
+            add(arrayOf("4".toByteArray()), arrayOf(Event.Priority.NORMAL))
+            pause()
+            
+            with(items()) {
+                listOf("3", "2", "4", "1").forEach {
+                    assertThat(next().get()).isEqualTo(it)
+                }
+                
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun lowerPriorityEvictedWhenFull() {
+        with(uut!!) {
+            ('a'..'e').forEach { c ->
+                add(arrayOf(ByteArray(1024*1024, { c.toByte() })),
+                        arrayOf(Event.Priority.NORMAL))
+                pause()
+            }
+            
+            add(arrayOf(ByteArray(1024*1024, { 'h'.toByte() })),
+                    arrayOf(Event.Priority.HIGH))
+            pause()
+            
+            assertThat(getEvicted(Event.Priority.NORMAL)).isEqualTo(1)
+            assertThat(getDropped(Event.Priority.HIGH)).isEqualTo(0)
+            listOf('h', 'b', 'c', 'd', 'e').forEach {
+                with(items()) {
+                    assertThat(next().get()!![0]).isEqualTo(it)
+                    close(true)
+                }
+            }
+            assertThat(items().hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun samePriorityNotEvictedWhenFull() {
+        with(uut!!) {
+            (0..4).forEach {
+                add(arrayOf(ByteArray(1024*1024, { 'a'.toByte() })),
+                        arrayOf(Event.Priority.HIGH))
+                pause()
+            }
+            
+            add(arrayOf(ByteArray(1024*1024, { 'h'.toByte() })),
+                    arrayOf(Event.Priority.HIGH))
+            pause()
+            
+            assertThat(getEvicted(Event.Priority.HIGH)).isEqualTo(0)
+            assertThat(getDropped(Event.Priority.HIGH)).isEqualTo(1)
+            (0..4).forEach {
+                with(items()) {
+                    assertThat(next().get()!![0]).isEqualTo('a')
+                    close(true)
+                }
+            }
+            assertThat(items().hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun itemsNotRemovedOnCloseWithoutClear() {
+        val items = listOf("1", "2", "3")
+        with(uut!!) {
+            items.forEach { add(it) }
+            pause()
+            items().close(false)
+            
+            with(items()) {
+                items.forEach {
+                    with(next()) {
+                        assertThat(available()).isTrue()
+                        assertThat(get()).isEqualTo(it)
+                    }
+                }
+                
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun itemsRemovedOnCloseWithClear() {
+        with(uut!!) {
+            listOf("1", "2", "3").forEach { add(it) }
+            pause()
+            items().close(true)
+            
+            assertThat(items().hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun filesDeletedOnCloseWithClear() {
+        with(uut!!) {
+            listOf("1", "2", "3").forEach { add(it) }
+            pause()
+            assertThat(files()).hasSize(3)
+            
+            items().close(true)
+            pause()
+            
+            assertThat(files()).isEmpty()
+        }
+    }
+    
+    @Test
+    fun corruptItemQuarantined() {
+        with(uut!!) {
+            add("{\"value\":1}")
+            pause()
+            files().single().writeBytes("{\"val".toByteArray())
+            add("{\"value\":2}")
+            pause()
+            
+            with(items()) {
+                assertThat(next().get()).isNull()
+                assertThat(next().get()).isEqualTo("{\"value\":2}")
+                close(false)
+            }
+            
+            assertThat(counters.quarantined.get()).isEqualTo(1L)
+            assertThat(quarantinedFiles()).hasSize(1)
+            with(items()) {
+                assertThat(next().get()).isEqualTo("{\"value\":2}")
+                assertThat(hasNext()).isFalse()
+            }
+        }
+    }
+    
+    @Test
+    fun reconcilesFilesAndRowsOnStartup() {
+        with(uut!!) {
+            listOf("1", "2", "3").forEach { add("{\"value\":$it}") }
+            pause()
+        }
+        with(files()) {
+            assertThat(this).hasSize(3)
+            
+            get(0).delete()
+            get(1).writeBytes("{}".toByteArray())
+            with(File(get(2).parentFile, "orphan")) {
+                writeBytes("{}".toByteArray())
+                setLastModified(0)
+            }
+        }
+        
+        uut = store()
+        pause()
+        
+        assertThat(uut!!.counters.quarantined.get()).isEqualTo(1L)
+        assertThat(files()).hasSize(1)
+        with(uut!!.items()) {
+            assertThat(next().get()).isNotNull()
+            assertThat(hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun acknowledgementThroughput() {
+        val events = 5000
+        with(uut!!) {
+            (0..events / 500 - 1).forEach { group ->
+                add(*(0..499)
+                        .map { "{\"value\":${group * 500 + it}}".toByteArray() }
+                        .toTypedArray())
+            }
+            pause()
+            
+            with(items()) {
+                var read = 0
+                while (hasNext()) {
+                    next()
+                    read++
+                }
+                assertThat(read).isEqualTo(events)
+                
+                val start = System.nanoTime()
+                close(true)
+                val nanos = System.nanoTime() - start
+                println(String.format(
+                        Locale.US,
+                        "acknowledge: %.0f events/s",
+                        events / (nanos / 1e9)))
+            }
+            
+            assertThat(items().hasNext()).isFalse()
+            pause()
+            assertThat(files()).isEmpty()
+        }
+    }
+    
+    @Test
+    fun batchesClaimedByOneProcess() {
+        settings!!.isMultiProcessEventStore = true
+        uut = store()
+        // shares the files and database as another process would
+        val other = store()
+        
+        with(uut!!) {
+            listOf("1", "2").forEach { add(it) }
+            pause()
+            
+            val batch = items()
+            assertThat(batch.hasNext()).isTrue()
+            assertThat(other.items().hasNext()).isFalse()
+            
+            add("3")
+            pause()
+            batch.close(true)
+        }
+        
+        with(other.items()) {
+            assertThat(next().get()).isEqualTo("3")
+            assertThat(hasNext()).isFalse()
+            close(true)
+        }
+        assertThat(uut!!.items().hasNext()).isFalse()
+    }
+    
+    @Test
+    fun expiredItemsRemoved() {
+        add("1")
+        pause()
+        pause()
+        
+        settings!!.eventMaxAge = 1
+        uut = store()
+        add("2")
+        pause()
+        
+        with(uut!!) {
+            assertThat(counters.expired.get()).isEqualTo(1)
+            with(items()) {
+                assertThat(next().get()).isEqualTo("2")
+                assertThat(hasNext()).isFalse()
+            }
+        }
+        assertThat(files()).hasSize(1)
+    }
+    
+    @Test
+    fun itemsKeptWithoutMaxAge() {
+        add("1")
+        pause()
+        pause()
+        
+        uut = store()
+        pause()
+        
+        with(uut!!) {
+            assertThat(counters.expired.get()).isEqualTo(0)
+            assertThat(items().next().get()).isEqualTo("1")
+        }
+    }
+    
+    @Test
+    fun writesCounted() {
+        with(uut!!) {
+            add(arrayOf("1".toByteArray(), "23".toByteArray()), arrayOf(Event.Priority.NORMAL, Event.Priority.NORMAL))
+            add(ByteArray(1024 * 1024 + 1))
+            pause()
+            
+            assertThat(storedEvents).isEqualTo(2)
+            assertThat(storedBytes).isEqualTo(3)
+            with(counters) {
+                assertThat(writes.get()).isEqualTo(1)
+                assertThat(writtenEvents.get()).isEqualTo(2)
+                assertThat(writtenBytes.get()).isEqualTo(3)
+                assertThat(writeLatency.snapshot().total).isEqualTo(1)
+                assertThat(rejected.get(StoreMetrics.Rejection.EVENT_TOO_LARGE.ordinal))
+                        .isEqualTo(1)
+            }
+        }
+    }
+    
+    @Test
+    fun clear() {
+        with(uut!!) {
+            listOf("1", "2", "3").forEach { add(it) }
+            pause()
+            clear()
+            
+            assertThat(items().hasNext()).isFalse()
+        }
+    }
+    
+    private fun add(vararg events: String) =
+            add(*events.map { it.toByteArray() }.toTypedArray())
+    
+    private fun add(vararg events: ByteArray) =
+            uut!!.add(arrayOf(*events), Array(events.size) { Event.Priority.NORMAL })
+    
+    private fun store() = DatabaseEventStore(application, settings, prefs, executor)
+    
+    /**
+     * Waits for a second, and for the background work queued by then.
+     */
+    private fun pause() {
+        Thread.sleep(1000)
+        executor.submit(Runnable {}).get()
+    }
+    
+    private fun quarantinedFiles() =
+            File(application!!.getExternalFilesDir(null), "com.deltadna.android.sdk/quarantine")
+                    .listFiles()?.toList() ?: emptyList()
+    
+    private fun legacyDirectory() =
+            File(application!!.getExternalFilesDir(null), "/ddsdk/events/")
+    
+    private fun legacyFile(name: String, events: List<String>) {
+        legacyDirectory().mkdirs()
+        File(legacyDirectory(), name).outputStream().use { out ->
+            events.forEach {
+                val bytes = it.toByteArray()
+                out.write(Utils.toBytes(bytes.size))
+                out.write(bytes)
+            }
+        }
+    }
+    
+    private fun files() = listOf(
+            File(application!!.getExternalFilesDir(null), "com.deltadna.android.sdk/events"),
+            File(application!!.filesDir, "com.deltadna.android.sdk/events"))
+            .flatMap { it.listFiles()?.toList() ?: emptyList() }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.security.MessageDigest
+
+@RunWith(JUnit4::class)
+class EventChecksumTest {
+    
+    @Test
+    fun crc32() {
+        assertThat(EventChecksum.of("123456789".toByteArray())).isEqualTo("cbf43926")
+        assertThat(EventChecksum.of(ByteArray(0))).isEqualTo("00000000")
+    }
+    
+    @Test
+    fun matchesCrc32() {
+        val content = "{\"value\":1}".toByteArray()
+        
+        assertThat(EventChecksum.matches(EventChecksum.of(content), content)).isTrue()
+        assertThat(EventChecksum.matches(
+                EventChecksum.of(content),
+                "{\"value\":2}".toByteArray())).isFalse()
+    }
+    
+    @Test
+    fun matchesLegacySha1() {
+        val content = "{\"value\":1}".toByteArray()
+        val sha1 = MessageDigest.getInstance("SHA1").digest(content)
+                .joinToString("") { String.format("%02x", it) }
+        
+        assertThat(EventChecksum.matches(sha1, content)).isTrue()
+        assertThat(EventChecksum.matches(sha1, "{\"value\":2}".toByteArray())).isFalse()
+    }
+    
+    @Test
+    fun matchesWithoutChecksum() {
+        assertThat(EventChecksum.matches(null, ByteArray(1))).isTrue()
+        assertThat(EventChecksum.matches("unknown", ByteArray(1))).isTrue()
+    }
+}
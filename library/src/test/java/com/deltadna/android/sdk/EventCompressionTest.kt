@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.nio.charset.Charset
+import java.util.*
+import java.util.zip.Deflater
+
+@RunWith(JUnit4::class)
+class EventCompressionTest {
+    
+    private val deflater = Deflater()
+    
+    @Test
+    fun roundTrip() {
+        val event = EventEncoder("ANDROID", "Android SDK v4.2.3").encode(
+                "missionStarted",
+                Params()
+                        .put("missionName", "Mission01")
+                        .put("missionID", "M001"),
+                "c2f1e4b6-5b8e-4b0e-9c1f-3d3f6a7b8c9d",
+                "0bc56224-8939-4639-b5ba-197f84dad4f4")
+        
+        with(EventCompression.compress(event, deflater)) {
+            assertThat(EventCompression.isCompressed(this)).isTrue()
+            assertThat(size).isLessThan(event.size * 7 / 10)
+            
+            assertThat(EventCompression.decompress(stream(this), 16))
+                    .isEqualTo(event)
+        }
+    }
+    
+    @Test
+    fun deflaterReused() {
+        val first = ByteArray(2048, { 'b'.toByte() })
+        val second = ByteArray(4096, { 'a'.toByte() })
+        
+        with(EventCompression.compress(first, deflater)) {
+            assertThat(EventCompression.decompress(stream(this), first.size))
+                    .isEqualTo(first)
+        }
+        with(EventCompression.compress(second, deflater)) {
+            assertThat(size).isLessThan(100)
+            assertThat(EventCompression.decompress(stream(this), 16))
+                    .isEqualTo(second)
+        }
+    }
+    
+    @Test
+    fun incompressibleKeptAsIs() {
+        val random = ByteArray(256)
+        Random(0).nextBytes(random)
+        random[0] = '{'.toByte()
+        
+        assertThat(EventCompression.compress(random, deflater))
+                .isSameAs(random)
+    }
+    
+    @Test
+    fun tooSmallKeptAsIs() {
+        with("{}".toByteArray(UTF8)) {
+            assertThat(EventCompression.compress(this, deflater)).isSameAs(this)
+        }
+    }
+    
+    @Test(expected = IOException::class)
+    fun decompressTruncated() {
+        with(EventCompression.compress(ByteArray(4096, { 'a'.toByte() }), deflater)) {
+            EventCompression.decompress(stream(copyOf(size - 2)), 4096)
+        }
+    }
+    
+    private fun stream(compressed: ByteArray) = ByteArrayInputStream(compressed)
+            .apply { read() }
+    
+    companion object {
+        
+        private val UTF8 = Charset.forName("UTF-8")
+    }
+}
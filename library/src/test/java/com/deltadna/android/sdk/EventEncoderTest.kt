@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk
+
+import com.google.common.truth.Truth.assertThat
+import org.json.JSONObject
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.lang.management.ManagementFactory
+import java.nio.charset.Charset
+import java.text.SimpleDateFormat
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+@RunWith(JUnit4::class)
+class EventEncoderTest {
+    
+    private val uut = EventEncoder("ANDROID", "sdkVersion")
+    
+    @Test
+    fun encode() {
+        val params = Params().put("a", 1).put("b", JSONObject().put("c", "d"))
+        
+        with(decode(uut.encode("name", params, "userId", "sessionId"))) {
+            assertThat(getString("eventName")).isEqualTo("name")
+            assertThat(getString("eventTimestamp")).matches(TIMESTAMP)
+            assertThat(getString("eventUUID")).matches(UUID_V4)
+            assertThat(getString("sessionID")).isEqualTo("sessionId")
+            assertThat(getString("userID")).isEqualTo("userId")
+            
+            with(getJSONObject("eventParams")) {
+                assertThat(getInt("a")).isEqualTo(1)
+                assertThat(getJSONObject("b").getString("c")).isEqualTo("d")
+                assertThat(getString("platform")).isEqualTo("ANDROID")
+                assertThat(getString("sdkVersion")).isEqualTo("sdkVersion")
+            }
+        }
+        
+        // params should not have been modified
+        assertThat(params.toJson().has("platform")).isFalse()
+        assertThat(params.toJson().has("sdkVersion")).isFalse()
+    }
+    
+    @Test
+    fun encodeWithEmptyParams() {
+        with(decode(uut.encode("name", Params(), "userId", "sessionId"))) {
+            assertThat(getJSONObject("eventParams").toString()).isEqualTo(
+                    JSONObject()
+                            .put("platform", "ANDROID")
+                            .put("sdkVersion", "sdkVersion")
+                            .toString())
+        }
+    }
+    
+    @Test
+    fun encodeOverwritesReservedParams() {
+        val params = Params().put("platform", "other").put("sdkVersion", "other")
+        
+        with(decode(uut.encode("name", params, "userId", "sessionId"))) {
+            with(getJSONObject("eventParams")) {
+                assertThat(getString("platform")).isEqualTo("ANDROID")
+                assertThat(getString("sdkVersion")).isEqualTo("sdkVersion")
+            }
+        }
+        
+        assertThat(params.toJson().getString("platform")).isEqualTo("other")
+    }
+    
+    @Test
+    fun encodeEscapesValues() {
+        with(decode(uut.encode("na\"meé", Params(), "user\\Id", "session\nId"))) {
+            assertThat(getString("eventName")).isEqualTo("na\"meé")
+            assertThat(getString("userID")).isEqualTo("user\\Id")
+            assertThat(getString("sessionID")).isEqualTo("session\nId")
+        }
+    }
+    
+    @Test
+    fun encodeWithoutUserId() {
+        with(decode(uut.encode("name", Params(), null, "sessionId"))) {
+            assertThat(has("userID")).isFalse()
+            assertThat(getString("sessionID")).isEqualTo("sessionId")
+        }
+    }
+    
+    @Test
+    fun encodeFollowsIdentityChanges() {
+        uut.encode("name", Params(), "userId", "sessionId")
+        
+        with(decode(uut.encode("name", Params(), "otherUserId", "otherSessionId"))) {
+            assertThat(getString("userID")).isEqualTo("otherUserId")
+            assertThat(getString("sessionID")).isEqualTo("otherSessionId")
+        }
+    }
+    
+    @Test
+    fun encodeCaptured() {
+        val params = Params().put("a", 1)
+        val captured = uut.capture("name", params, Event.Priority.HIGH)
+        params.put("a", 2).put("b", 3)
+        val format = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US)
+        format.timeZone = TimeZone.getTimeZone("UTC")
+        
+        assertThat(captured.priority).isEqualTo(Event.Priority.HIGH)
+        with(decode(uut.encode(captured, "userId", "sessionId"))) {
+            assertThat(getString("eventName")).isEqualTo("name")
+            assertThat(getString("eventTimestamp"))
+                    .isEqualTo(format.format(Date(captured.time)))
+            assertThat(getString("userID")).isEqualTo("userId")
+            assertThat(getString("sessionID")).isEqualTo("sessionId")
+            
+            with(getJSONObject("eventParams")) {
+                assertThat(getInt("a")).isEqualTo(1)
+                assertThat(has("b")).isFalse()
+                assertThat(getString("platform")).isEqualTo("ANDROID")
+            }
+        }
+    }
+    
+    @Test
+    fun encodeUniqueUuids() {
+        val uuids = HashSet<String>()
+        (1..1000).forEach {
+            uuids.add(decode(uut.encode("name", Params(), "userId", "sessionId"))
+                    .getString("eventUUID"))
+        }
+        
+        assertThat(uuids).hasSize(1000)
+    }
+    
+    @Test
+    fun encodeConcurrently() {
+        val executor = Executors.newFixedThreadPool(4)
+        
+        try {
+            val results = executor.invokeAll((1..400).map { i ->
+                Callable { uut.encode(
+                        "name",
+                        Params().put("index", i),
+                        "userId",
+                        "session$i") }
+            })
+            
+            results.forEachIndexed { i, result ->
+                with(decode(result.get())) {
+                    assertThat(getString("sessionID")).isEqualTo("session${i + 1}")
+                    assertThat(getJSONObject("eventParams").getInt("index"))
+                            .isEqualTo(i + 1)
+                    assertThat(getString("eventTimestamp")).matches(TIMESTAMP)
+                }
+            }
+        } finally {
+            executor.shutdown()
+        }
+    }
+    
+    @Test
+    fun benchmark() {
+        // parameters get built for every event, as they would be in a game
+        val params = {
+            Params()
+                    .put("missionName", "Mission01")
+                    .put("missionID", "M001")
+                    .put("isTutorial", false)
+                    .put("missionDifficulty", "EASY")
+                    .put("missionLevel", 12)
+                    .put("missionProgress", 0.25)
+        }
+        val format = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US)
+        format.timeZone = TimeZone.getTimeZone("UTC")
+        
+        // previous approach
+        val legacy = {
+            val event = JSONObject()
+                    .put("eventName", "missionStarted")
+                    .put("eventTimestamp", format.format(Date()))
+                    .put("eventUUID", UUID.randomUUID().toString())
+                    .put("sessionID", "sessionId")
+                    .put("userID", "userId")
+                    .put("eventParams", JSONObject()
+                            .put("missionName", "Mission01")
+                            .put("missionID", "M001")
+                            .put("isTutorial", false)
+                            .put("missionDifficulty", "EASY")
+                            .put("missionLevel", 12)
+                            .put("missionProgress", 0.25)
+                            .put("platform", "ANDROID")
+                            .put("sdkVersion", "sdkVersion"))
+            event.toString().toByteArray(Charset.forName("UTF-8"))
+        }
+        val encoder = {
+            uut.encode("missionStarted", params(), "userId", "sessionId")
+        }
+        val eventTemplate = EventTemplate(object : Event<Nothing>(
+                "missionStarted",
+                params().put("missionLevel", 0)) {})
+        val template = {
+            uut.encode(
+                    eventTemplate,
+                    Params().put("missionLevel", 12),
+                    "userId",
+                    "sessionId")
+        }
+        
+        val events = 20000
+        (1..2000).forEach { legacy(); encoder(); template() }
+        
+        report("legacy", events, legacy)
+        report("encoder", events, encoder)
+        report("template", events, template)
+    }
+    
+    private fun report(name: String, events: Int, action: () -> ByteArray) {
+        val bean = ManagementFactory.getThreadMXBean()
+        val allocations = bean is com.sun.management.ThreadMXBean
+                && bean.isThreadAllocatedMemorySupported
+        val thread = Thread.currentThread().id
+        
+        val bytes = if (allocations)
+            (bean as com.sun.management.ThreadMXBean).getThreadAllocatedBytes(thread)
+            else 0L
+        val start = System.nanoTime()
+        (1..events).forEach { action() }
+        val nanos = System.nanoTime() - start
+        val allocated = if (allocations)
+            (bean as com.sun.management.ThreadMXBean).getThreadAllocatedBytes(thread) - bytes
+            else -1L
+        
+        println(String.format(
+                Locale.US,
+                "%s: %.0f events/s, %d bytes allocated per event",
+                name,
+                events / (nanos / 1e9),
+                if (allocated >= 0) allocated / events else -1))
+    }
+    
+    private fun decode(bytes: ByteArray) =
+            JSONObject(String(bytes, Charset.forName("UTF-8")))
+    
+    companion object {
+        
+        private val TIMESTAMP =
+                "\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{3}"
+        private val UUID_V4 =
+                "[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}"
+    }
+}
@@ -17,6 +17,7 @@
 package com.deltadna.android.sdk
 
 import com.deltadna.android.sdk.helpers.EngageArchive
+import com.deltadna.android.sdk.helpers.Settings
 import com.deltadna.android.sdk.listeners.EngageListener
 import com.deltadna.android.sdk.listeners.RequestListener
 import com.deltadna.android.sdk.net.NetworkManager
@@ -29,7 +30,10 @@ import org.junit.After
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.mockito.ArgumentCaptor
 import org.mockito.runners.MockitoJUnitRunner
+import java.io.OutputStream
+import java.util.concurrent.Executor
 
 @RunWith(MockitoJUnitRunner::class)
 class EventHandlerTest {
@@ -42,7 +46,11 @@ class EventHandlerTest {
     
     @Before
     fun before() {
-        uut = EventHandler(store, archive, network)
+        uut = EventHandler(
+                store,
+                archive,
+                network,
+                Settings())
     }
     
     @After
@@ -67,17 +75,18 @@ class EventHandlerTest {
         
         verify(store, times(3)).items()
         var run: Int = 0
-        verify(network, times(2)).collect(
-                argThat {
-                    assertThat(toString()).isEqualTo(
+        verify(network, times(2)).collectBulk(
+                argThat<ByteArray> {
+                    assertThat(String(this)).isEqualTo(
                             when (run) {
                                 0 -> "{\"eventList\":[{\"value\":0},{\"value\":1}]}"
                                 1 -> "{\"eventList\":[{\"value\":0}]}"
-                                else -> toString()
+                                else -> String(this)
                             })
                     run++
                     true
                 },
+                any(),
                 any())
     }
     
@@ -88,7 +97,7 @@ class EventHandlerTest {
         Thread.sleep(2200)
         
         verify(store, never()).items()
-        verify(network, never()).collect(any(), any())
+        verify(network, never()).collectBulk(any(), any(), any())
     }
     
     @Test
@@ -101,18 +110,66 @@ class EventHandlerTest {
             Thread.sleep(2200)
             
             verify(store).items()
-            verify(network).collect(
+            verify(network).collectBulk(
+                    com.nhaarman.mockito_kotlin.any(),
                     com.nhaarman.mockito_kotlin.any(),
                     com.nhaarman.mockito_kotlin.any())
         }
     }
     
+    @Test
+    fun uploadsCountedInMetrics() {
+        whenever(store.counters).thenReturn(StoreCounters())
+        withStoreEvents(listOf("{\"value\":0}", "{\"value\":1}")) {
+            withListeners() { onCompleted(Response(200, null, null, null)) }
+            
+            uut!!.dispatch()
+            Thread.sleep(200)
+            
+            with(uut!!.metrics) {
+                assertThat(uploads).isEqualTo(1)
+                assertThat(uploadedEvents).isEqualTo(2)
+                assertThat(uploadedBytes).isEqualTo(
+                        "{\"eventList\":[{\"value\":0},{\"value\":1}]}".length.toLong())
+                assertThat(batchSizes.getCount(2)).isEqualTo(1)
+                assertThat(ackLatency.total).isEqualTo(1)
+            }
+        }
+    }
+    
     @Test
     fun handleEvent() {
         with(JSONObject()) {
             uut!!.handleEvent(this)
             
-            verify(store).add(eq(toString()))
+            verify(store, timeout(1000)).add(
+                    argThat<Array<ByteArray>> {
+                        size == 1 && String(this[0]) == this@with.toString()
+                    },
+                    eq(arrayOf(Event.Priority.NORMAL)))
+        }
+    }
+    
+    @Test
+    fun handleEncodedEvent() {
+        with(byteArrayOf(1, 2, 3)) {
+            uut!!.handleEvent(this)
+            
+            verify(store, timeout(1000)).add(
+                    argThat<Array<ByteArray>> {
+                        size == 1 && this[0] === this@with
+                    },
+                    eq(arrayOf(Event.Priority.NORMAL)))
+        }
+    }
+    
+    @Test
+    fun handleEncodedEvents() {
+        with(arrayOf(byteArrayOf(1), byteArrayOf(2))) {
+            val priorities = arrayOf(Event.Priority.HIGH, Event.Priority.LOW)
+            uut!!.handleEvents(this, priorities)
+            
+            verify(store, timeout(1000)).add(same(this), same(priorities))
         }
     }
     
@@ -121,15 +178,17 @@ class EventHandlerTest {
         val engagement = KEngagement("point", "flavour")
         val listener = mock<EngageListener<KEngagement>>()
         val result = JSONObject().put("result", 1)
-        whenever(network.engage(any(), any())).thenAnswer {
+        val bytes = result.toString().toByteArray()
+        whenever(network.engage(any(), any(), any())).thenAnswer {
             (it.arguments[1] as RequestListener<JSONObject>)
-                    .onCompleted(Response(200, null, result, null))
+                    .onCompleted(Response(200, bytes, result, null))
             null
         }
         
         uut!!.handleEngagement(
                 engagement,
                 listener,
+                Executor { it.run() },
                 "userId",
                 "sessionId",
                 0,
@@ -138,7 +197,7 @@ class EventHandlerTest {
         verify(archive).put(
                 eq(engagement.name),
                 eq(engagement.flavour!!),
-                eq(result.toString()))
+                same(bytes))
         verify(listener).onCompleted( argThat {
             assertThat(this).isSameAs(engagement)
             assertThat(this.statusCode).isEqualTo(200)
@@ -153,7 +212,7 @@ class EventHandlerTest {
         val engagement = KEngagement("point", "flavour")
         val listener = mock<EngageListener<KEngagement>>()
         val archived = JSONObject().put("archived", 1)
-        whenever(network.engage(any(), any())).thenAnswer {
+        whenever(network.engage(any(), any(), any())).thenAnswer {
             (it.arguments[1] as RequestListener<*>).onError(Exception())
             null
         }
@@ -165,6 +224,7 @@ class EventHandlerTest {
         uut!!.handleEngagement(
                 engagement,
                 listener,
+                Executor { it.run() },
                 "userId",
                 "sessionId",
                 0,
@@ -190,7 +250,7 @@ class EventHandlerTest {
         val engagement = KEngagement("point", "flavour")
         val listener = mock<EngageListener<KEngagement>>()
         val cause = Exception()
-        whenever(network.engage(any(), any())).thenAnswer {
+        whenever(network.engage(any(), any(), any())).thenAnswer {
             (it.arguments[1] as RequestListener<*>).onError(cause)
             null
         }
@@ -200,6 +260,7 @@ class EventHandlerTest {
         uut!!.handleEngagement(
                 engagement,
                 listener,
+                Executor { it.run() },
                 "userId",
                 "sessionId",
                 0,
@@ -208,6 +269,34 @@ class EventHandlerTest {
         verify(listener).onError(same(cause))
     }
     
+    @Test
+    fun handleEngagementOnCallbackExecutor() {
+        val engagement = KEngagement("point", "flavour")
+        val listener = mock<EngageListener<KEngagement>>()
+        val executor = mock<Executor>()
+        whenever(network.engage(any(), any(), any())).thenAnswer {
+            (it.arguments[1] as RequestListener<JSONObject>)
+                    .onCompleted(Response(200, null, JSONObject(), null))
+            null
+        }
+        
+        uut!!.handleEngagement(
+                engagement,
+                listener,
+                executor,
+                "userId",
+                "sessionId",
+                0,
+                "sdkVersion")
+        
+        verify(listener, never()).onCompleted(any())
+        with(ArgumentCaptor.forClass(Runnable::class.java)) {
+            verify(executor).execute(capture())
+            value.run()
+        }
+        verify(listener).onCompleted(same(engagement))
+    }
+    
     @Test
     fun itemsClearedOnSuccess() {
         withStoreEvents(listOf("0")) {
@@ -267,14 +356,78 @@ class EventHandlerTest {
             uut!!.start(0, 1)
             Thread.sleep(500)
             
-            verify(network).collect(
-                    argThat { toString().equals("{\"eventList\":[0,2]}") },
+            verify(network).collectBulk(
+                    argThat<ByteArray> { String(this) == "{\"eventList\":[0,2]}" },
+                    any(),
                     any())
             verify(this, times(3)).next()
             verify(this).close(eq(true))
         }
     }
     
+    @Test
+    fun uploadsDoNotOverlap() {
+        withStoreEvents(listOf("0"), listOf("1")) {
+            var listener: RequestListener<Void>? = null
+            whenever(network.collectBulk(
+                    com.nhaarman.mockito_kotlin.any(),
+                    com.nhaarman.mockito_kotlin.any(),
+                    com.nhaarman.mockito_kotlin.any())).thenAnswer {
+                listener = it.arguments[1] as RequestListener<Void>
+                null
+            }
+            
+            uut!!.dispatch()
+            Thread.sleep(200)
+            uut!!.dispatch()
+            Thread.sleep(200)
+            
+            verify(store).items()
+            verify(network).collectBulk(
+                    com.nhaarman.mockito_kotlin.any(),
+                    com.nhaarman.mockito_kotlin.any(),
+                    com.nhaarman.mockito_kotlin.any())
+            verify(this[0], never()).close(com.nhaarman.mockito_kotlin.any())
+            
+            listener!!.onCompleted(Response(200, null, null, null))
+            Thread.sleep(200)
+            verify(this[0]).close(eq(true))
+            
+            uut!!.dispatch()
+            Thread.sleep(200)
+            verify(store, times(2)).items()
+        }
+    }
+    
+    @Test
+    fun uploadsRecoverFromFailedReads() {
+        var closed: Boolean? = null
+        val failing = object : StoredEventsIterator(listOf("0")) {
+            override fun next() = throw IllegalStateException()
+            override fun close(clear: Boolean) {
+                closed = clear
+            }
+        }
+        val working = spy(StoredEventsIterator(listOf("1")))
+        whenever(store.items()).thenReturn(failing, working)
+        withListeners { onCompleted(Response(200, null, null, null)) }
+        
+        uut!!.dispatch()
+        Thread.sleep(200)
+        
+        assertThat(closed).isFalse()
+        verify(network, never()).collectBulk(any(), any(), any())
+        
+        uut!!.dispatch()
+        Thread.sleep(200)
+        
+        verify(network).collectBulk(
+                argThat<ByteArray> { String(this) == "{\"eventList\":[1]}" },
+                any(),
+                any())
+        verify(working).close(eq(true))
+    }
+    
     private fun withStoreEvents(
             vararg items: List<String>,
             block: List<CloseableIterator<EventStoreItem>>.() -> Unit = {}) {
@@ -299,7 +452,7 @@ class EventHandlerTest {
     }
     
     private fun withListeners(action: RequestListener<Any>.() -> Unit) {
-        whenever(network.collect(any(), any())).thenAnswer {
+        whenever(network.collectBulk(any(), any(), any())).thenAnswer {
             action.invoke(it.arguments[1] as RequestListener<Any>)
             null
         }
@@ -332,6 +485,10 @@ class EventHandlerTest {
             private val availability: Boolean) : EventStoreItem {
         override fun available() = availability
         override fun get() = value
+        override fun writeTo(out: OutputStream): Boolean {
+            if (value != null) out.write(value.toByteArray())
+            return value != null
+        }
     }
     
     open class KEngagement : Engagement<KEngagement> {
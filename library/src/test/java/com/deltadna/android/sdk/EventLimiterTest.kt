@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk
+
+import com.deltadna.android.sdk.helpers.Settings
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+@RunWith(JUnit4::class)
+class EventLimiterTest {
+    
+    private val settings = Settings()
+    private val uut = EventLimiter(settings)
+    
+    @Test
+    fun allowsWithoutLimits() {
+        (1..1000).forEach { assertThat(uut.allow("event")).isTrue() }
+        
+        assertThat(uut.summary()).isNull()
+    }
+    
+    @Test
+    fun sampling() {
+        settings.setEventSampleRate("sampled", 0.1)
+        
+        val allowed = (1..10000).count { uut.allow("sampled") }
+        assertThat(allowed).isGreaterThan(500)
+        assertThat(allowed).isLessThan(1500)
+        (1..100).forEach { assertThat(uut.allow("other")).isTrue() }
+        
+        with(uut.summary()!!) {
+            assertThat(name).isEqualTo(EventLimiter.SUMMARY_EVENT)
+            with(params.toJson().getJSONObject("droppedEvents")) {
+                assertThat(length()).isEqualTo(1)
+                assertThat(getJSONObject("sampled").getLong("sampled"))
+                        .isEqualTo(10000L - allowed)
+                assertThat(getJSONObject("sampled").getLong("rateLimited"))
+                        .isEqualTo(0L)
+            }
+        }
+        assertThat(uut.summary()).isNull()
+    }
+    
+    @Test
+    fun samplingDropsAll() {
+        settings.setEventSampleRate("event", 0.0)
+        
+        (1..100).forEach { assertThat(uut.allow("event")).isFalse() }
+    }
+    
+    @Test
+    fun rateLimitAllowsBurst() {
+        settings.setEventRateLimit("limited", 0.001, 10)
+        
+        assertThat((1..100).count { uut.allow("limited") }).isEqualTo(10)
+        assertThat(uut.allow("other")).isTrue()
+        
+        with(uut.summary()!!.params.toJson().getJSONObject("droppedEvents")) {
+            assertThat(getJSONObject("limited").getLong("rateLimited"))
+                    .isEqualTo(90L)
+        }
+    }
+    
+    @Test
+    fun rateLimitRefills() {
+        settings.setEventRateLimit("limited", 100.0, 1)
+        
+        assertThat(uut.allow("limited")).isTrue()
+        assertThat(uut.allow("limited")).isFalse()
+        
+        Thread.sleep(50)
+        assertThat(uut.allow("limited")).isTrue()
+    }
+    
+    @Test
+    fun rateLimitAcrossThreads() {
+        settings.setEventRateLimit("limited", 0.001, 100)
+        
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+            val allowed = executor.invokeAll((1..4).map {
+                Callable { (1..1000).count { uut.allow("limited") } }
+            }).sumBy { it.get() }
+            
+            assertThat(allowed).isEqualTo(100)
+        } finally {
+            executor.shutdown()
+        }
+        
+        with(uut.summary()!!.params.toJson().getJSONObject("droppedEvents")) {
+            assertThat(getJSONObject("limited").getLong("rateLimited"))
+                    .isEqualTo(3900L)
+        }
+        assertThat(uut.summary()).isNull()
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk
+
+import com.deltadna.android.sdk.helpers.Settings.EventQueueOverflow.*
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnit4::class)
+class EventQueueTest {
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun capacityMustBePositive() {
+        EventQueue<String>(0, DROP_NEWEST, 0)
+    }
+    
+    @Test
+    fun capacityRoundedToPowerOfTwo() {
+        assertThat(EventQueue<String>(1, DROP_NEWEST, 0).capacity()).isEqualTo(2)
+        assertThat(EventQueue<String>(2, DROP_NEWEST, 0).capacity()).isEqualTo(2)
+        assertThat(EventQueue<String>(3, DROP_NEWEST, 0).capacity()).isEqualTo(4)
+        assertThat(EventQueue<String>(1000, DROP_NEWEST, 0).capacity()).isEqualTo(1024)
+    }
+    
+    @Test
+    fun offerAndPollInOrder() {
+        with(EventQueue<String>(4, DROP_NEWEST, 0)) {
+            assertThat(poll()).isNull()
+            
+            assertThat(offer("1")).isTrue()
+            assertThat(offer("2")).isTrue()
+            assertThat(size()).isEqualTo(2)
+            
+            assertThat(poll()).isEqualTo("1")
+            assertThat(poll()).isEqualTo("2")
+            assertThat(poll()).isNull()
+            assertThat(size()).isEqualTo(0)
+        }
+    }
+    
+    @Test
+    fun wrapsAround() {
+        with(EventQueue<Int>(2, DROP_NEWEST, 0)) {
+            (1..10).forEach {
+                assertThat(offer(it)).isTrue()
+                assertThat(poll()).isEqualTo(it)
+            }
+        }
+    }
+    
+    @Test
+    fun dropNewest() {
+        with(EventQueue<String>(2, DROP_NEWEST, 0)) {
+            assertThat(offer("1")).isTrue()
+            assertThat(offer("2")).isTrue()
+            assertThat(offer("3")).isFalse()
+            
+            assertThat(dropped).isEqualTo(1)
+            assertThat(highWaterMark).isEqualTo(2)
+            assertThat(poll()).isEqualTo("1")
+            assertThat(poll()).isEqualTo("2")
+            assertThat(poll()).isNull()
+        }
+    }
+    
+    @Test
+    fun dropOldest() {
+        with(EventQueue<String>(2, DROP_OLDEST, 0)) {
+            assertThat(offer("1")).isTrue()
+            assertThat(offer("2")).isTrue()
+            assertThat(offer("3")).isTrue()
+            
+            assertThat(dropped).isEqualTo(1)
+            assertThat(poll()).isEqualTo("2")
+            assertThat(poll()).isEqualTo("3")
+            assertThat(poll()).isNull()
+        }
+    }
+    
+    @Test
+    fun blockTimesOut() {
+        with(EventQueue<String>(2, BLOCK, 50)) {
+            assertThat(offer("1")).isTrue()
+            assertThat(offer("2")).isTrue()
+            
+            val start = System.nanoTime()
+            assertThat(offer("3")).isFalse()
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                    .isAtLeast(50L)
+            assertThat(dropped).isEqualTo(1)
+        }
+    }
+    
+    @Test
+    fun blockWaitsForSpace() {
+        with(EventQueue<String>(2, BLOCK, 5000)) {
+            assertThat(offer("1")).isTrue()
+            assertThat(offer("2")).isTrue()
+            
+            Thread(Runnable {
+                Thread.sleep(50)
+                poll()
+            }).start()
+            
+            assertThat(offer("3")).isTrue()
+            assertThat(dropped).isEqualTo(0)
+            assertThat(poll()).isEqualTo("2")
+            assertThat(poll()).isEqualTo("3")
+        }
+    }
+    
+    @Test
+    fun takeWakesUpOnOffer() {
+        with(EventQueue<String>(4, DROP_NEWEST, 0)) {
+            Thread(Runnable {
+                Thread.sleep(100)
+                offer("1")
+            }).start()
+            
+            val start = System.nanoTime()
+            var element: String? = null
+            // parking may return early, such as due to a stale permit
+            while (element == null) element = take(TimeUnit.SECONDS.toNanos(10))
+            assertThat(element).isEqualTo("1")
+            assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start))
+                    .isLessThan(5L)
+        }
+    }
+    
+    @Test
+    fun takeTimesOut() {
+        with(EventQueue<String>(4, DROP_NEWEST, 0)) {
+            assertThat(take(TimeUnit.MILLISECONDS.toNanos(10))).isNull()
+        }
+    }
+    
+    @Test
+    fun multipleProducersSingleConsumer() {
+        val producers = 4
+        val perProducer = 10000
+        val uut = EventQueue<Int>(64, BLOCK, 10000)
+        val start = CountDownLatch(1)
+        
+        (0..producers - 1).forEach { p ->
+            Thread(Runnable {
+                start.await()
+                (0..perProducer - 1).forEach { uut.offer(p * perProducer + it) }
+            }).start()
+        }
+        start.countDown()
+        
+        val received = ArrayList<Int>()
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30)
+        while (     received.size < producers * perProducer
+                &&  System.nanoTime() < deadline) {
+            val element = uut.take(TimeUnit.MILLISECONDS.toNanos(100))
+            if (element != null) received.add(element)
+        }
+        
+        assertThat(uut.dropped).isEqualTo(0)
+        assertThat(uut.highWaterMark).isAtMost(64L)
+        assertThat(HashSet(received)).hasSize(producers * perProducer)
+        // each producer's elements arrive in order
+        (0..producers - 1).forEach { p ->
+            val own = received.filter { it / perProducer == p }
+            assertThat(own).isOrdered()
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk
+
+import com.google.common.truth.Truth.assertThat
+import org.json.JSONObject
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.nio.charset.Charset
+
+@RunWith(JUnit4::class)
+class EventTemplateTest {
+    
+    private val encoder = EventEncoder("ANDROID", "sdkVersion")
+    
+    @Test
+    fun ctor() {
+        with(EventTemplate(KEvent("name").setPriority(Event.Priority.HIGH))) {
+            assertThat(getName()).isEqualTo("name")
+            assertThat(getPriority()).isEqualTo(Event.Priority.HIGH)
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun ctorEventCannotBeNull() {
+        EventTemplate(null)
+    }
+    
+    @Test
+    fun encode() {
+        val uut = EventTemplate(KEvent("levelUp")
+                .putParam("a", 1)
+                .putParam("b", "two")
+                .putParam("c", Params().put("d", true)))
+        
+        with(encoded(uut, null)) {
+            assertThat(getString("eventName")).isEqualTo("levelUp")
+            
+            with(getJSONObject("eventParams")) {
+                assertThat(getInt("a")).isEqualTo(1)
+                assertThat(getString("b")).isEqualTo("two")
+                assertThat(getJSONObject("c").getBoolean("d")).isTrue()
+                assertThat(getString("platform")).isEqualTo("ANDROID")
+                assertThat(getString("sdkVersion")).isEqualTo("sdkVersion")
+                assertThat(length()).isEqualTo(5)
+            }
+        }
+    }
+    
+    @Test
+    fun encodeWithoutParams() {
+        with(encoded(EventTemplate(KEvent("name")), Params().put("a", 1))) {
+            assertThat(getJSONObject("eventParams").toString()).isEqualTo(
+                    JSONObject()
+                            .put("a", 1)
+                            .put("platform", "ANDROID")
+                            .put("sdkVersion", "sdkVersion")
+                            .toString())
+        }
+    }
+    
+    @Test
+    fun encodeWithOverrides() {
+        val uut = EventTemplate(KEvent("name")
+                .putParam("a", 1)
+                .putParam("b", 2)
+                .putParam("c", 3))
+        
+        (listOf("a", "b", "c")).forEach { key ->
+            with(encoded(uut, Params().put(key, 10).put("d", 4))) {
+                with(getJSONObject("eventParams")) {
+                    assertThat(getInt(key)).isEqualTo(10)
+                    assertThat(getInt("d")).isEqualTo(4)
+                    assertThat(length()).isEqualTo(6)
+                }
+            }
+        }
+        
+        with(encoded(uut, Params().put("a", 10).put("b", 20).put("c", 30))) {
+            with(getJSONObject("eventParams")) {
+                assertThat(getInt("a")).isEqualTo(10)
+                assertThat(getInt("b")).isEqualTo(20)
+                assertThat(getInt("c")).isEqualTo(30)
+                assertThat(length()).isEqualTo(5)
+            }
+        }
+    }
+    
+    @Test
+    fun encodeIgnoresReservedParams() {
+        val uut = EventTemplate(KEvent("name").putParam("platform", "other"))
+        
+        with(encoded(uut, Params().put("sdkVersion", "other"))) {
+            with(getJSONObject("eventParams")) {
+                assertThat(getString("platform")).isEqualTo("ANDROID")
+                assertThat(getString("sdkVersion")).isEqualTo("sdkVersion")
+                assertThat(length()).isEqualTo(2)
+            }
+        }
+    }
+    
+    @Test
+    fun notAffectedByChangesToEvent() {
+        val event = KEvent("name").putParam("a", 1)
+        val uut = EventTemplate(event)
+        
+        event.putParam("a", 2).putParam("b", 3)
+        
+        with(encoded(uut, null).getJSONObject("eventParams")) {
+            assertThat(getInt("a")).isEqualTo(1)
+            assertThat(has("b")).isFalse()
+        }
+    }
+    
+    @Test
+    fun toEvent() {
+        val uut = EventTemplate(KEvent("name")
+                .putParam("a", 1)
+                .putParam("b", 2)
+                .setPriority(Event.Priority.LOW))
+        
+        with(uut.toEvent(Params().put("b", 20).put("c", 30))) {
+            assertThat(name).isEqualTo("name")
+            assertThat(priority).isEqualTo(Event.Priority.LOW)
+            assertThat(params.toJson().toString()).isEqualTo(
+                    JSONObject().put("a", 1).put("b", 20).put("c", 30).toString())
+        }
+    }
+    
+    private fun encoded(template: EventTemplate, overrides: Params?) =
+            JSONObject(String(
+                    encoder.encode(template, overrides, "userId", "sessionId"),
+                    Charset.forName("UTF-8")))
+    
+    private class KEvent(name: String) : Event<KEvent>(name)
+}
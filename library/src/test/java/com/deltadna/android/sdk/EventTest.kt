@@ -56,17 +56,31 @@ class EventTest {
         with(KEvent("name")) {
             putParam("key", "value")
             
-            assertThat(params.json.get("key")).isEqualTo("value")
+            assertThat(params.toJson().get("key")).isEqualTo("value")
             
             val params = Params()
             params.put("param", "value")
             putParam("params", params)
             
-            assertThat(this.params.json.getJSONObject("params").get("param"))
+            assertThat(this.params.toJson().getJSONObject("params").get("param"))
                     .isEqualTo("value")
         }
     }
     
+    @Test(expected = IllegalArgumentException::class)
+    fun priorityCannotBeNull() {
+        KEvent("name").setPriority(null)
+    }
+    
+    @Test
+    fun priority() {
+        with(KEvent("name")) {
+            assertThat(priority).isEqualTo(Event.Priority.NORMAL)
+            assertThat(setPriority(Event.Priority.LOW).priority)
+                    .isEqualTo(Event.Priority.LOW)
+        }
+    }
+    
     private class KEvent : Event<KEvent> {
         constructor(name: String?) : super(name)
         constructor(name: String?, params: Params?) : super(name, params)
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk
+
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockito_kotlin.mock
+import com.nhaarman.mockito_kotlin.never
+import com.nhaarman.mockito_kotlin.verify
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+class InitialiserTest {
+    
+    @Test
+    fun runsPhasesInOrderOffTheCallingThread() {
+        val caller = Thread.currentThread()
+        val ran = Collections.synchronizedList(ArrayList<String>())
+        val threads = Collections.synchronizedSet(HashSet<Thread>())
+        val completion = mock<Runnable>()
+        
+        val uut = Initialiser(completion)
+                .phase("first", Runnable {
+                    ran.add("first")
+                    threads.add(Thread.currentThread())
+                })
+                .phase("second", Runnable {
+                    ran.add("second")
+                    threads.add(Thread.currentThread())
+                })
+        uut.start().get(5, TimeUnit.SECONDS)
+        
+        assertThat(uut.isDone).isTrue()
+        assertThat(ran).containsExactly("first", "second").inOrder()
+        assertThat(threads).doesNotContain(caller)
+        assertThat(uut.timings.keys).containsExactly("first", "second").inOrder()
+        verify(completion).run()
+    }
+    
+    @Test
+    fun failureStopsLaterPhases() {
+        val completion = mock<Runnable>()
+        val later = mock<Runnable>()
+        
+        val uut = Initialiser(completion)
+                .phase("failing", Runnable { throw IllegalStateException() })
+                .phase("later", later)
+        
+        try {
+            uut.start().get(5, TimeUnit.SECONDS)
+            throw AssertionError("expected failure")
+        } catch (e: ExecutionException) {
+            assertThat(e.cause).isInstanceOf(IllegalStateException::class.java)
+        }
+        
+        verify(later, never()).run()
+        verify(completion, never()).run()
+        assertThat(uut.timings).isEmpty()
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun phaseNameCannotBeEmpty() {
+        Initialiser(mock()).phase("", mock())
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import org.w3c.dom.Element
+import java.io.File
+import javax.xml.parsers.DocumentBuilderFactory
+
+@RunWith(JUnit4::class)
+class Iso4217Test {
+    
+    @Test
+    fun minorUnits() {
+        assertThat(Iso4217.minorUnits("AED")).isEqualTo(2)
+        assertThat(Iso4217.minorUnits("EUR")).isEqualTo(2)
+        assertThat(Iso4217.minorUnits("JPY")).isEqualTo(0)
+        assertThat(Iso4217.minorUnits("KWD")).isEqualTo(3)
+        assertThat(Iso4217.minorUnits("CLF")).isEqualTo(4)
+        assertThat(Iso4217.minorUnits("XAU")).isEqualTo(0)
+        assertThat(Iso4217.minorUnits("ZWL")).isEqualTo(2)
+    }
+    
+    @Test
+    fun unknownCurrencies() {
+        assertThat(Iso4217.minorUnits("ZZZ")).isEqualTo(-1)
+        assertThat(Iso4217.minorUnits("eur")).isEqualTo(-1)
+        assertThat(Iso4217.minorUnits("EU")).isEqualTo(-1)
+        assertThat(Iso4217.minorUnits("EURO")).isEqualTo(-1)
+        assertThat(Iso4217.minorUnits("EŕR")).isEqualTo(-1)
+    }
+    
+    @Test
+    fun matchesPublishedList() {
+        val entries = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder()
+                .parse(File("../scripts/iso_4217.xml"))
+                .getElementsByTagName("CcyNtry")
+        
+        var checked = 0
+        (0..entries.length - 1).forEach {
+            val entry = entries.item(it) as Element
+            val codes = entry.getElementsByTagName("Ccy")
+            if (codes.length > 0) {
+                val text = entry.getElementsByTagName("CcyMnrUnts")
+                        .item(0).textContent
+                val units = if (text.all { it.isDigit() }) text.toInt() else 0
+                
+                assertThat(Iso4217.minorUnits(codes.item(0).textContent))
+                        .isEqualTo(units)
+                checked++
+            }
+        }
+        assertThat(checked).isGreaterThan(250)
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk
+
+import com.deltadna.android.sdk.helpers.Utils
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.io.IOException
+
+@RunWith(RobolectricTestRunner::class)
+class LegacyEventReaderTest {
+    
+    private val file = File.createTempFile("ddnasdk-test-", ".tmp")
+    
+    @After
+    fun after() {
+        file.delete()
+    }
+    
+    @Test
+    fun readsRecords() {
+        write("1", "two", "")
+        
+        with(LegacyEventReader(file, 0, 1024)) {
+            assertThat(String(next()!!)).isEqualTo("1")
+            assertThat(position()).isEqualTo(5L)
+            assertThat(String(next()!!)).isEqualTo("two")
+            assertThat(String(next()!!)).isEqualTo("")
+            assertThat(next()).isNull()
+            assertThat(position()).isEqualTo(file.length())
+            close()
+        }
+    }
+    
+    @Test
+    fun resumesFromPosition() {
+        write("1", "2", "3")
+        
+        val position = with(LegacyEventReader(file, 0, 1024)) {
+            next()
+            next()
+            close()
+            position()
+        }
+        
+        with(LegacyEventReader(file, position, 1024)) {
+            assertThat(String(next()!!)).isEqualTo("3")
+            assertThat(next()).isNull()
+            close()
+        }
+    }
+    
+    @Test
+    fun skipsRecordsOverLimit() {
+        write("1", "too long", "2")
+        
+        with(LegacyEventReader(file, 0, 4)) {
+            assertThat(String(next()!!)).isEqualTo("1")
+            assertThat(String(next()!!)).isEqualTo("2")
+            assertThat(next()).isNull()
+            assertThat(skipped()).isEqualTo(1)
+            close()
+        }
+    }
+    
+    @Test
+    fun stopsAtTruncatedRecord() {
+        write("1")
+        file.appendBytes(Utils.toBytes(10) + "short".toByteArray())
+        
+        with(LegacyEventReader(file, 0, 1024)) {
+            assertThat(String(next()!!)).isEqualTo("1")
+            assertThat(next()).isNull()
+            assertThat(position()).isEqualTo(5L)
+            close()
+        }
+    }
+    
+    @Test(expected = IOException::class)
+    fun offsetPastEnd() {
+        write("1")
+        
+        LegacyEventReader(file, 100, 1024)
+    }
+    
+    private fun write(vararg records: String) {
+        file.writeBytes(ByteArray(0))
+        records.forEach {
+            file.appendBytes(Utils.toBytes(it.length) + it.toByteArray())
+        }
+    }
+}
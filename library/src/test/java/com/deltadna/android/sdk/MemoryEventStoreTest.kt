@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk
+
+import com.deltadna.android.sdk.Event.Priority.*
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.ByteArrayOutputStream
+
+@RunWith(JUnit4::class)
+class MemoryEventStoreTest {
+    
+    private var uut = MemoryEventStore(10)
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun limitMustBePositive() {
+        MemoryEventStore(0)
+    }
+    
+    @Test
+    fun itemsAddedAndRetrievable() {
+        add("1", "2", "3")
+        
+        with(uut.items()) {
+            listOf("1", "2", "3").forEach {
+                with(next()) {
+                    assertThat(available()).isTrue()
+                    assertThat(get()).isEqualTo(it)
+                }
+            }
+            assertThat(hasNext()).isFalse()
+        }
+    }
+    
+    @Test
+    fun itemsWrittenToStream() {
+        add("1")
+        
+        val out = ByteArrayOutputStream()
+        assertThat(uut.items().next().writeTo(out)).isTrue()
+        assertThat(String(out.toByteArray())).isEqualTo("1")
+    }
+    
+    @Test
+    fun itemsRetrievedByPriority() {
+        add(LOW, "1")
+        add(NORMAL, "2")
+        add(HIGH, "3")
+        add(NORMAL, "4")
+        
+        assertThat(contents()).containsExactly("3", "2", "4", "1").inOrder()
+    }
+    
+    @Test
+    fun itemsRetrievedUpToLimit() {
+        uut = MemoryEventStore(EventStore.EVENTS_LIMIT * 2L)
+        val large = "a".repeat(EventStore.EVENTS_LIMIT / 2 + 1)
+        add(large, large)
+        
+        with(uut.items()) {
+            next()
+            assertThat(hasNext()).isFalse()
+            close(true)
+        }
+        with(uut.items()) {
+            next()
+            assertThat(hasNext()).isFalse()
+            close(true)
+        }
+        assertThat(uut.items().hasNext()).isFalse()
+    }
+    
+    @Test
+    fun oversizeItemNotAdded() {
+        uut = MemoryEventStore(EventStore.EVENTS_LIMIT * 2L)
+        uut.add(
+                arrayOf(ByteArray(EventStore.EVENTS_LIMIT + 1), "1".toByteArray()),
+                arrayOf(NORMAL, NORMAL))
+        
+        assertThat(contents()).containsExactly("1")
+        assertThat(uut.getDropped(NORMAL)).isEqualTo(1)
+    }
+    
+    @Test
+    fun groupNotAddedWhenItDoesNotFit() {
+        add("12345", "6789")
+        add("ab", "cd")
+        
+        assertThat(contents()).containsExactly("12345", "6789").inOrder()
+        assertThat(uut.getDropped(NORMAL)).isEqualTo(2)
+        assertThat(uut.getEvicted(NORMAL)).isEqualTo(0)
+    }
+    
+    @Test
+    fun lowerPriorityEvictedWhenFull() {
+        add(LOW, "1234")
+        add(NORMAL, "5678")
+        add(HIGH, "abcd")
+        
+        assertThat(contents()).containsExactly("abcd", "5678").inOrder()
+        assertThat(uut.getEvicted(LOW)).isEqualTo(1)
+        assertThat(uut.getDropped(HIGH)).isEqualTo(0)
+    }
+    
+    @Test
+    fun notEvictedWhenNotEnoughSpaceCanBeMade() {
+        add(LOW, "12")
+        add(NORMAL, "345678")
+        add(NORMAL, "abcde")
+        
+        assertThat(contents()).containsExactly("345678", "12").inOrder()
+        assertThat(uut.getEvicted(LOW)).isEqualTo(0)
+        assertThat(uut.getDropped(NORMAL)).isEqualTo(1)
+    }
+    
+    @Test
+    fun itemsNotRemovedOnCloseWithoutClear() {
+        add("1", "2")
+        uut.items().close(false)
+        
+        assertThat(contents()).containsExactly("1", "2").inOrder()
+    }
+    
+    @Test
+    fun itemsRemovedOnCloseWithClear() {
+        add("12345", "67890")
+        val batch = uut.items()
+        add("a")
+        assertThat(uut.getDropped(NORMAL)).isEqualTo(1)
+        
+        batch.close(true)
+        add("a")
+        
+        assertThat(contents()).containsExactly("a")
+    }
+    
+    @Test
+    fun evictedItemsSkippedOnCloseWithClear() {
+        add(LOW, "1234")
+        add(NORMAL, "5678")
+        val batch = uut.items()
+        add(HIGH, "ab", "cd")
+        add(NORMAL, "e")
+        
+        batch.close(true)
+        
+        assertThat(contents()).containsExactly("ab", "cd", "e").inOrder()
+        assertThat(uut.getEvicted(LOW)).isEqualTo(1)
+    }
+    
+    @Test
+    fun clear() {
+        add("1", "2", "3")
+        uut.clear()
+        
+        assertThat(uut.items().hasNext()).isFalse()
+        add("1234567890")
+        assertThat(contents()).containsExactly("1234567890")
+    }
+    
+    private fun add(vararg events: String) = add(NORMAL, *events)
+    
+    private fun add(priority: Event.Priority, vararg events: String) {
+        uut.add(
+                events.map { it.toByteArray() }.toTypedArray(),
+                Array(events.size) { priority })
+    }
+    
+    private fun contents(): List<String> {
+        val items = uut.items()
+        val result = mutableListOf<String>()
+        while (items.hasNext()) result.add(items.next().get()!!)
+        items.close(false)
+        return result
+    }
+}
@@ -18,6 +18,7 @@ package com.deltadna.android.sdk
 
 import com.google.common.truth.Truth.assertThat
 import com.nhaarman.mockito_kotlin.*
+import org.json.JSONArray
 import org.json.JSONObject
 import org.junit.After
 import org.junit.Before
@@ -77,4 +78,105 @@ class ParamsTest {
         assertThat(uut!!.isEmpty).isTrue()
         assertThat(uut!!.isEmpty).isFalse()
     }
+    
+    @Test
+    fun compactKeepsOrderAndOverwrites() {
+        with(Params().put("a", 1).put("b", "x").put("c", true).put("a", 2)) {
+            assertThat(written(this)).isEqualTo("{\"a\":2,\"b\":\"x\",\"c\":true}")
+        }
+    }
+    
+    @Test
+    fun compactRemovesNullValues() {
+        with(Params().put("a", 1).put("b", 2).put("a", null as Any?)) {
+            assertThat(written(this)).isEqualTo("{\"b\":2}")
+            assertThat(isEmpty).isFalse()
+        }
+        
+        assertThat(Params().put("a", 1).put("a", null as Any?).isEmpty).isTrue()
+    }
+    
+    @Test
+    fun compactWritesSameAsJson() {
+        val nested = Params().put("n", 1)
+        val uut = Params()
+                .put("int", 1)
+                .put("long", Long.MIN_VALUE)
+                .put("float", 1.5f)
+                .put("double", 0.1)
+                .put("whole", 2.0)
+                .put("boolean", false)
+                .put("char", 'c')
+                .put("boxed", 3 as Any)
+                .put("string", "q\"\\/\n\u0001é€\uD83D\uDE00\u2028")
+                .put("nested", nested)
+                .put("product", Product().setRealCurrency("EUR", 123))
+                .put("object", JSONObject().put("k", "v"))
+                .put("array", JSONArray().put(1).put("two"))
+        
+        // nested parameters are serialised when written
+        nested.put("m", 2)
+        
+        val written = JSONObject(written(uut))
+        val json = uut.toJson()
+        assertThat(written.toString()).isEqualTo(json.toString())
+        assertThat(written.getJSONObject("nested").getInt("m")).isEqualTo(2)
+    }
+    
+    @Test
+    fun toJsonKeepsTypes() {
+        with(Params()
+                .put("int", 1)
+                .put("long", 1L)
+                .put("float", 1.5f)
+                .put("double", 1.5)
+                .put("boolean", true)
+                .toJson()) {
+            assertThat(get("int")).isInstanceOf(Integer::class.java)
+            assertThat(get("long")).isInstanceOf(java.lang.Long::class.java)
+            assertThat(get("float")).isInstanceOf(java.lang.Float::class.java)
+            assertThat(get("double")).isInstanceOf(java.lang.Double::class.java)
+            assertThat(get("boolean")).isEqualTo(true)
+        }
+    }
+    
+    @Test
+    fun toJsonIsLive() {
+        val params = Params().put("a", 1)
+        params.toJson().put("b", 2)
+        params.put("c", 3)
+        
+        assertThat(JSONObject(written(params)).toString())
+                .isEqualTo(JSONObject().put("a", 1).put("b", 2).put("c", 3).toString())
+    }
+    
+    @Test
+    fun writeFieldsSkipsExcluded() {
+        val buffer = PayloadBuffer(16)
+        
+        assertThat(Params().put("a", 1).put("b", 2).put("c", 3)
+                .writeFields(buffer, arrayOf("b")))
+                .isEqualTo(2)
+        assertThat(String(buffer.toByteArray())).isEqualTo("\"a\":1,\"c\":3")
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun putNaN() {
+        Params().put("a", Double.NaN)
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun putBoxedInfinity() {
+        Params().put("a", java.lang.Float.POSITIVE_INFINITY as Any)
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun putPrimitiveKeyCannotBeEmpty() {
+        Params().put("", 1)
+    }
+    
+    private fun written(params: Params) = with(PayloadBuffer(16)) {
+        params.writeTo(this)
+        String(toByteArray(), Charsets.UTF_8)
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deltadna.android.sdk
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+@RunWith(JUnit4::class)
+class PayloadBufferTest {
+    
+    @Test
+    fun writes() {
+        with(PayloadBuffer(0)) {
+            write('a'.toInt())
+            write("bc".toByteArray())
+            write("xdex".toByteArray(), 1, 2)
+            
+            assertThat(size()).isEqualTo(5)
+            assertThat(String(toByteArray())).isEqualTo("abcde")
+        }
+    }
+    
+    @Test
+    fun grows() {
+        with(PayloadBuffer(1)) {
+            (1..1000).forEach { write(ByteArray(100, { it.toByte() })) }
+            
+            assertThat(size()).isEqualTo(100000)
+            assertThat(toByteArray()[99999]).isEqualTo(99.toByte())
+        }
+    }
+    
+    @Test
+    fun truncates() {
+        with(PayloadBuffer(16)) {
+            write("abc".toByteArray())
+            val mark = size()
+            write("def".toByteArray())
+            truncate(mark)
+            write("g".toByteArray())
+            
+            assertThat(String(toByteArray())).isEqualTo("abcg")
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun truncateBeyondSize() {
+        PayloadBuffer(16).truncate(1)
+    }
+    
+    @Test(expected = IndexOutOfBoundsException::class)
+    fun writeOutOfBounds() {
+        PayloadBuffer(16).write(ByteArray(2), 1, 2)
+    }
+}
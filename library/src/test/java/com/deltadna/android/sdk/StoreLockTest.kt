@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.File
+
+@RunWith(JUnit4::class)
+class StoreLockTest {
+    
+    private val file = File(
+            System.getProperty("java.io.tmpdir"),
+            "ddnasdk-test-" + System.nanoTime() + "/lock")
+    
+    @After
+    fun after() {
+        file.delete()
+        file.parentFile.delete()
+    }
+    
+    @Test
+    fun exclusiveBetweenLocksForSameFile() {
+        val first = StoreLock(file, true)
+        val second = StoreLock(file, true)
+        
+        first.lock()
+        assertThat(file.exists()).isTrue()
+        assertThat(second.tryLock()).isFalse()
+        
+        first.unlock()
+        assertThat(second.tryLock()).isTrue()
+        assertThat(first.tryLock()).isFalse()
+        second.unlock()
+    }
+    
+    @Test
+    fun fileNotCreatedWhenNotShared() {
+        with(StoreLock(file, false)) {
+            lock()
+            assertThat(tryLock()).isFalse()
+            unlock()
+        }
+        
+        assertThat(file.exists()).isFalse()
+    }
+    
+    @Test
+    fun releasedFromAnotherThread() {
+        val uut = StoreLock(file, true)
+        uut.lock()
+        
+        val thread = Thread(Runnable { uut.unlock() })
+        thread.start()
+        thread.join()
+        
+        assertThat(uut.tryLock()).isTrue()
+        uut.unlock()
+    }
+    
+    @Test
+    fun lockWaitsForRelease() {
+        val uut = StoreLock(file, true)
+        uut.lock()
+        
+        Thread(Runnable {
+            Thread.sleep(50)
+            uut.unlock()
+        }).start()
+        
+        val start = System.nanoTime()
+        uut.lock()
+        assertThat(System.nanoTime() - start).isAtLeast(25 * 1000 * 1000L)
+        uut.unlock()
+    }
+}
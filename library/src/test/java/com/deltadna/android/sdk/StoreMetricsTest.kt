@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk
+
+import com.deltadna.android.sdk.Event.Priority.*
+import com.deltadna.android.sdk.StoreMetrics.Rejection.*
+import com.deltadna.android.sdk.helpers.Settings.EventQueueOverflow.DROP_NEWEST
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+@RunWith(JUnit4::class)
+class StoreMetricsTest {
+    
+    private val store = MemoryEventStore(10)
+    private val uploads = UploadCounters()
+    
+    @Test
+    fun empty() {
+        with(StoreMetrics(store, null, uploads)) {
+            assertThat(storedEvents).isEqualTo(0)
+            assertThat(storedBytes).isEqualTo(0)
+            assertThat(pendingWrites).isEqualTo(0)
+            assertThat(writes).isEqualTo(0)
+            StoreMetrics.Rejection.values().forEach {
+                assertThat(getRejected(it)).isEqualTo(0)
+            }
+            assertThat(writeLatency.total).isEqualTo(0)
+            assertThat(writeLatency.getPercentile(99.0)).isEqualTo(0)
+        }
+    }
+    
+    @Test
+    fun writes() {
+        store.add(arrayOf("12".toByteArray(), "3".toByteArray()), arrayOf(NORMAL, NORMAL))
+        store.add(arrayOf("45".toByteArray()), arrayOf(HIGH))
+        
+        with(StoreMetrics(store, null, uploads)) {
+            assertThat(storedEvents).isEqualTo(3)
+            assertThat(storedBytes).isEqualTo(5)
+            assertThat(writes).isEqualTo(2)
+            assertThat(writtenEvents).isEqualTo(3)
+            assertThat(writtenBytes).isEqualTo(5)
+            assertThat(writeLatency.total).isEqualTo(2)
+        }
+    }
+    
+    @Test
+    fun rejections() {
+        val queue = EventQueue<String>(1, DROP_NEWEST, 0)
+        (1..3).forEach { queue.offer(it.toString()) }
+        store.add(arrayOf(ByteArray(EventStore.EVENTS_LIMIT + 1)), arrayOf(NORMAL))
+        store.add(arrayOf("1234567".toByteArray()), arrayOf(LOW))
+        store.add(arrayOf("12345".toByteArray(), "6".toByteArray()), arrayOf(NORMAL, NORMAL))
+        store.add(arrayOf("12345".toByteArray()), arrayOf(NORMAL))
+        
+        with(StoreMetrics(store, queue, uploads)) {
+            assertThat(pendingWrites).isEqualTo(2)
+            assertThat(getRejected(EVENT_TOO_LARGE)).isEqualTo(1)
+            assertThat(getRejected(STORE_FULL)).isEqualTo(1)
+            assertThat(getRejected(QUEUE_FULL)).isEqualTo(1)
+            assertThat(evicted).isEqualTo(1)
+        }
+    }
+    
+    @Test
+    fun removals() {
+        with(store.counters) {
+            expired.addAndGet(3)
+            quarantined.incrementAndGet()
+            migrated.addAndGet(5)
+        }
+        
+        with(StoreMetrics(store, null, uploads)) {
+            assertThat(expired).isEqualTo(3)
+            assertThat(quarantined).isEqualTo(1)
+            assertThat(migrated).isEqualTo(5)
+        }
+    }
+    
+    @Test
+    fun uploads() {
+        uploads.onUpload(3, 100, 1500000)
+        uploads.onUpload(5, 200, 3000000)
+        
+        with(StoreMetrics(store, null, uploads)) {
+            assertThat(this.uploads).isEqualTo(2)
+            assertThat(uploadedEvents).isEqualTo(8)
+            assertThat(uploadedBytes).isEqualTo(300)
+            assertThat(batchSizes.getCount(2)).isEqualTo(1)
+            assertThat(batchSizes.getCount(3)).isEqualTo(1)
+            assertThat(ackLatency.getPercentile(50.0)).isEqualTo(2048)
+            assertThat(ackLatency.getPercentile(100.0)).isEqualTo(4096)
+        }
+    }
+    
+    @Test
+    fun writeRate() {
+        val earlier = StoreMetrics(store, null, uploads)
+        Thread.sleep(100)
+        store.add(arrayOf("1".toByteArray(), "2".toByteArray()), arrayOf(NORMAL, NORMAL))
+        
+        with(StoreMetrics(store, null, uploads)) {
+            assertThat(getWriteRate(earlier)).isGreaterThan(0.0)
+            assertThat(getWriteRate(earlier)).isAtMost(20.0)
+            assertThat(getWriteRate(this)).isEqualTo(0.0)
+        }
+    }
+    
+    @Test
+    fun histogramBuckets() {
+        assertThat(StoreMetrics.Recorder.bucket(-1)).isEqualTo(0)
+        assertThat(StoreMetrics.Recorder.bucket(0)).isEqualTo(0)
+        assertThat(StoreMetrics.Recorder.bucket(1)).isEqualTo(1)
+        assertThat(StoreMetrics.Recorder.bucket(2)).isEqualTo(2)
+        assertThat(StoreMetrics.Recorder.bucket(3)).isEqualTo(2)
+        assertThat(StoreMetrics.Recorder.bucket(4)).isEqualTo(3)
+        assertThat(StoreMetrics.Recorder.bucket(Long.MAX_VALUE))
+                .isEqualTo(StoreMetrics.Histogram.BUCKETS - 1)
+        
+        with(StoreMetrics.Recorder()) {
+            record(0)
+            record(3)
+            record(Long.MAX_VALUE)
+            
+            with(snapshot()) {
+                assertThat(buckets).isEqualTo(StoreMetrics.Histogram.BUCKETS)
+                assertThat(total).isEqualTo(3)
+                assertThat(getUpperBound(0)).isEqualTo(1)
+                assertThat(getUpperBound(2)).isEqualTo(4)
+                assertThat(getUpperBound(buckets - 1)).isEqualTo(Long.MAX_VALUE)
+                assertThat(toString()).isEqualTo("[<1: 1, <4: 1, >=1073741824: 1]")
+            }
+        }
+    }
+}
@@ -111,4 +111,126 @@ class SettingsTest {
         uut.httpRequestEngageTimeout = 0
         assertThat(uut.httpRequestEngageTimeout).isEqualTo(0)
     }
+    
+    @Test
+    fun prewarmConnections() {
+        assertThat(uut.isPrewarmConnections).isFalse()
+        
+        uut.isPrewarmConnections = true
+        assertThat(uut.isPrewarmConnections).isTrue()
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun eventQueueCapacityInvalid() {
+        uut.eventQueueCapacity = 0
+    }
+    
+    @Test
+    fun eventQueueCapacity() {
+        assertThat(uut.eventQueueCapacity).isEqualTo(1024)
+        
+        uut.eventQueueCapacity = 16
+        assertThat(uut.eventQueueCapacity).isEqualTo(16)
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun eventQueueOverflowInvalid() {
+        uut.eventQueueOverflow = null
+    }
+    
+    @Test
+    fun eventQueueOverflow() {
+        assertThat(uut.eventQueueOverflow)
+                .isEqualTo(Settings.EventQueueOverflow.DROP_NEWEST)
+        
+        uut.eventQueueOverflow = Settings.EventQueueOverflow.BLOCK
+        assertThat(uut.eventQueueOverflow)
+                .isEqualTo(Settings.EventQueueOverflow.BLOCK)
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun eventQueueBlockTimeoutInvalid() {
+        uut.eventQueueBlockTimeout = -1
+    }
+    
+    @Test
+    fun eventQueueBlockTimeout() {
+        assertThat(uut.eventQueueBlockTimeout).isEqualTo(100)
+        
+        uut.eventQueueBlockTimeout = 0
+        assertThat(uut.eventQueueBlockTimeout).isEqualTo(0)
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun aggregationFlushIntervalInvalid() {
+        uut.aggregationFlushInterval = -1
+    }
+    
+    @Test
+    fun aggregationFlushInterval() {
+        assertThat(uut.aggregationFlushInterval).isEqualTo(60)
+        
+        uut.aggregationFlushInterval = 0
+        assertThat(uut.aggregationFlushInterval).isEqualTo(0)
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun eventMaxAgeInvalid() {
+        uut.eventMaxAge = -1
+    }
+    
+    @Test
+    fun eventMaxAge() {
+        assertThat(uut.eventMaxAge).isEqualTo(0)
+        
+        uut.eventMaxAge = 30 * 24 * 60 * 60
+        assertThat(uut.eventMaxAge).isEqualTo(30 * 24 * 60 * 60)
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun eventSampleRateInvalid() {
+        uut.setEventSampleRate("event", 1.1)
+    }
+    
+    @Test
+    fun eventSampleRate() {
+        assertThat(uut.getEventSampleRate("event")).isEqualTo(1.0)
+        assertThat(uut.hasEventLimits()).isFalse()
+        
+        uut.setEventSampleRate("event", 0.5)
+        assertThat(uut.getEventSampleRate("event")).isEqualTo(0.5)
+        assertThat(uut.getEventSampleRate("other")).isEqualTo(1.0)
+        assertThat(uut.hasEventLimits()).isTrue()
+        
+        uut.setEventSampleRate("event", 1.0)
+        assertThat(uut.hasEventLimits()).isFalse()
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun eventRateLimitInvalid() {
+        uut.setEventRateLimit("event", 1.0, 0)
+    }
+    
+    @Test
+    fun eventRateLimit() {
+        assertThat(uut.getEventRateLimit("event")).isEqualTo(0.0)
+        assertThat(uut.getEventRateBurst("event")).isEqualTo(0)
+        
+        uut.setEventRateLimit("event", 2.5, 10)
+        assertThat(uut.getEventRateLimit("event")).isEqualTo(2.5)
+        assertThat(uut.getEventRateBurst("event")).isEqualTo(10)
+        assertThat(uut.hasEventLimits()).isTrue()
+        
+        uut.setEventRateLimit("event", 0.0, 1)
+        assertThat(uut.getEventRateLimit("event")).isEqualTo(0.0)
+        assertThat(uut.hasEventLimits()).isFalse()
+    }
+    
+    @Test
+    fun compressStoredEvents() {
+        assertThat(uut.isCompressStoredEvents).isFalse()
+        
+        uut.isCompressStoredEvents = true
+        assertThat(uut.isCompressStoredEvents).isTrue()
+    }
 }
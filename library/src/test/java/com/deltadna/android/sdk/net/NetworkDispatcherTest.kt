@@ -29,6 +29,7 @@ import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
 import org.robolectric.RuntimeEnvironment
 import java.io.IOException
+import java.util.concurrent.Executor
 import java.util.concurrent.TimeUnit
 
 @RunWith(RobolectricTestRunner::class)
@@ -82,6 +83,41 @@ class NetworkDispatcherTest {
                 null)))
     }
     
+    @Test
+    fun successfulRequestOnCallbackExecutor() {
+        val responseBody = "response"
+        val listener = mock<RequestListener<String>>()
+        val executor = mock<Executor>()
+        whenever(executor.execute(any())).thenAnswer {
+            (it.arguments[0] as Runnable).run()
+        }
+        
+        server!!.enqueue(MockResponse()
+                .setResponseCode(200)
+                .setBody(responseBody))
+        
+        uut!!.enqueue(
+                Request.Builder<String>()
+                        .get()
+                        .url(server!!.url("/success").toString())
+                        .build(),
+                ResponseBodyConverter.STRING,
+                listener,
+                executor)
+        
+        server!!.takeRequest()
+        Thread.sleep(100)
+        
+        assertThat(RuntimeEnvironment.getMasterScheduler().areAnyRunnable())
+                .isFalse()
+        verify(executor).execute(any())
+        verify(listener).onCompleted(eq(Response(
+                200,
+                responseBody.toByteArray(),
+                responseBody,
+                null)))
+    }
+    
     @Test
     fun failureRetriesRequest() {
         val responseBody = "not found"
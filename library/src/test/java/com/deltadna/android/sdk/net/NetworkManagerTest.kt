@@ -34,6 +34,8 @@ import org.junit.runners.model.Statement
 import org.mockito.runners.MockitoJUnitRunner
 import java.io.File
 import java.nio.charset.Charset
+import java.security.MessageDigest
+import java.util.*
 
 @RunWith(MockitoJUnitRunner::class)
 class NetworkManagerTest {
@@ -133,6 +135,19 @@ class NetworkManagerTest {
         }
     }
     
+    @Test
+    fun collectBulkBytes() {
+        server!!.enqueue(MockResponse().setResponseCode(200))
+        
+        uut!!.collectBulk("{\"eventList\":[{}]}".toByteArray(), null, null)
+        
+        with(server!!.takeRequest()) {
+            assertThat(path).isEqualTo("$COLLECT/$ENV_KEY/bulk")
+            assertThat(method).isEqualTo("POST")
+            assertThat(body.readUtf8()).isEqualTo("{\"eventList\":[{}]}")
+        }
+    }
+    
     @Test
     fun collectWithHash() {
         server!!.enqueue(MockResponse().setResponseCode(200))
@@ -202,6 +217,107 @@ class NetworkManagerTest {
         assertThat(dst.delete()).isTrue()
     }
     
+    @Test
+    fun prewarm() {
+        server!!.enqueue(MockResponse().setResponseCode(200))
+        server!!.enqueue(MockResponse()
+                .setResponseCode(200)
+                .setBody("{\"result\":1}"))
+        
+        uut!!.prewarm()
+        
+        with(server!!.takeRequest()) {
+            assertThat(path).isEqualTo("/")
+            assertThat(method).isEqualTo("HEAD")
+            assertThat(sequenceNumber).isEqualTo(0)
+        }
+        
+        while (uut!!.metrics.warmedConnections < 1) Thread.sleep(10)
+        uut!!.engage(JSONObject(), mock())
+        
+        with(server!!.takeRequest()) {
+            assertThat(path).isEqualTo(ENGAGE + "/" + ENV_KEY)
+            // reused the warmed up connection
+            assertThat(sequenceNumber).isEqualTo(1)
+        }
+        
+        while (uut!!.metrics.requests < 1) Thread.sleep(10)
+        with(uut!!.metrics) {
+            assertThat(warmedConnections).isEqualTo(1)
+            assertThat(warmedRequests).isEqualTo(1)
+            assertThat(warmedConnectMillis).isAtLeast(0)
+        }
+    }
+    
+    @Test
+    fun prewarmWithErrorResponse() {
+        server!!.enqueue(MockResponse().setResponseCode(404))
+        server!!.enqueue(MockResponse()
+                .setResponseCode(200)
+                .setBody("{\"result\":1}"))
+        
+        uut!!.prewarm()
+        
+        with(server!!.takeRequest()) {
+            assertThat(method).isEqualTo("HEAD")
+            assertThat(sequenceNumber).isEqualTo(0)
+        }
+        
+        while (uut!!.metrics.warmedConnections < 1) Thread.sleep(10)
+        uut!!.engage(JSONObject(), mock())
+        
+        with(server!!.takeRequest()) {
+            assertThat(path).isEqualTo(ENGAGE + "/" + ENV_KEY)
+            // reused the warmed up connection
+            assertThat(sequenceNumber).isEqualTo(1)
+        }
+    }
+    
+    @Test
+    fun hashingBenchmark() {
+        val secret = "secret"
+        val payload = JSONObject().put("eventList", (1..5000).fold(
+                org.json.JSONArray(),
+                { array, i -> array.put(JSONObject()
+                        .put("eventName", "event")
+                        .put("eventParams", JSONObject().put("index", i))) }))
+                .toString()
+        val bytes = payload.toByteArray(Charset.forName("UTF-8"))
+        val uut = PayloadHasher(secret)
+        val md5 = MessageDigest.getInstance("MD5")
+        
+        // previous approach
+        val legacy = {
+            val digest = md5.digest((payload + secret).toByteArray(
+                    Charset.forName("UTF-8")))
+            val builder = StringBuilder()
+            for (b in digest) {
+                builder.append(String.format(Locale.US, "%02X", b))
+            }
+            builder.toString()
+        }
+        
+        assertThat(uut.hash(bytes)).isEqualTo(legacy())
+        
+        val runs = 50
+        (1..10).forEach { legacy(); uut.hash(bytes) }
+        
+        var start = System.nanoTime()
+        (1..runs).forEach { legacy() }
+        val legacyNanos = (System.nanoTime() - start) / runs
+        
+        start = System.nanoTime()
+        (1..runs).forEach { uut.hash(bytes) }
+        val hasherNanos = (System.nanoTime() - start) / runs
+        
+        println(String.format(
+                Locale.US,
+                "Hashing %d bytes: %.3f ms concatenating, %.3f ms incremental",
+                bytes.size,
+                legacyNanos / 1e6,
+                hasherNanos / 1e6))
+    }
+    
     companion object {
         
         private val ENV_KEY = "env_key"
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016 deltaDNA Ltd. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deltadna.android.sdk.net
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.security.MessageDigest
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+@RunWith(JUnit4::class)
+class PayloadHasherTest {
+    
+    @Test
+    fun hash() {
+        // md5("payload" + "secret")
+        assertThat(PayloadHasher("secret").hash("payload".toByteArray()))
+                .isEqualTo(expected("payload", "secret"))
+    }
+    
+    @Test
+    fun hashRepeatedly() {
+        val uut = PayloadHasher("secret")
+        
+        assertThat(uut.hash("one".toByteArray()))
+                .isEqualTo(expected("one", "secret"))
+        assertThat(uut.hash("two".toByteArray()))
+                .isEqualTo(expected("two", "secret"))
+    }
+    
+    @Test
+    fun hashConcurrently() {
+        val uut = PayloadHasher("secret")
+        val executor = Executors.newFixedThreadPool(4)
+        
+        try {
+            val payloads = (1..200).map { "payload-$it" }
+            val results = executor.invokeAll(payloads.map {
+                Callable { uut.hash(it.toByteArray()) }
+            })
+            
+            payloads.forEachIndexed { i, payload ->
+                assertThat(results[i].get()).isEqualTo(expected(payload, "secret"))
+            }
+        } finally {
+            executor.shutdown()
+        }
+    }
+    
+    @Test
+    fun hex() {
+        assertThat(PayloadHasher.hex(byteArrayOf())).isEmpty()
+        assertThat(PayloadHasher.hex(byteArrayOf(0, 1, 15, 16, 127, -128, -1)))
+                .isEqualTo("00010F107F80FF")
+    }
+    
+    private fun expected(payload: String, secret: String): String {
+        val digest = MessageDigest.getInstance("MD5")
+                .digest((payload + secret).toByteArray())
+        val builder = StringBuilder()
+        for (b in digest) {
+            builder.append(String.format(Locale.US, "%02X", b))
+        }
+        return builder.toString()
+    }
+}
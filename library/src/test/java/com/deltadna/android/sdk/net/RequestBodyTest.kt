@@ -62,4 +62,13 @@ class RequestBodyTest {
         assertThat(uut.type).isEqualTo("application/json; charset=utf-8")
         assertThat(uut.content).isEqualTo("{\"field\":1}".toByteArray(charset("UTF-8")))
     }
+    
+    @Test
+    fun jsonBytes() {
+        val content = "{\"field\":1}".toByteArray(charset("UTF-8"))
+        val uut = RequestBody.json(content)
+        
+        assertThat(uut.type).isEqualTo("application/json; charset=utf-8")
+        assertThat(uut.content).isSameAs(content)
+    }
 }
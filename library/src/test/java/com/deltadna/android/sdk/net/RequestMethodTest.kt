@@ -45,6 +45,15 @@ class RequestMethodTest {
         verify(connection).doInput = eq(true)
     }
     
+    @Test
+    fun setHead() {
+        RequestMethod.HEAD.set(connection)
+        
+        verify(connection).requestMethod = eq(RequestMethod.HEAD.name)
+        verify(connection).doOutput = eq(false)
+        verify(connection).doInput = eq(true)
+    }
+    
     @Test
     fun setPost() {
         RequestMethod.POST.set(connection)
@@ -18,12 +18,15 @@ package com.deltadna.android.sdk.net
 
 import com.deltadna.android.sdk.net.ResponseBodyConverter.*
 import com.google.common.truth.Truth.assertThat
+import org.json.JSONArray
+import org.json.JSONException
 import org.json.JSONObject
 import org.junit.Test
 import org.junit.runner.RunWith
-import org.junit.runners.JUnit4
+import org.robolectric.RobolectricTestRunner
+import java.io.ByteArrayInputStream
 
-@RunWith(JUnit4::class)
+@RunWith(RobolectricTestRunner::class)
 class ResponseBodyConverterTest {
     
     @Test
@@ -43,4 +46,38 @@ class ResponseBodyConverterTest {
         assertThat(JSON.convert("{\"key\" : \"value\"}".toByteArray()).toString())
                 .isEqualTo(JSONObject().put("key", "value").toString())
     }
+    
+    @Test
+    fun jsonNestedValues() {
+        val expected = JSONObject()
+                .put("string", "value")
+                .put("int", 1)
+                .put("long", Long.MAX_VALUE)
+                .put("double", 1.5)
+                .put("boolean", true)
+                .put("null", JSONObject.NULL)
+                .put("array", JSONArray().put(1).put("two").put(JSONObject()))
+                .put("object", JSONObject().put("key", JSONArray()))
+        
+        with(JSON.convert(expected.toString().toByteArray())) {
+            assertThat(toString()).isEqualTo(expected.toString())
+            assertThat(get("int")).isInstanceOf(Integer::class.java)
+            assertThat(get("long")).isInstanceOf(java.lang.Long::class.java)
+            assertThat(get("double")).isInstanceOf(java.lang.Double::class.java)
+        }
+    }
+    
+    @Test
+    fun jsonFromStream() {
+        val stream = ByteArrayInputStream("{\"key\":\"value\"}".toByteArray())
+        
+        assertThat((JSON as StreamingResponseBodyConverter<JSONObject>)
+                .convert(stream).toString())
+                .isEqualTo(JSONObject().put("key", "value").toString())
+    }
+    
+    @Test(expected = JSONException::class)
+    fun jsonNotAnObject() {
+        JSON.convert("[1]".toByteArray())
+    }
 }
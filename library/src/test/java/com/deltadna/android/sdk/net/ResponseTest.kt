@@ -25,6 +25,7 @@ import org.junit.runner.RunWith
 import org.junit.runners.JUnit4
 import java.io.ByteArrayInputStream
 import java.io.IOException
+import java.io.InputStream
 import java.io.PipedInputStream
 import java.io.PipedOutputStream
 import java.net.HttpURLConnection
@@ -85,7 +86,7 @@ class ResponseTest {
                 assertThat(body).isEqualTo(String(bytes))
                 assertThat(error).isNull()
             }
-            verify(stream, times(input.size + 1)).read()
+            verify(stream, atMost(1)).read()
             verify(stream).close()
         }
     }
@@ -105,11 +106,28 @@ class ResponseTest {
                 assertThat(body).isNull()
                 assertThat(error).isEqualTo(String(bytes))
             }
-            verify(stream, times(input.size + 1)).read()
+            verify(stream, atMost(1)).read()
             verify(stream).close()
         }
     }
     
+    @Test
+    fun createHeadWithoutErrorStream() {
+        with(mock<HttpURLConnection>()) {
+            whenever(this.requestMethod).thenReturn("HEAD")
+            whenever(this.responseCode).thenReturn(404)
+            whenever(this.contentLength).thenReturn(-1)
+            whenever(this.errorStream).thenReturn(null)
+            
+            with(Response.create<String>(this, ResponseBodyConverter.STRING)) {
+                assertThat(code).isEqualTo(404)
+                assertThat(bytes).isEmpty()
+                assertThat(body).isNull()
+                assertThat(error).isEmpty()
+            }
+        }
+    }
+    
     @Test
     fun createWithStreamingInput() {
         val input = arrayOf("lorem ", "ipsum")
@@ -137,4 +155,53 @@ class ResponseTest {
             fail("stream has not been closed")
         } catch (expected: IOException) {}
     }
+    
+    @Test
+    fun streamingConverterKeepsBytes() {
+        with(mock<HttpURLConnection>()) {
+            val input = "lorem ipsum".toByteArray()
+            val stream = spy(ByteArrayInputStream(input))
+            whenever(this.responseCode).thenReturn(200)
+            whenever(this.contentLength).thenReturn(input.size)
+            whenever(this.inputStream).thenReturn(stream)
+            
+            val converter = object : StreamingResponseBodyConverter<String> {
+                override fun convert(input: ByteArray) =
+                        throw UnsupportedOperationException()
+                
+                override fun convert(input: InputStream): String {
+                    val bytes = ByteArray(5)
+                    input.read(bytes)
+                    return String(bytes)
+                }
+            }
+            
+            with(Response.create(this, converter)) {
+                assertThat(code).isEqualTo(200)
+                assertThat(bytes).isEqualTo(input)
+                assertThat(body).isEqualTo("lorem")
+                assertThat(error).isNull()
+            }
+            verify(stream).close()
+        }
+    }
+    
+    @Test
+    fun streamingConverterNotUsedForError() {
+        with(mock<HttpURLConnection>()) {
+            val input = "error".toByteArray()
+            whenever(this.responseCode).thenReturn(500)
+            whenever(this.contentLength).thenReturn(-1)
+            whenever(this.errorStream).thenReturn(ByteArrayInputStream(input))
+            
+            val converter = mock<StreamingResponseBodyConverter<String>>()
+            
+            with(Response.create(this, converter)) {
+                assertThat(bytes).isEqualTo(input)
+                assertThat(body).isNull()
+                assertThat(error).isEqualTo("error")
+            }
+            verifyZeroInteractions(converter)
+        }
+    }
 }